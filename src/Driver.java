@@ -10,6 +10,7 @@ import java.nio.file.FileSystems;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collections;
@@ -18,6 +19,7 @@ import java.util.List;
 import com.mactracker.main.log.AbbreviationTrie;
 import com.mactracker.main.log.LogEntry;
 import com.mactracker.main.log.LogParser;
+import com.mactracker.main.log.ParserMetrics;
 import com.mactracker.main.log.Utils;
 
 
@@ -26,23 +28,53 @@ public class Driver {
     public static void main(String[] args) throws IOException {
         // test();
         
-        File mfile = new File("./zin/bname_mappings.txt");
-        
-        Reader mr = openMappingFile(mfile);
-        AbbreviationTrie abbr = Utils.buildAbbrTrie(mr);
-        mr.close();
+        // load the building mappings from their snapshot, when up to date
+        AbbreviationTrie abbr = Utils.loadAbbrTrie(
+            Paths.get("./zin/bname_mappings.txt"),
+            Paths.get("./zout/bname_mappings.trie"));
         
         LogEntry.setAbbreviationTrie(abbr);
         
+        // use the NOTI code mappings file, if there is one
+        File cfile = new File("./zin/noti_codes.txt");
+        if (cfile.exists()) {
+            Reader cr = openMappingFile(cfile);
+            LogEntry.setCodeRegistry(Utils.buildCodeRegistry(cr));
+            cr.close();
+        }
+        
         String filename = "./zin/wifi_2_gt.txt";
         
+        // parses the log at several buffer lengths, which must all agree
+        if (args.length > 0 && args[0].equals("--check-buffers")) {
+            Path log = Paths.get(args.length > 1 ? args[1] : filename);
+            String diff = Utils.checkBufferLengths(log, 2048, 4096, 65536,
+                1024 * 1024);
+            System.out.println(diff == null
+                ? "Buffer length check passed: " + log
+                : "Buffer length check FAILED: " + diff);
+            return;
+        }
+        
+        // same second events differing only in type and AP code all pass
+        if (args.length > 0 && args[0].equals("--check-dedup")) {
+            String diff = Utils.checkDuplicateFilter(4096);
+            System.out.println(diff == null ? "Duplicate filter check passed"
+                : "Duplicate filter check FAILED: " + diff);
+            return;
+        }
+        
         File logs = new File(filename);
         Charset cset = Charset.forName("ASCII");
         
         /* Parser Testing */
-        BufferedReader br = new BufferedReader(new FileReader(logs, cset));
+        // the parser reads straight into its own buffer, no need to buffer
+        Reader lr = new FileReader(logs, cset);
+        
+        // live metrics, observable over JMX while parsing
+        ParserMetrics metrics = new ParserMetrics().register("Driver");
         
-        LogParser parser = new LogParser(br);
+        LogParser parser = new LogParser(lr).metrics(metrics);
         
         System.out.println("Log file: " + filename);
         System.out.println(
@@ -59,6 +91,9 @@ public class Driver {
         System.out.println();
         System.out.println("-- finished parsing --");
         
+        System.out.println();
+        metrics.snapshot().print(System.out);
+        
         System.out.println();
         System.out.println("-- outputting first 10 entries --");
         for (int i = 0; i < 10; i++) {
@@ -1,8 +1,18 @@
 package com.mactracker.main.log;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 
 /**
@@ -54,13 +64,14 @@ public class AbbreviationTrie {
     private FileWriter fw;
     
     private List<String> values;
+    private Map<String, Integer> valueIndexes; // value to its index in values
     private int nextIndex;
     private Node root;
     
     private static class Node {
         private static final byte PREFIX_NODE = -1;
         private Node[] edges; // the chars making up abbreviations
-        private char avals; // num values associated with this node
+        private int avals; // num values associated with this node
         private int vali; // the value index associated with this node
         private boolean abbrev; // signals this node is ending abbrev. char
         
@@ -123,6 +134,7 @@ public class AbbreviationTrie {
      */
     public AbbreviationTrie() {
         values = new ArrayList<String>();
+        valueIndexes = new HashMap<String, Integer>();
         nextIndex = 0;
         root = new Node(Node.PREFIX_NODE);
     }
@@ -167,10 +179,9 @@ public class AbbreviationTrie {
         if (size() > MAX_CAPACITY)
             return TRIE_IS_FULL;
         
-        int index = nextIndex;
-        if (values.contains(value)) {
-            index = values.indexOf(value);
-        }
+        // keys of a known value share its index
+        Integer known = valueIndexes.get(value);
+        int index = known == null ? nextIndex : known;
         
         return put(root, key.toCharArray(), 0, value, index);
     }
@@ -204,6 +215,7 @@ public class AbbreviationTrie {
             // add value to the values list if it not already there
             if (index == nextIndex) {
                 values.add(value);
+                valueIndexes.put(value, index);
                 nextIndex += 1;
             }
             
@@ -450,7 +462,7 @@ public class AbbreviationTrie {
     public String getValueFromIndex(int index) {
         if (index < 0)
             return "Unknown Abbreviation";
-            
+        
         // throw new IllegalArgumentException(
         // "index ( " + index + " ) cannot be less than zero.");
         
@@ -484,5 +496,146 @@ public class AbbreviationTrie {
      */
     public boolean isEmpty() { return size() == 0; }
     
+    /* gives an empty trie the values of an older trie up front, so values
+     * kept by a rebuilt trie keep their index and old indexes still resolve */
+    void seedValues(List<String> seed) {
+        if (!values.isEmpty())
+            throw new IllegalStateException("trie already has values");
+        
+        for (String value : seed) {
+            valueIndexes.putIfAbsent(value, values.size());
+            values.add(value);
+        }
+        
+        nextIndex = values.size();
+    }
+    
+    
+    /* ---------------------------------------------------------------------
+     * Binary snapshots */
+    
+    private static final int SNAPSHOT_MAGIC = 0x41425452; // "ABTR"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final short NO_EDGES = -1;
+    
+    /**
+     * Writes a binary snapshot of this trie to {@code out}, which
+     * {@link #readSnapshot(InputStream)} loads without re-inserting any keys.
+     * The stream is flushed but not closed.
+     * 
+     * @param out
+     *            the stream to write the snapshot to
+     * @throws IOException
+     *                     if writing fails
+     */
+    public void writeSnapshot(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(
+            new BufferedOutputStream(out));
+        
+        data.writeInt(SNAPSHOT_MAGIC);
+        data.writeInt(SNAPSHOT_VERSION);
+        data.writeInt(values.size());
+        for (String value : values) {
+            byte[] utf = value.getBytes(StandardCharsets.UTF_8);
+            data.writeInt(utf.length);
+            data.write(utf);
+        }
+        
+        writeNode(data, root);
+        data.flush();
+    }
+    
+    /* writes node and its edge nodes in pre-order */
+    private static void writeNode(DataOutputStream data, Node node)
+        throws IOException {
+        data.writeInt(node.vali);
+        data.writeInt(node.avals);
+        data.writeBoolean(node.abbrev);
+        
+        if (!node.hasNext()) {
+            data.writeShort(NO_EDGES);
+            return;
+        }
+        
+        short edges = 0;
+        for (Node edge : node.edges) {
+            if (edge != null)
+                edges += 1;
+        }
+        
+        data.writeShort(edges);
+        for (int i = 0; i < node.edges.length; i++) {
+            if (node.edges[i] != null) {
+                data.writeByte(i);
+                writeNode(data, node.edges[i]);
+            }
+        }
+    }
+    
+    /**
+     * Loads a trie from a snapshot written by
+     * {@link #writeSnapshot(OutputStream)}. The snapshot is read to the end
+     * of {@code in} in one go, the stream is not closed.
+     * 
+     * @param in
+     *           the stream to read the snapshot from
+     * @return the trie the snapshot was taken of
+     * @throws IOException
+     *                     if reading fails or {@code in} is not a snapshot
+     */
+    public static AbbreviationTrie readSnapshot(InputStream in)
+        throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(in.readAllBytes());
+        
+        try {
+            if (data.getInt() != SNAPSHOT_MAGIC)
+                throw new IOException("not an abbreviation trie snapshot");
+            int version = data.getInt();
+            if (version != SNAPSHOT_VERSION)
+                throw new IOException(
+                    "unsupported abbreviation trie snapshot version "
+                        + version);
+            
+            AbbreviationTrie trie = new AbbreviationTrie();
+            int count = data.getInt();
+            for (int i = 0; i < count; i++) {
+                int length = data.getInt();
+                String value = new String(data.array(), data.position(),
+                    length, StandardCharsets.UTF_8);
+                data.position(data.position() + length);
+                
+                trie.values.add(value);
+                trie.valueIndexes.put(value, i);
+            }
+            
+            trie.nextIndex = count;
+            trie.root = readNode(data);
+            return trie;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("truncated abbreviation trie snapshot", e);
+        }
+    }
+    
+    /* reads a node and its edge nodes written by writeNode */
+    private static Node readNode(ByteBuffer data) throws IOException {
+        Node node = new Node(data.getInt());
+        node.avals = data.getInt();
+        node.abbrev = data.get() != 0;
+        
+        short edges = data.getShort();
+        if (edges == NO_EDGES)
+            return node;
+        
+        node.edges = new Node[ASCII_ALPHABET_LENGTH];
+        for (int i = 0; i < edges; i++) {
+            int c = data.get() & 0xFF;
+            if (c >= ASCII_ALPHABET_LENGTH)
+                throw new IOException("corrupt abbreviation trie snapshot");
+            
+            node.edges[c] = readNode(data);
+        }
+        
+        return node;
+    }
     
 }
@@ -0,0 +1,137 @@
+package com.mactracker.main.log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Assigns dense int IDs to raw AP names, e.g. {@code Bioi260-AP335-1}, in the
+ * order they are first parsed, and maps each AP to its parent building, i.e.
+ * the value index of its abbreviation in the abbreviation trie.
+ * <p>
+ * There is one dictionary, shared by all parsers, see
+ * {@link LogEntry#getApDictionary()}. APs are only added to it while entries
+ * are parsed with APs kept, see {@link LogEntry#setKeepAps(boolean)}. IDs are
+ * never reused, so an AP's ID stays valid for as long as the program runs.
+ * 
+ * @author Group Z
+ */
+public final class ApDictionary {
+    private static final int MIN_CAPACITY = 64;
+    
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+    private final List<String> names = new ArrayList<String>();
+    private int[] buildings = new int[MIN_CAPACITY];
+    private AbbreviationTrie trie;
+    
+    
+    /* only LogEntry's AP table creates a dictionary */
+    ApDictionary() {}
+    
+    /* returns the ID of name, adding it if it is new */
+    synchronized int intern(String name) {
+        Integer id = ids.get(name);
+        if (id != null)
+            return id;
+        
+        int next = names.size();
+        if (next == buildings.length)
+            buildings = Arrays.copyOf(buildings, next * 2);
+        
+        buildings[next] = lookup(trie, name);
+        names.add(name);
+        ids.put(name, next);
+        return next;
+    }
+    
+    /* sets the trie AP names are looked up in, and looks up the building of
+     * every AP added so far again */
+    synchronized void setTrie(AbbreviationTrie atrie) {
+        trie = atrie;
+        for (int id = 0; id < names.size(); id++)
+            buildings[id] = lookup(atrie, names.get(id));
+    }
+    
+    /* the value index of an AP name, or VALUE_NOT_FOUND without a trie */
+    private static int lookup(AbbreviationTrie trie, String name) {
+        if (trie == null)
+            return AbbreviationTrie.VALUE_NOT_FOUND;
+        
+        return trie.getValueIndex(name.toCharArray(), 0, name.length());
+    }
+    
+    
+    /**
+     * @param name
+     *             a raw AP name, e.g. {@code Bioi260-AP335-1}
+     * @return the AP's ID, or {@link LogEntry#NO_AP} if no entry of that AP
+     *         has been parsed with APs kept
+     */
+    public synchronized int getId(String name) {
+        Integer id = ids.get(name);
+        return id == null ? LogEntry.NO_AP : id;
+    }
+    
+    /**
+     * @param id
+     *           an AP ID
+     * @return the raw AP name
+     */
+    public synchronized String getName(int id) {
+        checkId(id);
+        return names.get(id);
+    }
+    
+    /**
+     * @param id
+     *           an AP ID
+     * @return the AP's building code, see {@link LogEntry#getApCode()}
+     */
+    public synchronized int getBuildingCode(int id) {
+        checkId(id);
+        return buildings[id];
+    }
+    
+    /**
+     * @param id
+     *           an AP ID
+     * @return the AP's building name, or {@code "Unknown"}
+     */
+    public String getBuilding(int id) {
+        int code = getBuildingCode(id);
+        AbbreviationTrie atrie = LogEntry.abbreviationTrie();
+        if (code < 0 || atrie == null)
+            return "Unknown";
+        
+        return atrie.getValueFromIndex(code);
+    }
+    
+    /**
+     * @param buildingCode
+     *                     a building code, see {@link LogEntry#getApCode()}
+     * @return the IDs of every AP of the building, in ascending order
+     */
+    public synchronized int[] getIds(int buildingCode) {
+        int n = 0;
+        int[] found = new int[names.size()];
+        for (int id = 0; id < names.size(); id++) {
+            if (buildings[id] == buildingCode)
+                found[n++] = id;
+        }
+        
+        return Arrays.copyOf(found, n);
+    }
+    
+    /**
+     * @return the number of APs, IDs range from zero to one less than this
+     */
+    public synchronized int size() { return names.size(); }
+    
+    private void checkId(int id) {
+        if (id < 0 || id >= names.size())
+            throw new IllegalArgumentException("no AP with ID " + id);
+    }
+}
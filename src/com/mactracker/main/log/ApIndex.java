@@ -0,0 +1,176 @@
+package com.mactracker.main.log;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Keeps parsed entries in parse order along with a postings list per AP, i.e.
+ * the positions of every entry of that AP, so per-AP queries read only that
+ * AP's entries instead of re-scanning every entry.
+ * <p>
+ * Entries are added as they are parsed, by passing the index to
+ * {@link LogParser#parse(EntrySink)} or {@link FileIngestor#ingest}, and must
+ * be parsed with APs kept, see {@link LogEntry#setKeepAps(boolean)}. Entries
+ * without an AP are kept but not posted. An index is not thread-safe, parsers
+ * sharing one must hand batches over one at a time as the ingestor does.
+ * 
+ * @author Group Z
+ */
+public class ApIndex implements EntrySink {
+    private static final int MIN_CAPACITY = 1024;
+    private static final int MIN_POSTINGS = 8;
+    private static final int[] NO_POSTINGS = new int[0];
+    
+    private LogEntry[] entries = new LogEntry[MIN_CAPACITY];
+    private int size;
+    
+    // postings[apId][0, counts[apId]) are positions in entries, ascending
+    private int[][] postings = new int[0][];
+    private int[] counts = new int[0];
+    
+    
+    /**
+     * Adds a batch of parsed entries to the index.
+     */
+    @Override
+    public void accept(LogEntry[] batch, int count) {
+        for (int i = 0; i < count; i++)
+            add(batch[i]);
+    }
+    
+    /**
+     * Adds an entry to the index.
+     * 
+     * @param entry
+     *              a parsed entry
+     * @return the entry's position in the index
+     */
+    public int add(LogEntry entry) {
+        if (size == entries.length)
+            entries = Arrays.copyOf(entries, size * 2);
+        
+        int pos = size++;
+        entries[pos] = entry;
+        
+        int ap = entry.getApId();
+        if (ap != LogEntry.NO_AP)
+            post(ap, pos);
+        
+        return pos;
+    }
+    
+    /* appends pos to the postings of ap */
+    private void post(int ap, int pos) {
+        if (ap >= postings.length) {
+            int length = Math.max(ap + 1, postings.length * 2);
+            postings = Arrays.copyOf(postings, length);
+            counts = Arrays.copyOf(counts, length);
+        }
+        
+        int[] list = postings[ap];
+        if (list == null) {
+            list = new int[MIN_POSTINGS];
+            postings[ap] = list;
+        } else if (counts[ap] == list.length) {
+            list = Arrays.copyOf(list, list.length * 2);
+            postings[ap] = list;
+        }
+        
+        list[counts[ap]++] = pos;
+    }
+    
+    
+    /**
+     * @return the number of entries in the index
+     */
+    public int size() { return size; }
+    
+    /**
+     * @param pos
+     *            a position in the index
+     * @return the entry at {@code pos}
+     */
+    public LogEntry get(int pos) {
+        if (pos < 0 || pos >= size)
+            throw new IndexOutOfBoundsException("position " + pos);
+        
+        return entries[pos];
+    }
+    
+    /**
+     * @param apId
+     *             an AP ID, see {@link ApDictionary}
+     * @return the number of entries of the AP
+     */
+    public int count(int apId) {
+        return apId < 0 || apId >= counts.length ? 0 : counts[apId];
+    }
+    
+    /**
+     * @param apId
+     *             an AP ID, see {@link ApDictionary}
+     * @return the positions of every entry of the AP, in ascending order
+     */
+    public int[] positions(int apId) {
+        int n = count(apId);
+        return n == 0 ? NO_POSTINGS : Arrays.copyOf(postings[apId], n);
+    }
+    
+    /**
+     * @param apId
+     *             an AP ID, see {@link ApDictionary}
+     * @return a read-only view of every entry of the AP, in parse order
+     */
+    public List<LogEntry> entries(int apId) {
+        final int[] list = count(apId) == 0 ? NO_POSTINGS : postings[apId];
+        final int n = count(apId);
+        
+        return new AbstractList<LogEntry>() {
+            @Override
+            public LogEntry get(int i) {
+                if (i < 0 || i >= n)
+                    throw new IndexOutOfBoundsException("index " + i);
+                
+                return entries[list[i]];
+            }
+            
+            @Override
+            public int size() { return n; }
+        };
+    }
+    
+    /**
+     * @param apName
+     *               a raw AP name, e.g. {@code Bioi260-AP335-1}
+     * @return a read-only view of every entry of the AP, in parse order
+     */
+    public List<LogEntry> entries(String apName) {
+        return entries(LogEntry.getApDictionary().getId(apName));
+    }
+    
+    /**
+     * @param apId
+     *                  an AP ID, see {@link ApDictionary}
+     * @param fromEpoch
+     *                  the earliest time counted, in seconds since epoch
+     * @param toEpoch
+     *                  the time counted entries are before, in seconds since
+     *                  epoch
+     * @return the number of entries of each type of the AP in
+     *         {@code [fromEpoch, toEpoch)}, indexed by type ordinal
+     */
+    public int[] countByType(int apId, long fromEpoch, long toEpoch) {
+        int[] byType = new int[LogEntry.Type.values().length];
+        int n = count(apId);
+        for (int i = 0; i < n; i++) {
+            LogEntry e = entries[postings[apId][i]];
+            long t = e.getTimeStamp();
+            if (t >= fromEpoch && t < toEpoch)
+                byType[e.getType().ordinal()] += 1;
+        }
+        
+        return byType;
+    }
+}
@@ -0,0 +1,230 @@
+package com.mactracker.main.log;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+
+/**
+ * Interns the raw AP token of parsed messages, {@code [bssid]-[name]} e.g.
+ * {@code 6nZsJu...==-Colv2102-AP325-1}, as a dense radio ID, so an entry can
+ * keep its AP with a single int.
+ * <p>
+ * When a radio is first interned its AP name is added to the
+ * {@link ApDictionary}, and the name's AP ID is cached with the radio. Its
+ * building code is looked up once per radio in each {@link MappingSnapshot}
+ * and cached with that snapshot, so every later message of that radio
+ * resolves its AP and building with one hash probe instead of a trie walk,
+ * and a parser pinned to a snapshot keeps its codes while newer mappings are
+ * published. The AP MAC, model and number are only decoded from the token
+ * when asked for.
+ * <p>
+ * Lookups are lock-free and may run on any number of parser threads at once,
+ * only interning a token not seen before takes a lock. IDs are never reused,
+ * so the table grows with the number of distinct AP radios in the logs.
+ * 
+ * @author Group Z
+ */
+final class ApTable {
+    private static final int MIN_CAPACITY = 256;
+    private static final char DASH = '-';
+    private static final int NO_CODE = Integer.MIN_VALUE; // not looked up yet
+    
+    /* an interned AP token */
+    private static final class Ap {
+        private final char[] token;
+        private final int nameOff; // index of the AP name in token
+        private final int apId; // ID of the AP name in the dictionary
+        
+        private Ap(char[] token, int nameOff, int apId) {
+            this.token = token;
+            this.nameOff = nameOff;
+            this.apId = apId;
+        }
+    }
+    
+    /* open-addressed index of token hashes, an id slot of zero is empty and
+     * otherwise holds the radio ID plus one. Slots are published with a
+     * volatile write after their hash and AP, so readers need no lock. */
+    private static final class Index {
+        private final long[] hashes;
+        private final AtomicIntegerArray ids;
+        private final int mask;
+        
+        private Index(int capacity) {
+            hashes = new long[capacity];
+            ids = new AtomicIntegerArray(capacity);
+            mask = capacity - 1;
+        }
+    }
+    
+    private volatile Index index = new Index(MIN_CAPACITY);
+    private volatile Ap[] aps = new Ap[MIN_CAPACITY / 2];
+    private int size; // guarded by this
+    private final ApDictionary dictionary = new ApDictionary();
+    
+    
+    /* returns the radio ID of the AP token buf[start, end), whose AP name
+     * starts at nameStart, interning the token if it is new */
+    int intern(final char[] buf, int start, int nameStart, int end) {
+        long hash = hash(buf, start, end - start);
+        
+        Index idx = index;
+        int i = (int) hash & idx.mask;
+        int id;
+        while ((id = idx.ids.get(i)) != 0) {
+            if (idx.hashes[i] == hash && matches(aps[id - 1], buf, start, end))
+                return id - 1;
+            i = (i + 1) & idx.mask;
+        }
+        
+        return add(hash, buf, start, nameStart, end);
+    }
+    
+    /* mixes two chars per step, AP tokens are about twice as long as MACs;
+     * never zero, since a zero hash marks an empty slot */
+    private static long hash(final char[] buf, int off, int len) {
+        long h = len;
+        int end = off + len;
+        int i = off;
+        for (; i + 1 < end; i += 2)
+            h = (h ^ (buf[i] | buf[i + 1] << 16)) * 0x9E3779B97F4A7C15L;
+        if (i < end)
+            h = (h ^ buf[i]) * 0x9E3779B97F4A7C15L;
+        
+        h ^= h >>> 32;
+        return h == 0 ? 1 : h;
+    }
+    
+    private static boolean matches(Ap ap, final char[] buf, int start,
+        int end) {
+        return Arrays.equals(ap.token, 0, ap.token.length, buf, start, end);
+    }
+    
+    /* interns a token missed by a lock-free lookup, unless another thread
+     * interned it in the meantime */
+    private synchronized int add(long hash, final char[] buf, int start,
+        int nameStart, int end) {
+        Index idx = index;
+        int i = (int) hash & idx.mask;
+        int id;
+        while ((id = idx.ids.get(i)) != 0) {
+            if (idx.hashes[i] == hash && matches(aps[id - 1], buf, start, end))
+                return id - 1;
+            i = (i + 1) & idx.mask;
+        }
+        
+        if (size == aps.length)
+            aps = Arrays.copyOf(aps, size * 2);
+        
+        int apId = dictionary.intern(
+            String.valueOf(buf, nameStart, end - nameStart));
+        
+        id = size;
+        aps[id] = new Ap(Arrays.copyOfRange(buf, start, end),
+            nameStart - start, apId);
+        size += 1;
+        
+        if (size * 2 > idx.hashes.length) {
+            // publish a rebuilt index, readers of the old one still find
+            // every AP it held
+            index = rebuild(idx.hashes.length * 2);
+        } else {
+            idx.hashes[i] = hash;
+            idx.ids.set(i, id + 1);
+        }
+        
+        return id;
+    }
+    
+    private Index rebuild(int capacity) {
+        Index idx = new Index(capacity);
+        for (int id = 0; id < size; id++) {
+            char[] token = aps[id].token;
+            long hash = hash(token, 0, token.length);
+            int i = (int) hash & idx.mask;
+            while (idx.ids.get(i) != 0)
+                i = (i + 1) & idx.mask;
+            
+            idx.hashes[i] = hash;
+            idx.ids.set(i, id + 1);
+        }
+        
+        return idx;
+    }
+    
+    /* sets the trie the dictionary's AP names are looked up in */
+    void setTrie(AbbreviationTrie atrie) { dictionary.setTrie(atrie); }
+    
+    /* the dictionary of AP names */
+    ApDictionary dictionary() { return dictionary; }
+    
+    
+    /* ---------------------------------------------------------------------
+     * Lazy decoding, valid for any radio ID returned by intern */
+    
+    /* returns the building code of the radio in the mappings names, see
+     * LogEntry#getApCode */
+    int apCode(int id, MappingSnapshot names) {
+        if (names == null)
+            return AbbreviationTrie.VALUE_NOT_FOUND;
+        
+        int[] codes = names.radioCodes;
+        int code = id < codes.length ? codes[id] : NO_CODE;
+        return code != NO_CODE ? code : lookUpCode(id, names);
+    }
+    
+    /* looks up the building code of the radio in names and caches it there,
+     * any thread looking up the same radio and snapshot gets the same code */
+    private synchronized int lookUpCode(int id, MappingSnapshot names) {
+        int[] codes = names.radioCodes;
+        if (id >= codes.length) {
+            int from = codes.length;
+            codes = Arrays.copyOf(codes, Math.max(aps.length, id + 1));
+            Arrays.fill(codes, from, codes.length, NO_CODE);
+        }
+        
+        Ap ap = aps[id];
+        int code = names.apIndex(ap.token, ap.nameOff,
+            ap.token.length - ap.nameOff);
+        codes[id] = code;
+        names.radioCodes = codes;
+        
+        return code;
+    }
+    
+    /* returns the dictionary ID of the radio's AP name */
+    int apId(int id) { return aps[id].apId; }
+    
+    /* returns the AP's BSSID, as it appears in the log */
+    String mac(int id) {
+        Ap ap = aps[id];
+        return String.valueOf(ap.token, 0, ap.nameOff - 1);
+    }
+    
+    /* returns the full AP name, e.g. Colv2102-AP325-1 */
+    String name(int id) { return dictionary.getName(aps[id].apId); }
+    
+    /* returns a dash delimited field of the AP name, e.g. field 1 of
+     * Colv2102-AP325-1 is AP325, or null if the name has fewer fields */
+    String nameField(int id, int field) {
+        Ap ap = aps[id];
+        char[] token = ap.token;
+        
+        int from = ap.nameOff;
+        for (int f = 0; f < field; f++) {
+            while (from < token.length && token[from] != DASH)
+                from++;
+            if (from++ == token.length)
+                return null;
+        }
+        
+        int to = from;
+        while (to < token.length && token[to] != DASH)
+            to++;
+        
+        return String.valueOf(token, from, to - from);
+    }
+    
+    /* returns the number of radios interned */
+    synchronized int size() { return size; }
+}
@@ -0,0 +1,88 @@
+package com.mactracker.main.log;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A pool of equally sized parse buffers shared by {@link LogParser} instances,
+ * so that parsing many small files does not allocate a new buffer per file.
+ * <p>
+ * Since a parser only needs room for whole lines, buffers can be sized to the
+ * files being parsed, e.g. a pool for small per-AP or rotated files can hand
+ * out buffers far smaller than the parser's default. A parser whose buffer
+ * grew to hold a long line hands its grown buffer to the garbage collector
+ * rather than back to the pool.
+ * <p>
+ * A {@code BufferPool} may be shared by any number of threads.
+ * 
+ * @author Group Z
+ */
+public class BufferPool {
+    private final int bufferLength;
+    private final BlockingQueue<char[]> free;
+    private final AtomicLong allocated = new AtomicLong();
+    
+    
+    /**
+     * @param bufferLength
+     *                     the length of every buffer in the pool, in chars
+     * @param maxPooled
+     *                     the maximum number of free buffers kept for reuse
+     * @throws IllegalArgumentException
+     *                                  if {@code bufferLength} or
+     *                                  {@code maxPooled} is less than one
+     */
+    public BufferPool(int bufferLength, int maxPooled) {
+        if (bufferLength < 1)
+            throw new IllegalArgumentException(
+                "bufferLength cannot be less than one");
+        if (maxPooled < 1)
+            throw new IllegalArgumentException(
+                "maxPooled cannot be less than one");
+        
+        this.bufferLength = bufferLength;
+        free = new ArrayBlockingQueue<char[]>(maxPooled);
+    }
+    
+    
+    /**
+     * @return a free buffer from the pool, or a new buffer if none are free
+     */
+    public char[] acquire() {
+        char[] buf = free.poll();
+        if (buf != null)
+            return buf;
+        
+        allocated.incrementAndGet();
+        return new char[bufferLength];
+    }
+    
+    /**
+     * Returns {@code buf} to the pool. Buffers of another length, or buffers
+     * that do not fit in a full pool, are left to the garbage collector.
+     * 
+     * @param buf
+     *            a buffer no longer used by its parser
+     */
+    public void release(char[] buf) {
+        if (buf != null && buf.length == bufferLength)
+            free.offer(buf);
+    }
+    
+    /**
+     * @return the length of every buffer in the pool, in chars
+     */
+    public int getBufferLength() { return bufferLength; }
+    
+    /**
+     * @return the number of free buffers in the pool
+     */
+    public int getFree() { return free.size(); }
+    
+    /**
+     * @return the number of buffers allocated by this pool
+     */
+    public long getAllocated() { return allocated.get(); }
+}
@@ -0,0 +1,215 @@
+package com.mactracker.main.log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+
+/**
+ * A saved point in the parse of a log file, written by a {@link Checkpointer}
+ * so a parse that dies part way through a long file can resume where it left
+ * off instead of starting over.
+ * <p>
+ * A checkpoint holds the file's identity, the offset of the next line to
+ * parse, the parser's diagnostic counts, and the state of any
+ * {@link Checkpointable} sink as of the same line. A file is identified by a
+ * CRC of its first {@value #FINGERPRINT_LENGTH} bytes, which stays the same
+ * as the file grows but not once it is rotated and rewritten.
+ * <p>
+ * Checkpoints are written to a temporary file, forced to disk and then moved
+ * over the last one, so a crash leaves either the old or the new checkpoint
+ * and never a torn one.
+ * 
+ * @author Group Z
+ */
+public final class Checkpoint {
+    /**
+     * The number of leading file bytes a file is identified by.
+     */
+    public static final int FINGERPRINT_LENGTH = 4096;
+    
+    private static final int MAGIC = 0x4C50434B; // "LPCK"
+    private static final int VERSION = 1;
+    
+    private final String file;
+    private final int printLength; // num leading bytes fingerprinted
+    private final long fingerprint;
+    private final long offset;
+    private final long writtenAt;
+    private final int[] counts;
+    private final byte[] state;
+    
+    
+    /* only checkpointers and read create checkpoints */
+    Checkpoint(String file, int printLength, long fingerprint, long offset,
+        long writtenAt, int[] counts, byte[] state) {
+        this.file = file;
+        this.printLength = printLength;
+        this.fingerprint = fingerprint;
+        this.offset = offset;
+        this.writtenAt = writtenAt;
+        this.counts = counts;
+        this.state = state;
+    }
+    
+    
+    /**
+     * @return the path of the log file, as it was when checkpointed
+     */
+    public String getFile() { return file; }
+    
+    /**
+     * @return the byte offset of the next line to parse
+     */
+    public long getOffset() { return offset; }
+    
+    /**
+     * @return when this checkpoint was written, in milliseconds since epoch
+     */
+    public long getWrittenAt() { return writtenAt; }
+    
+    /* the parser's diagnostic counts, see LogParser#counts */
+    int[] counts() { return counts; }
+    
+    /* the state of the sink, empty if it had none */
+    byte[] state() { return state; }
+    
+    /**
+     * @param log
+     *            a log file
+     * @return whether {@code log} is the file this checkpoint was written for,
+     *         and is at least as long as the checkpointed offset
+     * @throws IOException
+     *                     if {@code log} cannot be read
+     */
+    public boolean matches(Path log) throws IOException {
+        if (Files.size(log) < Math.max(offset, printLength))
+            return false;
+        
+        return fingerprint(log, printLength) == fingerprint;
+    }
+    
+    /* the number of leading bytes of log a new checkpoint fingerprints */
+    static int printLength(Path log) throws IOException {
+        return (int) Math.min(Files.size(log), FINGERPRINT_LENGTH);
+    }
+    
+    /* the CRC of the first length bytes of log */
+    static long fingerprint(Path log, int length) throws IOException {
+        byte[] head = new byte[length];
+        try (InputStream in = Files.newInputStream(log)) {
+            if (in.readNBytes(head, 0, length) != length)
+                return -1; // shorter than when checkpointed
+        }
+        
+        CRC32 crc = new CRC32();
+        crc.update(head);
+        return crc.getValue();
+    }
+    
+    
+    /**
+     * Reads a checkpoint written by a {@link Checkpointer}.
+     * 
+     * @param path
+     *             the checkpoint file
+     * @return the checkpoint, or {@code null} if there is no checkpoint file
+     * @throws IOException
+     *                     if the file cannot be read or is not a valid
+     *                     checkpoint
+     */
+    public static Checkpoint read(Path path) throws IOException {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(path);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        
+        if (bytes.length < Long.BYTES)
+            throw new IOException("not a checkpoint: " + path);
+        
+        // the body is followed by its CRC
+        int body = bytes.length - Long.BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, body);
+        if (crc.getValue() != ByteBuffer.wrap(bytes, body, Long.BYTES)
+            .getLong())
+            throw new IOException("corrupt checkpoint: " + path);
+        
+        DataInputStream in = new DataInputStream(
+            new ByteArrayInputStream(bytes, 0, body));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION)
+            throw new IOException("not a checkpoint: " + path);
+        
+        String file = in.readUTF();
+        int printLength = in.readInt();
+        long fingerprint = in.readLong();
+        long offset = in.readLong();
+        long writtenAt = in.readLong();
+        
+        int[] counts = new int[in.readInt()];
+        for (int i = 0; i < counts.length; i++)
+            counts[i] = in.readInt();
+        
+        byte[] state = new byte[in.readInt()];
+        in.readFully(state);
+        
+        return new Checkpoint(file, printLength, fingerprint, offset,
+            writtenAt, counts, state);
+    }
+    
+    /* writes this checkpoint over the one at path, atomically */
+    void write(Path path) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+            256 + state.length);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(file);
+        out.writeInt(printLength);
+        out.writeLong(fingerprint);
+        out.writeLong(offset);
+        out.writeLong(writtenAt);
+        
+        out.writeInt(counts.length);
+        for (int count : counts)
+            out.writeInt(count);
+        
+        out.writeInt(state.length);
+        out.write(state);
+        
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray());
+            while (buf.hasRemaining())
+                ch.write(buf);
+            ch.force(true);
+        }
+        
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("Checkpoint:[ %s @ %d ]  Written:[ %d ]", file,
+            offset, writtenAt);
+    }
+}
@@ -0,0 +1,36 @@
+package com.mactracker.main.log;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Streaming state, e.g. aggregates fed by a sink, that is saved with a
+ * {@link Checkpoint} and restored when a parse resumes from it.
+ * 
+ * @author Group Z
+ */
+public interface Checkpointable {
+    
+    /**
+     * Writes the state as of the last batch handed to this sink. Called on
+     * the checkpointed parser's thread, between batches.
+     * 
+     * @param out
+     *            where to write the state
+     * @throws IOException
+     *                     if writing fails
+     */
+    void writeState(DataOutput out) throws IOException;
+    
+    /**
+     * Adds state written by {@link #writeState(DataOutput)} to this instance,
+     * which is expected to hold no state yet.
+     * 
+     * @param in
+     *           where to read the state from
+     * @throws IOException
+     *                     if reading fails or the state is malformed
+     */
+    void readState(DataInput in) throws IOException;
+}
@@ -0,0 +1,225 @@
+package com.mactracker.main.log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Parses a log file with periodic {@link Checkpoint}s, and resumes from the
+ * last checkpoint if the parse of the same file died part way through.
+ * <p>
+ * A checkpoint is written at most once per interval, after the parser hands
+ * a batch to its sink, so the offset, counts and sink state always agree. A
+ * resumed parse seeks straight to the checkpointed offset, restores the
+ * parser's diagnostic counts and the sink's {@link Checkpointable} state, and
+ * writes a final checkpoint once the file is parsed, so parsing a file that
+ * has grown since only parses the new lines.
+ * <p>
+ * A last line without a line terminator may still be being written, so it
+ * is left for the next parse and the final checkpoint stays at its start. A
+ * read failure part way through likewise leaves the final checkpoint at the
+ * start of the line it cut off.
+ * <p>
+ * Offsets are in bytes, so the file's charset must encode every char in one
+ * byte, e.g. the default ASCII.
+ * 
+ * @author Group Z
+ */
+public class Checkpointer {
+    /**
+     * Default time between checkpoints, one minute.
+     */
+    public static final long DEFAULT_INTERVAL_MILLIS = 60 * 1000;
+    
+    private final Path log;
+    private final Path file;
+    private long intervalNanos = TimeUnit.MILLISECONDS.toNanos(
+        DEFAULT_INTERVAL_MILLIS);
+    private Checkpointable state;
+    private Charset charset = StandardCharsets.US_ASCII;
+    
+    // set per parse
+    private String logName;
+    private int printLength;
+    private long fingerprint;
+    private long lastWrite;
+    private long resumedAt;
+    private int written;
+    private int failed;
+    
+    
+    /**
+     * @param log
+     *                   the log file to parse
+     * @param checkpoint
+     *                   the checkpoint file of {@code log}
+     */
+    public Checkpointer(Path log, Path checkpoint) {
+        if (log == null || checkpoint == null)
+            throw new IllegalArgumentException(
+                "log and checkpoint cannot be null");
+        
+        this.log = log;
+        this.file = checkpoint;
+    }
+    
+    /**
+     * @param millis
+     *               the least time between checkpoints
+     * @return this checkpointer
+     */
+    public Checkpointer interval(long millis) {
+        if (millis < 0)
+            throw new IllegalArgumentException("millis cannot be negative");
+        
+        intervalNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+        return this;
+    }
+    
+    /**
+     * @param sinkState
+     *                  the sink state saved with every checkpoint, e.g. the
+     *                  {@link SharedAggregates} the parse is fed to
+     * @return this checkpointer
+     */
+    public Checkpointer state(Checkpointable sinkState) {
+        state = sinkState;
+        return this;
+    }
+    
+    /**
+     * @param cset
+     *             the charset of the log file, ASCII by default
+     * @return this checkpointer
+     * @throws IllegalArgumentException
+     *                                  if {@code cset} has multi-byte chars
+     */
+    public Checkpointer charset(Charset cset) {
+        if (cset.newEncoder().maxBytesPerChar() != 1)
+            throw new IllegalArgumentException(
+                cset + " has chars longer than one byte");
+        
+        charset = cset;
+        return this;
+    }
+    
+    
+    /**
+     * Parses the log file with {@code parser}, from its last checkpoint if
+     * it has one.
+     * 
+     * @param parser
+     *               the parser to parse with, see
+     *               {@link LogParser#reset(Reader)}
+     * @param sink
+     *               receives the entries parsed
+     * @return the number of entries handed to {@code sink} by this parse
+     * @throws IOException
+     *                     if the log file, a checkpoint or the sink state
+     *                     cannot be read, or the final checkpoint cannot be
+     *                     written, or a read of the log file failed part way
+     *                     through, after checkpointing the lines before it
+     */
+    public int parse(LogParser parser, EntrySink sink) throws IOException {
+        Checkpoint last = Checkpoint.read(file);
+        if (last != null && (!last.matches(log)
+            || last.counts().length != parser.counts().length))
+            last = null; // another file, or another parser version
+        
+        logName = log.toAbsolutePath().toString();
+        resumedAt = last == null ? 0 : last.getOffset();
+        printLength = Checkpoint.printLength(log);
+        fingerprint = Checkpoint.fingerprint(log, printLength);
+        
+        try (FileChannel ch = FileChannel.open(log, StandardOpenOption.READ)) {
+            ch.position(resumedAt);
+            Reader in = new InputStreamReader(Channels.newInputStream(ch),
+                charset);
+            
+            parser.reset(in);
+            parser.startAt(resumedAt);
+            if (last != null) {
+                parser.restoreCounts(last.counts());
+                if (state != null && last.state().length > 0)
+                    state.readState(new DataInputStream(
+                        new ByteArrayInputStream(last.state())));
+            }
+            
+            int parsed;
+            lastWrite = System.nanoTime();
+            parser.checkpoints(this);
+            try {
+                parsed = parser.parse(sink);
+            } finally {
+                parser.checkpoints(null);
+            }
+            
+            write(parser);
+            if (parser.getReadError() != null)
+                throw parser.getReadError();
+            
+            return parsed;
+        }
+    }
+    
+    /* called by the parser after every batch handed to its sink */
+    void flushed(LogParser parser) {
+        if (System.nanoTime() - lastWrite < intervalNanos)
+            return;
+        
+        try {
+            write(parser);
+        } catch (IOException e) {
+            // keep parsing, the next interval tries again
+            failed += 1;
+        }
+    }
+    
+    private void write(LogParser parser) throws IOException {
+        byte[] saved = new byte[0];
+        if (state != null) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            state.writeState(out);
+            out.flush();
+            saved = bytes.toByteArray();
+        }
+        
+        new Checkpoint(logName, printLength, fingerprint,
+            parser.getPosition(), System.currentTimeMillis(), parser.counts(),
+            saved).write(file);
+        
+        lastWrite = System.nanoTime();
+        written += 1;
+    }
+    
+    
+    /**
+     * @return the offset the last parse resumed from, zero if it started
+     *         from the beginning
+     */
+    public long getResumedOffset() { return resumedAt; }
+    
+    /**
+     * @return the number of checkpoints written
+     */
+    public int getCheckpointCount() { return written; }
+    
+    /**
+     * @return the number of checkpoints that could not be written while
+     *         parsing
+     */
+    public int getFailedCount() { return failed; }
+}
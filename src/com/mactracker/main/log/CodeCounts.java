@@ -0,0 +1,33 @@
+package com.mactracker.main.log;
+
+import java.util.Arrays;
+
+/**
+ * A small {@code int} to {@code int} counting table, over a {@link CodeIndex},
+ * used by a single parser thread to tally six digit codes between metric
+ * flushes without autoboxing.
+ * 
+ * @author Group Z
+ */
+final class CodeCounts {
+    private final CodeIndex index = new CodeIndex();
+    private int[] counts = new int[32];
+    
+    void increment(int code) {
+        int i = index.add(code);
+        if (i == counts.length)
+            counts = Arrays.copyOf(counts, i * 2);
+        
+        counts[i] += 1;
+    }
+    
+    /* hands every non-zero count to the metrics registry and zeroes it */
+    void drainTo(ParserMetrics metrics) {
+        for (int i = 0; i < index.size(); i++) {
+            if (counts[i] != 0) {
+                metrics.addCode(index.code(i), counts[i]);
+                counts[i] = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.mactracker.main.log;
+
+import java.util.Arrays;
+
+
+/**
+ * A small open-addressed index of six digit codes, giving each code a dense
+ * index in order of first appearance, so per code values can be kept in
+ * plain arrays indexed by it without autoboxing.
+ * <p>
+ * Used by one thread at a time, e.g. the {@link CodeCounts} and
+ * {@link CodeProfile} of a single parser.
+ * 
+ * @author Group Z
+ */
+final class CodeIndex {
+    private static final int EMPTY = 0; // codes are six digit, never zero
+    private static final int INITIAL_CAPACITY = 64;
+    
+    private int[] slots; // code per slot, EMPTY if unused
+    private int[] indexes; // index of the code per slot
+    private int[] codes; // code per index
+    private int size;
+    
+    CodeIndex() {
+        slots = new int[INITIAL_CAPACITY];
+        indexes = new int[INITIAL_CAPACITY];
+        codes = new int[INITIAL_CAPACITY / 2];
+    }
+    
+    /* returns the index of code, or -1 if it has not been added */
+    int indexOf(int code) {
+        int mask = slots.length - 1;
+        int i = mix(code) & mask;
+        
+        while (slots[i] != EMPTY) {
+            if (slots[i] == code)
+                return indexes[i];
+            i = (i + 1) & mask;
+        }
+        
+        return -1;
+    }
+    
+    /* returns the index of code, giving it the next index if it is new */
+    int add(int code) {
+        int mask = slots.length - 1;
+        int i = mix(code) & mask;
+        
+        while (slots[i] != EMPTY) {
+            if (slots[i] == code)
+                return indexes[i];
+            i = (i + 1) & mask;
+        }
+        
+        slots[i] = code;
+        indexes[i] = size;
+        if (size == codes.length)
+            codes = Arrays.copyOf(codes, size * 2);
+        codes[size] = code;
+        
+        // keep load factor at or below one half
+        if (++size * 2 > slots.length)
+            grow();
+        
+        return size - 1;
+    }
+    
+    /* the code of index */
+    int code(int index) { return codes[index]; }
+    
+    /* the number of codes added */
+    int size() { return size; }
+    
+    private void grow() {
+        slots = new int[slots.length * 2];
+        indexes = new int[slots.length];
+        
+        int mask = slots.length - 1;
+        for (int index = 0; index < size; index++) {
+            int i = mix(codes[index]) & mask;
+            while (slots[i] != EMPTY)
+                i = (i + 1) & mask;
+            
+            slots[i] = codes[index];
+            indexes[i] = index;
+        }
+    }
+    
+    private static int mix(int code) {
+        int h = code * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
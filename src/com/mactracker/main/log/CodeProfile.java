@@ -0,0 +1,212 @@
+package com.mactracker.main.log;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+
+/**
+ * Per NOTI code statistics gathered by a {@link LogParser} in profiling mode.
+ * <p>
+ * For every six digit code this records how many entries were read, the total
+ * number of chars in those entries, and the minimum, average and maximum
+ * length of their message portions.
+ * <p>
+ * The message portion of an entry begins at the second of the two spaces that
+ * end the entry head and ends at (not including) the entry delimiter.
+ * <p>
+ * A profile is filled by one parser thread, profiles from several parsers can
+ * be combined with {@link #merge(CodeProfile)}.
+ * 
+ * @author Group Z
+ */
+public class CodeProfile {
+    private static final int INITIAL_CAPACITY = 32;
+    
+    /**
+     * Returned by getters for codes that have not been profiled.
+     */
+    public static final int NOT_PROFILED = -1;
+    
+    private final CodeIndex index = new CodeIndex();
+    
+    /* per code statistics, by index */
+    private long[] count;
+    private long[] chars; // total chars in entries, including delimiters
+    private long[] msgTotal;
+    private int[] msgMin;
+    private int[] msgMax;
+    private boolean[] known; // whether the code has a LogEntry mapping
+    
+    
+    /**
+     * Constructor that creates an empty profile.
+     */
+    public CodeProfile() {
+        count = new long[INITIAL_CAPACITY];
+        chars = new long[INITIAL_CAPACITY];
+        msgTotal = new long[INITIAL_CAPACITY];
+        msgMin = new int[INITIAL_CAPACITY];
+        msgMax = new int[INITIAL_CAPACITY];
+        known = new boolean[INITIAL_CAPACITY];
+        
+        Arrays.fill(msgMin, Integer.MAX_VALUE);
+    }
+    
+    
+    /* ---------------------------------------------------------------------
+     * Recording, called by LogParser */
+    
+    /**
+     * Records an entry with a recognized code.
+     * 
+     * @param code
+     *                the entry's six digit code
+     * @param entryLen
+     *                the number of chars in the entry, including delimiter
+     * @param msgLen
+     *                the length of the message portion
+     */
+    void record(int code, int entryLen, int msgLen) {
+        int i = slot(code);
+        known[i] = true;
+        count[i] += 1;
+        chars[i] += entryLen;
+        
+        msgTotal[i] += msgLen;
+        if (msgLen < msgMin[i])
+            msgMin[i] = msgLen;
+        if (msgLen > msgMax[i])
+            msgMax[i] = msgLen;
+    }
+    
+    /**
+     * Records an entry whose NOTI code has no mapping. Unrecognized codes are
+     * skipped straight from the code, so only entry lengths are recorded.
+     * 
+     * @param code
+     *                 the entry's six digit code
+     * @param entryLen
+     *                 the number of chars in the entry, including delimiter
+     */
+    void recordUnknown(int code, int entryLen) {
+        int i = slot(code);
+        count[i] += 1;
+        chars[i] += entryLen;
+    }
+    
+    /* returns the index of code, adding it if it is not present */
+    private int slot(int code) {
+        int i = index.add(code);
+        if (i == count.length)
+            grow();
+        
+        return i;
+    }
+    
+    /* returns the index of code, or -1 if it has not been recorded */
+    private int find(int code) { return index.indexOf(code); }
+    
+    private void grow() {
+        int from = count.length;
+        int capacity = from * 2;
+        count = Arrays.copyOf(count, capacity);
+        chars = Arrays.copyOf(chars, capacity);
+        msgTotal = Arrays.copyOf(msgTotal, capacity);
+        msgMin = Arrays.copyOf(msgMin, capacity);
+        msgMax = Arrays.copyOf(msgMax, capacity);
+        known = Arrays.copyOf(known, capacity);
+        
+        Arrays.fill(msgMin, from, capacity, Integer.MAX_VALUE);
+    }
+    
+    
+    /* ---------------------------------------------------------------------
+     * Queries and reporting */
+    
+    /**
+     * Adds every statistic in {@code other} to this profile.
+     * 
+     * @param other
+     *              the profile to merge into this one
+     * @return this profile
+     */
+    public CodeProfile merge(CodeProfile other) {
+        for (int j = 0; j < other.index.size(); j++) {
+            int i = slot(other.index.code(j));
+            known[i] |= other.known[j];
+            count[i] += other.count[j];
+            chars[i] += other.chars[j];
+            msgTotal[i] += other.msgTotal[j];
+            msgMin[i] = Math.min(msgMin[i], other.msgMin[j]);
+            msgMax[i] = Math.max(msgMax[i], other.msgMax[j]);
+        }
+        
+        return this;
+    }
+    
+    /**
+     * @return the profiled codes in ascending order
+     */
+    public int[] codes() {
+        int[] codes = new int[index.size()];
+        for (int i = 0; i < codes.length; i++)
+            codes[i] = index.code(i);
+        
+        Arrays.sort(codes);
+        return codes;
+    }
+    
+    public long getCount(int code) {
+        int i = find(code);
+        return i < 0 ? 0 : count[i];
+    }
+    
+    public long getChars(int code) {
+        int i = find(code);
+        return i < 0 ? 0 : chars[i];
+    }
+    
+    public int getMinMessageLength(int code) {
+        int i = find(code);
+        return i < 0 || msgMin[i] == Integer.MAX_VALUE ? NOT_PROFILED
+            : msgMin[i];
+    }
+    
+    public int getMaxMessageLength(int code) {
+        int i = find(code);
+        return i < 0 || !known[i] ? NOT_PROFILED : msgMax[i];
+    }
+    
+    public double getAvgMessageLength(int code) {
+        int i = find(code);
+        return i < 0 || !known[i] ? NOT_PROFILED
+            : msgTotal[i] / (double) count[i];
+    }
+    
+    /**
+     * Outputs a per code table of the profiled statistics.
+     * 
+     * @param out
+     *            where to write the table
+     */
+    public void print(PrintStream out) {
+        out.println();
+        out.printf("%-7s %10s %12s %5s %8s %5s%n", "Code", "Entries", "Chars",
+            "Min", "Avg", "Max");
+        
+        for (int code : codes()) {
+            int i = find(code);
+            
+            if (!known[i]) {
+                out.printf("%-7d %10d %12d  (no mapping, skipped from code)%n",
+                    code, count[i], chars[i]);
+                continue;
+            }
+            
+            out.printf("%-7d %10d %12d %5d %8.1f %5d%n", code, count[i],
+                chars[i], msgMin[i], getAvgMessageLength(code), msgMax[i]);
+        }
+        
+        out.println();
+    }
+}
@@ -0,0 +1,152 @@
+package com.mactracker.main.log;
+
+import java.util.Arrays;
+
+
+/**
+ * Maps six digit NOTI codes to the {@link LogEntry} that skips or parses
+ * entries with that code.
+ * <p>
+ * Every NOTI code starts with a {@code 5}, so the registry is a flat array
+ * indexed by {@code code - 500000}. Looking up an unknown code costs one array
+ * read, the same as a known one, which keeps the skip path for unrecognized
+ * codes as fast as possible.
+ * <p>
+ * A registry is usually built from a code mapping file with
+ * {@link Utils#buildCodeRegistry(java.io.Reader)}, and installed with
+ * {@link LogEntry#setCodeRegistry(CodeRegistry)}.
+ * 
+ * @author Group Z
+ */
+public class CodeRegistry {
+    /**
+     * The smallest code the registry can hold.
+     */
+    public static final int MIN_CODE = 500000;
+    /**
+     * The largest code the registry can hold.
+     */
+    public static final int MAX_CODE = 599999;
+    
+    private final LogEntry[] table;
+    private int size;
+    
+    
+    /**
+     * Constructor that creates an empty registry.
+     */
+    public CodeRegistry() { table = new LogEntry[MAX_CODE - MIN_CODE + 1]; }
+    
+    /**
+     * @param code
+     *             a six digit code
+     * @return the log entry associated with {@code code}, or {@code null} if
+     *         {@code code} is not registered
+     */
+    LogEntry get(int code) {
+        int i = code - MIN_CODE;
+        // unsigned compare, also rejects codes less than MIN_CODE
+        if (Integer.compareUnsigned(i, table.length) >= 0)
+            return null;
+        
+        return table[i];
+    }
+    
+    /**
+     * Registers a code whose entries are skipped, i.e. read up to their entry
+     * delimiter without parsing their message.
+     * 
+     * @param code
+     *             a six digit NOTI code
+     * @return this registry
+     */
+    public CodeRegistry putSkip(int code) {
+        return put(code, LogEntry.skipping());
+    }
+    
+    /**
+     * Registers a code whose entries are parsed with a message layout.
+     * 
+     * @param code
+     *                      a six digit NOTI code
+     * @param type
+     *                      one of {@code ASSOC_SUCCESS}, {@code DEAUTH_FROM}
+     *                      or {@code DEAUTH_TO}
+     * @param colonsTillMac
+     *                      the number of colons before the space preceding
+     *                      the station MAC
+     * @param apNameEnd
+     *                      the char ending the AP name, a newline or space
+     * @return this registry
+     */
+    public CodeRegistry putLayout(int code, LogEntry.Type type,
+        int colonsTillMac, char apNameEnd) {
+        return put(code, LogEntry.parsing(
+            new MessageLayout(type, colonsTillMac, apNameEnd)));
+    }
+    
+    /**
+     * Registers {@code code} with the same entry as {@code sameAs}, for codes
+     * whose message layouts only differ in text that is not parsed.
+     * 
+     * @param code
+     *               a six digit NOTI code
+     * @param sameAs
+     *               an already registered code
+     * @return this registry
+     * @throws IllegalArgumentException
+     *                                  if {@code sameAs} is not registered
+     */
+    public CodeRegistry putAlias(int code, int sameAs) {
+        LogEntry entry = get(sameAs);
+        if (entry == null)
+            throw new IllegalArgumentException(
+                "code " + sameAs + " is not registered");
+        
+        return put(code, entry);
+    }
+    
+    /* package-private so LogEntry can register its hardwired entries */
+    CodeRegistry put(int code, LogEntry entry) {
+        if (code < MIN_CODE || code > MAX_CODE)
+            throw new IllegalArgumentException(
+                "code " + code + " is not a six digit NOTI code");
+        
+        int i = code - MIN_CODE;
+        if (table[i] == null)
+            size += 1;
+        table[i] = entry;
+        
+        return this;
+    }
+    
+    /**
+     * @param code
+     *             a six digit code
+     * @return whether {@code code} is registered
+     */
+    public boolean contains(int code) { return get(code) != null; }
+    
+    /**
+     * @return the registered codes in ascending order
+     */
+    public int[] codes() {
+        int[] codes = new int[size];
+        for (int i = 0, n = 0; i < table.length; i++) {
+            if (table[i] != null)
+                codes[n++] = MIN_CODE + i;
+        }
+        
+        return codes;
+    }
+    
+    /**
+     * @return the number of registered codes
+     */
+    public int size() { return size; }
+    
+    @Override
+    public String toString() {
+        return "CodeRegistry " + Arrays.toString(codes());
+    }
+}
@@ -0,0 +1,264 @@
+package com.mactracker.main.log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+
+/**
+ * Streams debug lines captured by a {@link LogParser} to the debug files on a
+ * dedicated thread, in bounded memory.
+ * <p>
+ * Each captured line belongs to a category (e.g. httpd errors or ill-formatted
+ * entries). Only one out of every {@code sampleEvery} lines of a category is
+ * captured, and at most {@code capPerCategory} lines of a category are written
+ * in total. Captured lines are handed to the writer thread through a bounded
+ * queue. When every line is captured ({@link #SAMPLE_ALL} and {@link #NO_CAP},
+ * the defaults) the parser waits for room in a full queue, so no line is lost.
+ * Otherwise, if the queue is full the line is dropped and counted rather than
+ * making the parser wait on disk.
+ * <p>
+ * A {@code DebugWriter} is fed by one parser thread at a time.
+ * 
+ * @author Group Z
+ */
+public class DebugWriter implements AutoCloseable {
+    /**
+     * Capture every line of every category.
+     */
+    public static final int SAMPLE_ALL = 1;
+    /**
+     * No limit on the number of lines written per category.
+     */
+    public static final int NO_CAP = Integer.MAX_VALUE;
+    
+    /* default debug output files */
+    static final String DEFAULT_ALL_FILE = "./zout/debug_all.txt";
+    static final String DEFAULT_FOCUS_FILE = "./zout/debug_focus.txt";
+    
+    // lines queued for the writer thread before captures wait or are dropped
+    private static final int QUEUE_CAPACITY = 8 * 1024;
+    private static final int WRITE_BUFF_LENGTH = 64 * 1024;
+    
+    /* categories, in the order of the parser's category constants */
+    private static final String[] TAGS = { "colAfterBracksErrors",
+            "ColAfterNoBrackets", "NonNotiEntry", "IllFormatEntry [\\r]",
+            "IllFormatEntry [\\n]", "IllFormatMessage" };
+    // whether a category is written to the focus file rather than all file
+    private static final boolean[] FOCUS = { false, false, false, true,
+            true, true };
+    
+    static final int HTTPD = 0;
+    static final int COL_NO_BRACKETS = 1;
+    static final int NON_NOTI = 2;
+    static final int ILL_FORMAT_CR = 3;
+    static final int ILL_FORMAT_LF = 4;
+    static final int ILL_FORMAT_MSG = 5;
+    
+    /* a captured line waiting to be written */
+    private static final class Line {
+        private final int lineNo;
+        private final int category;
+        private final char[] chars;
+        
+        private Line(int lineNo, int category, char[] chars) {
+            this.lineNo = lineNo;
+            this.category = category;
+            this.chars = chars;
+        }
+    }
+    
+    // queued by close() to tell the writer thread to finish
+    private static final Line END = new Line(0, 0, new char[0]);
+    
+    private final int sampleEvery;
+    private final int cap;
+    private final boolean captureAll; // wait for room rather than drop lines
+    private final int[] seen = new int[TAGS.length];
+    private final int[] captured = new int[TAGS.length];
+    private volatile long dropped; // only written by the parser thread
+    
+    private final BlockingQueue<Line> queue;
+    private final Writer all;
+    private final Writer focus;
+    private final Thread writer;
+    private volatile IOException failure;
+    private boolean closed;
+    
+    
+    /**
+     * Constructor that streams every debug line to the default debug files,
+     * {@code ./zout/debug_all.txt} and {@code ./zout/debug_focus.txt}.
+     * 
+     * @throws IOException
+     *                     if either debug file cannot be opened
+     */
+    public DebugWriter() throws IOException {
+        this(new File(DEFAULT_ALL_FILE), new File(DEFAULT_FOCUS_FILE),
+            SAMPLE_ALL, NO_CAP);
+    }
+    
+    /**
+     * @param allFile
+     *                       file for skipped and error entries
+     * @param focusFile
+     *                       file for ill-formatted entries
+     * @param sampleEvery
+     *                       capture one out of every {@code sampleEvery} lines
+     *                       per category, {@link #SAMPLE_ALL} captures all
+     * @param capPerCategory
+     *                       the maximum number of lines written per category,
+     *                       {@link #NO_CAP} for no maximum
+     * @throws IOException
+     *                                  if either debug file cannot be opened
+     * @throws IllegalArgumentException
+     *                                  if {@code sampleEvery} or
+     *                                  {@code capPerCategory} is less than one
+     */
+    public DebugWriter(File allFile, File focusFile, int sampleEvery,
+        int capPerCategory) throws IOException {
+        if (sampleEvery < 1)
+            throw new IllegalArgumentException(
+                "sampleEvery cannot be less than one");
+        if (capPerCategory < 1)
+            throw new IllegalArgumentException(
+                "capPerCategory cannot be less than one");
+        
+        this.sampleEvery = sampleEvery;
+        this.cap = capPerCategory;
+        this.captureAll = sampleEvery == SAMPLE_ALL && capPerCategory == NO_CAP;
+        
+        all = new BufferedWriter(new FileWriter(allFile), WRITE_BUFF_LENGTH);
+        try {
+            focus = new BufferedWriter(new FileWriter(focusFile),
+                WRITE_BUFF_LENGTH);
+        } catch (IOException e) {
+            all.close();
+            throw e;
+        }
+        
+        queue = new ArrayBlockingQueue<Line>(QUEUE_CAPACITY);
+        writer = new Thread(this::drain, "log-parser-debug-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+    
+    
+    /**
+     * Captures {@code buf[from, to)} as a line of {@code category}, if it is
+     * sampled and the category is not at its cap. Only lines queued for the
+     * writer count towards the cap. When every line is captured this waits for
+     * room in the queue. Called by the parser thread.
+     */
+    void capture(int category, int lineNo, char[] buf, int from, int to) {
+        int n = ++seen[category];
+        if (captured[category] >= cap || (n - 1) % sampleEvery != 0)
+            return;
+        
+        char[] chars = new char[to - from];
+        System.arraycopy(buf, from, chars, 0, chars.length);
+        
+        Line line = new Line(lineNo, category, chars);
+        if (captureAll) {
+            try {
+                queue.put(line);
+                captured[category] += 1;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                dropped += 1;
+            }
+        } else if (queue.offer(line)) {
+            captured[category] += 1;
+        } else {
+            dropped += 1;
+        }
+    }
+    
+    /**
+     * @return the number of captured lines dropped because the writer thread
+     *         could not keep up, or because the parser thread was interrupted
+     *         while waiting for it
+     */
+    public long getDropped() { return dropped; }
+    
+    /**
+     * Writes every queued line, closes the debug files and stops the writer
+     * thread.
+     * 
+     * @throws IOException
+     *                     if writing to either debug file failed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        
+        boolean interrupted = false;
+        boolean ended = false;
+        while (writer.isAlive()) {
+            try {
+                if (!ended) {
+                    queue.put(END);
+                    ended = true;
+                }
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        
+        if (failure != null)
+            throw failure;
+    }
+    
+    /* writer thread loop */
+    private void drain() {
+        try {
+            Line line;
+            while ((line = queue.take()) != END) {
+                // after a failed write keep draining, so the parser is never
+                // blocked by a dead writer
+                if (failure == null)
+                    write(line);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeQuietly(all);
+            closeQuietly(focus);
+        }
+    }
+    
+    private void write(Line line) {
+        Writer w = FOCUS[line.category] ? focus : all;
+        
+        try {
+            // same layout as the old "%d  %s  -" format, w/o String.format
+            w.write(Integer.toString(line.lineNo));
+            w.write("  ");
+            w.write(TAGS[line.category]);
+            w.write("  -");
+            w.write(line.chars);
+            w.write('\n');
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+    
+    private void closeQuietly(Writer w) {
+        try {
+            w.close();
+        } catch (IOException e) {
+            if (failure == null)
+                failure = e;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.mactracker.main.log;
+
+import java.util.Arrays;
+
+
+/**
+ * Drops station events logged more than once, e.g. by two of the controllers
+ * whose files are merged, before they reach the wrapped sink and inflate its
+ * counts.
+ * <p>
+ * Two entries are the same event if they have the same type, station, AP
+ * code and timestamp. Each entry is reduced to a 64-bit hash of those, and
+ * the hash is kept in the table of the time slice its timestamp falls in.
+ * Since equal entries have equal timestamps, each entry costs one probe of
+ * one table. The filter keeps {@code slices} tables, which together span the
+ * window. When the newest timestamp moves past the window, the oldest table
+ * is cleared in bulk and reused, so memory stays bounded by the entries of
+ * one window and nothing is evicted entry by entry.
+ * <p>
+ * Entries older than the window cannot be checked and are passed on, and
+ * counted as late. The window should cover how far merged files can be out
+ * of order. Two different events are only mistaken for one if their hashes
+ * collide. Each field is mixed into the hash on its own, so that happens by
+ * chance alone, about once in 2^64 pairs of events.
+ * <p>
+ * A filter is not thread-safe, parsers sharing one must hand batches over
+ * one at a time as the {@link FileIngestor} does.
+ * 
+ * @author Group Z
+ */
+public class DuplicateFilter implements EntrySink {
+    /**
+     * Default number of time slices a window is split into.
+     */
+    public static final int DEFAULT_SLICES = 4;
+    
+    private static final int MIN_CAPACITY = 1024;
+    private static final long NO_SLICE = Long.MIN_VALUE;
+    
+    private final EntrySink sink;
+    private final long sliceSeconds;
+    
+    // the slice tables, a ring indexed by slice number modulo its length
+    private final long[] sliceIds;
+    private final long[][] tables;
+    private final int[] sizes;
+    private long newest = NO_SLICE;
+    
+    private LogEntry[] kept = new LogEntry[0];
+    private long duplicates;
+    private long late;
+    
+    
+    /**
+     * Constructor that splits the window into {@value #DEFAULT_SLICES}
+     * slices.
+     * 
+     * @param sink
+     *                      receives every entry that is not a duplicate
+     * @param windowSeconds
+     *                      how long an entry is remembered, in seconds
+     */
+    public DuplicateFilter(EntrySink sink, long windowSeconds) {
+        this(sink, windowSeconds, DEFAULT_SLICES);
+    }
+    
+    /**
+     * @param sink
+     *                      receives every entry that is not a duplicate
+     * @param windowSeconds
+     *                      how long an entry is remembered, in seconds
+     * @param slices
+     *                      the number of time slices the window is split
+     *                      into, more slices expire entries closer to the
+     *                      window
+     */
+    public DuplicateFilter(EntrySink sink, long windowSeconds, int slices) {
+        if (sink == null)
+            throw new IllegalArgumentException("sink cannot be null");
+        if (windowSeconds < 1 || slices < 1)
+            throw new IllegalArgumentException(
+                "windowSeconds and slices must be positive");
+        
+        this.sink = sink;
+        sliceSeconds = (windowSeconds + slices - 1) / slices;
+        
+        // one more slice than the window needs, for the slice being filled
+        sliceIds = new long[slices + 1];
+        tables = new long[slices + 1][];
+        sizes = new int[slices + 1];
+        Arrays.fill(sliceIds, NO_SLICE);
+    }
+    
+    
+    /**
+     * Passes the entries of the batch that were not seen before on to the
+     * wrapped sink, in one batch.
+     */
+    @Override
+    public void accept(LogEntry[] batch, int count) {
+        if (kept.length < count)
+            kept = new LogEntry[count];
+        
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (firstSeen(batch[i]))
+                kept[n++] = batch[i];
+        }
+        
+        if (n > 0)
+            sink.accept(kept, n);
+        
+        // don't hold on to entries between batches
+        Arrays.fill(kept, 0, n, null);
+    }
+    
+    /* records the entry, returns false if it was recorded before */
+    private boolean firstSeen(LogEntry e) {
+        long slice = Math.floorDiv(e.getTimeStamp(), sliceSeconds);
+        if (slice > newest)
+            advance(slice);
+        
+        int ring = (int) Math.floorMod(slice, (long) sliceIds.length);
+        if (sliceIds[ring] != slice) {
+            // older than every slice kept
+            late += 1;
+            return true;
+        }
+        
+        if (add(ring, hash(e)))
+            return true;
+        
+        duplicates += 1;
+        return false;
+    }
+    
+    /* makes slice the newest, clearing the slices that fall out of the
+     * window in bulk */
+    private void advance(long slice) {
+        long oldest = slice - sliceIds.length + 1;
+        for (int ring = 0; ring < sliceIds.length; ring++) {
+            if (sliceIds[ring] != NO_SLICE && sliceIds[ring] < oldest) {
+                sliceIds[ring] = NO_SLICE;
+                if (tables[ring] != null)
+                    Arrays.fill(tables[ring], 0);
+                sizes[ring] = 0;
+            }
+        }
+        
+        int ring = (int) Math.floorMod(slice, (long) sliceIds.length);
+        sliceIds[ring] = slice;
+        newest = slice;
+        
+        // slices between the old newest and slice may be filled late
+        for (long s = oldest; s < slice; s++) {
+            int r = (int) Math.floorMod(s, (long) sliceIds.length);
+            if (sliceIds[r] == NO_SLICE)
+                sliceIds[r] = s;
+        }
+    }
+    
+    /* adds hash to the table of ring, returns false if it is already in it,
+     * as Set.add does */
+    private boolean add(int ring, long hash) {
+        long[] table = tables[ring];
+        if (table == null) {
+            table = new long[MIN_CAPACITY];
+            tables[ring] = table;
+        } else if (sizes[ring] * 2 >= table.length) {
+            table = grow(table);
+            tables[ring] = table;
+        }
+        
+        int mask = table.length - 1;
+        int i = (int) (hash ^ (hash >>> 32)) & mask;
+        long h;
+        while ((h = table[i]) != 0) {
+            if (h == hash)
+                return false;
+            i = (i + 1) & mask;
+        }
+        
+        table[i] = hash;
+        sizes[ring] += 1;
+        return true;
+    }
+    
+    private static long[] grow(long[] table) {
+        long[] grown = new long[table.length * 2];
+        int mask = grown.length - 1;
+        for (long h : table) {
+            if (h == 0)
+                continue;
+            
+            int i = (int) (h ^ (h >>> 32)) & mask;
+            while (grown[i] != 0)
+                i = (i + 1) & mask;
+            grown[i] = h;
+        }
+        
+        return grown;
+    }
+    
+    /* a 64-bit hash of an entry's type, station, AP code and timestamp,
+     * never zero, since a zero marks an empty slot. The type and AP code are
+     * packed side by side and every field is mixed in on its own, so no two
+     * fields can cancel each other out */
+    private static long hash(LogEntry e) {
+        long h = (e.getApCode() & 0xFFFFFFFFL) << 8 | e.getType().ordinal();
+        h = mix(h * 0x9E3779B97F4A7C15L);
+        h = mix((h ^ e.getTimeStamp()) * 0x9E3779B97F4A7C15L);
+        
+        LogEntry.Station sta = e.getStation();
+        if (sta != null && sta.chars() != null) {
+            for (char c : sta.chars())
+                h = (h ^ c) * 0x9E3779B97F4A7C15L;
+        }
+        
+        h = mix(h);
+        return h == 0 ? 1 : h;
+    }
+    
+    /* spreads the high bits of h over its low bits */
+    private static long mix(long h) { return h ^ (h >>> 29); }
+    
+    
+    /**
+     * @return the number of duplicate entries dropped
+     */
+    public long getDuplicateCount() { return duplicates; }
+    
+    /**
+     * @return the number of entries passed on unchecked, because they were
+     *         older than the window
+     */
+    public long getLateCount() { return late; }
+    
+    /**
+     * @return the number of entry hashes currently remembered
+     */
+    public long size() {
+        long n = 0;
+        for (int size : sizes)
+            n += size;
+        
+        return n;
+    }
+}
@@ -0,0 +1,445 @@
+package com.mactracker.main.log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ * Writes parsed entries to a CSV or newline delimited JSON file, one row per
+ * entry with its timestamp, type, station MAC, AP code and building name.
+ * <p>
+ * Rows are encoded straight into a reusable byte buffer, which is written to
+ * the file's channel whenever it fills, so exporting an entry allocates
+ * nothing and never goes through {@code String.format}. Field names, type
+ * names and building names are encoded once, building names once per AP code
+ * the first time the code is exported, so a row costs a few array copies plus
+ * the digits of its numbers. Building names are cached per
+ * {@link MappingSnapshot}, and re-encoded once new mappings are published.
+ * <p>
+ * An exporter can be passed to {@link LogParser#parse(EntrySink)} to export
+ * while parsing, or fed a list of entries. Large lists can be split across
+ * threads and files with
+ * {@link #exportSplit(List, Path, Format, int)}. An exporter is not
+ * thread-safe, parsers sharing one must hand batches over one at a time as
+ * the {@link FileIngestor} does.
+ * 
+ * @author Group Z
+ */
+public class EntryExporter implements EntrySink, Closeable {
+    /**
+     * Default write buffer length, 1M bytes.
+     */
+    public static final int DEFAULT_BUFF_LENGTH = 1024 * 1024;
+    
+    /**
+     * An export file format.
+     */
+    public enum Format {
+        /**
+         * Comma separated values with a header row, fields quoted only when
+         * they need to be.
+         */
+        CSV(".csv", "timestamp,type,station,apcode,building\n", "", ",", ",",
+            ",", ",", "\n"),
+        /**
+         * One JSON object per line.
+         */
+        NDJSON(".ndjson", "", "{\"timestamp\":", ",\"type\":",
+            ",\"station\":", ",\"apcode\":", ",\"building\":", "}\n");
+        
+        private final String extension;
+        private final byte[] header;
+        private final byte[][] parts; // before each field, and after the last
+        
+        private Format(String extension, String header, String... parts) {
+            this.extension = extension;
+            this.header = ascii(header);
+            this.parts = new byte[parts.length][];
+            for (int i = 0; i < parts.length; i++)
+                this.parts[i] = ascii(parts[i]);
+        }
+        
+        /**
+         * @return the file name extension of this format, e.g. {@code .csv}
+         */
+        public String getExtension() { return extension; }
+    }
+    
+    private static final String UNKNOWN = "Unknown";
+    private static final byte[] NO_BYTES = new byte[0];
+    private static final byte[] NULL = ascii("null");
+    
+    // the longest a row can be, besides its station and building
+    private static final int ROW_OVERHEAD = 128;
+    
+    private final Format format;
+    private final FileChannel channel;
+    private byte[] buf;
+    private int pos;
+    
+    private final byte[][] typeBytes;
+    private MappingSnapshot names; // the mappings nameBytes were encoded from
+    private byte[][] nameBytes = new byte[0][];
+    private final byte[] unknownBytes;
+    private long rows;
+    
+    
+    /**
+     * Constructor that writes through a {@value #DEFAULT_BUFF_LENGTH} byte
+     * buffer.
+     * 
+     * @param file
+     *               the file to write, replaced if it exists
+     * @param format
+     *               the format to write
+     * @throws IOException
+     *                     if the file cannot be opened
+     */
+    public EntryExporter(Path file, Format format) throws IOException {
+        this(file, format, DEFAULT_BUFF_LENGTH);
+    }
+    
+    /**
+     * @param file
+     *                   the file to write, replaced if it exists
+     * @param format
+     *                   the format to write
+     * @param buffLength
+     *                   the number of bytes buffered between writes
+     * @throws IOException
+     *                     if the file cannot be opened
+     */
+    public EntryExporter(Path file, Format format, int buffLength)
+        throws IOException {
+        if (file == null || format == null)
+            throw new IllegalArgumentException(
+                "file and format cannot be null");
+        if (buffLength < ROW_OVERHEAD)
+            throw new IllegalArgumentException(
+                "buffLength cannot be less than " + ROW_OVERHEAD);
+        
+        this.format = format;
+        buf = new byte[buffLength];
+        
+        LogEntry.Type[] types = LogEntry.Type.values();
+        typeBytes = new byte[types.length][];
+        for (int i = 0; i < types.length; i++)
+            typeBytes[i] = field(types[i].name());
+        unknownBytes = field(UNKNOWN);
+        
+        channel = FileChannel.open(file, StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        put(format.header);
+    }
+    
+    
+    /* ---------------------------------------------------------------------
+     * Exporting */
+    
+    /**
+     * Writes a row for every entry of the batch.
+     * 
+     * @throws UncheckedIOException
+     *                              if writing fails
+     */
+    @Override
+    public void accept(LogEntry[] batch, int count) {
+        try {
+            for (int i = 0; i < count; i++)
+                write(batch[i]);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    /**
+     * Writes a row for every entry of {@code entries}.
+     * 
+     * @param entries
+     *                parsed entries
+     * @throws IOException
+     *                     if writing fails
+     */
+    public void writeAll(List<LogEntry> entries) throws IOException {
+        for (LogEntry e : entries)
+            write(e);
+    }
+    
+    /**
+     * Writes a row for an entry.
+     * 
+     * @param entry
+     *              a parsed entry
+     * @throws IOException
+     *                     if writing fails
+     */
+    public void write(LogEntry entry) throws IOException {
+        LogEntry.Station sta = entry.getStation();
+        char[] mac = sta == null ? null : sta.chars();
+        byte[] name = nameOf(entry.getApCode());
+        
+        // a JSON escape is at most six bytes per char
+        int most = ROW_OVERHEAD + name.length + (mac == null ? 0
+            : mac.length * 6);
+        if (buf.length - pos < most) {
+            flush();
+            if (buf.length < most)
+                buf = new byte[most];
+        }
+        
+        byte[][] parts = format.parts;
+        put(parts[0]);
+        putLong(entry.getTimeStamp());
+        put(parts[1]);
+        put(typeBytes[entry.getType().ordinal()]);
+        put(parts[2]);
+        putStation(mac);
+        put(parts[3]);
+        putLong(entry.getApCode());
+        put(parts[4]);
+        put(name);
+        put(parts[5]);
+        
+        rows += 1;
+    }
+    
+    /* the encoded building name of apcode, cached per mapping snapshot */
+    private byte[] nameOf(int apcode) {
+        MappingSnapshot current = LogEntry.getMappings();
+        if (current != names) {
+            names = current;
+            Arrays.fill(nameBytes, null);
+        }
+        
+        if (apcode < 0 || current == null)
+            return unknownBytes;
+        
+        if (apcode >= nameBytes.length)
+            nameBytes = Arrays.copyOf(nameBytes,
+                Math.max(apcode + 1, nameBytes.length * 2));
+        
+        byte[] name = nameBytes[apcode];
+        if (name == null) {
+            name = field(current.getBuilding(apcode));
+            nameBytes[apcode] = name;
+        }
+        
+        return name;
+    }
+    
+    /**
+     * Writes the buffered rows to the file.
+     * 
+     * @throws IOException
+     *                     if writing fails
+     */
+    public void flush() throws IOException {
+        ByteBuffer out = ByteBuffer.wrap(buf, 0, pos);
+        while (out.hasRemaining())
+            channel.write(out);
+        
+        pos = 0;
+    }
+    
+    /**
+     * Writes the buffered rows and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+    
+    /**
+     * @return the number of rows written
+     */
+    public long getRowCount() { return rows; }
+    
+    
+    /* ---------------------------------------------------------------------
+     * Encoding, callers make room in buf first */
+    
+    private void put(byte[] bytes) {
+        System.arraycopy(bytes, 0, buf, pos, bytes.length);
+        pos += bytes.length;
+    }
+    
+    /* the decimal digits of v */
+    private void putLong(long v) {
+        if (v == Long.MIN_VALUE) {
+            put(ascii(Long.toString(v)));
+            return;
+        }
+        
+        if (v < 0) {
+            buf[pos++] = '-';
+            v = -v;
+        }
+        
+        int digits = 1;
+        for (long n = v; n >= 10; n /= 10)
+            digits += 1;
+        
+        int at = pos + digits;
+        pos = at;
+        do {
+            buf[--at] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+    }
+    
+    /* the station field, MACs of plain ASCII are copied as is */
+    private void putStation(char[] mac) {
+        if (mac == null) {
+            put(format == Format.CSV ? NO_BYTES : NULL);
+            return;
+        }
+        
+        for (char c : mac) {
+            if (c < ' ' || c > '~' || c == '"' || c == '\\' || c == ',') {
+                put(field(String.valueOf(mac)));
+                return;
+            }
+        }
+        
+        boolean json = format == Format.NDJSON;
+        if (json)
+            buf[pos++] = '"';
+        for (char c : mac)
+            buf[pos++] = (byte) c;
+        if (json)
+            buf[pos++] = '"';
+    }
+    
+    /* s encoded as a field of this exporter's format */
+    private byte[] field(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        if (format == Format.CSV) {
+            boolean quote = false;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                quote |= c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            
+            if (!quote)
+                return s.getBytes(StandardCharsets.UTF_8);
+            
+            sb.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                sb.append(c == '"' ? "\"\"" : String.valueOf(c));
+            }
+            sb.append('"');
+        } else {
+            sb.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '"' || c == '\\')
+                    sb.append('\\').append(c);
+                else if (c < ' ')
+                    sb.append("\\u00").append(Character.forDigit(c >> 4, 16))
+                        .append(Character.forDigit(c & 0xF, 16));
+                else
+                    sb.append(c);
+            }
+            sb.append('"');
+        }
+        
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+    
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+    
+    
+    /* ---------------------------------------------------------------------
+     * Split exports */
+    
+    /**
+     * Exports {@code entries} to {@code parts} files at once, each written
+     * by its own thread. File {@code i} is named {@code prefix} followed by
+     * {@code -i} and the format's extension, and holds the {@code i}th
+     * contiguous run of entries, so the files read in order hold the entries
+     * in list order. Each CSV file has its own header row.
+     * 
+     * @param entries
+     *                parsed entries
+     * @param prefix
+     *                the path of the files, less their number and extension
+     * @param format
+     *                the format to write
+     * @param parts
+     *                the number of files and threads
+     * @return the files written, in order
+     * @throws IOException
+     *                              if a file cannot be written
+     * @throws InterruptedException
+     *                              if interrupted while waiting for files to
+     *                              be written
+     */
+    public static List<Path> exportSplit(List<LogEntry> entries, Path prefix,
+        Format format, int parts) throws IOException, InterruptedException {
+        if (parts < 1)
+            throw new IllegalArgumentException("parts must be positive");
+        
+        List<Path> files = new ArrayList<Path>(parts);
+        List<Future<Long>> written = new ArrayList<Future<Long>>(parts);
+        
+        ExecutorService exec = Executors.newFixedThreadPool(parts, r -> {
+            Thread t = new Thread(r, "entry-exporter");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            int n = entries.size();
+            for (int i = 0; i < parts; i++) {
+                Path file = prefix.resolveSibling(prefix.getFileName() + "-"
+                    + i + format.getExtension());
+                List<LogEntry> run = entries.subList(
+                    (int) ((long) n * i / parts),
+                    (int) ((long) n * (i + 1) / parts));
+                
+                files.add(file);
+                written.add(exec.submit(() -> {
+                    try (EntryExporter out = new EntryExporter(file,
+                        format)) {
+                        out.writeAll(run);
+                        return out.getRowCount();
+                    }
+                }));
+            }
+            
+            for (Future<Long> f : written) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException)
+                        throw (IOException) cause;
+                    throw new IOException("export failed", cause);
+                }
+            }
+        } finally {
+            exec.shutdownNow();
+        }
+        
+        return files;
+    }
+}
@@ -0,0 +1,181 @@
+package com.mactracker.main.log;
+
+import java.util.Collection;
+
+
+/**
+ * Selects the Assoc Success, Deauth From and Deauth To entries a job cares
+ * about, e.g. one building or a list of station MACs, so the parser can drop
+ * every other entry as early as possible and without allocating.
+ * <p>
+ * Each criterion is checked as soon as the parser has read what it depends
+ * on: the code right after the code is read, the time right after the
+ * timestamp is parsed, the station right after the MAC is found and the
+ * building right after the AP name is looked up. An entry that fails a check
+ * is skipped from there to the entry delimiter and counted as filtered. An
+ * entry is kept only if it passes every criterion set.
+ * <p>
+ * A filter is built before parsing and may be shared by any number of
+ * parsers.
+ * 
+ * @author Group Z
+ */
+public class EntryFilter {
+    private boolean[] codes; // indexed by code - MIN_CODE, null for any
+    private long from = Long.MIN_VALUE;
+    private long to = Long.MAX_VALUE;
+    private boolean[] aps; // indexed by AP code, null for any
+    private MacSet stations; // null for any
+    
+    
+    /**
+     * Keeps only entries with one of {@code codes}. Only codes whose messages
+     * are parsed matter, entries with other codes are skipped regardless.
+     * 
+     * @param codes
+     *              six digit NOTI codes
+     * @return this filter
+     */
+    public EntryFilter codes(int... codes) {
+        boolean[] set = new boolean[CodeRegistry.MAX_CODE
+            - CodeRegistry.MIN_CODE + 1];
+        for (int code : codes) {
+            if (code < CodeRegistry.MIN_CODE || code > CodeRegistry.MAX_CODE)
+                throw new IllegalArgumentException(
+                    "code " + code + " is not a six digit NOTI code");
+            set[code - CodeRegistry.MIN_CODE] = true;
+        }
+        
+        this.codes = set;
+        return this;
+    }
+    
+    /**
+     * Keeps only entries timestamped in {@code [fromEpoch, toEpoch)}.
+     * 
+     * @param fromEpoch
+     *                  the earliest time kept, in seconds since epoch
+     * @param toEpoch
+     *                  the time kept entries are before, in seconds since
+     *                  epoch
+     * @return this filter
+     */
+    public EntryFilter between(long fromEpoch, long toEpoch) {
+        if (fromEpoch > toEpoch)
+            throw new IllegalArgumentException(
+                "fromEpoch cannot be after toEpoch");
+        
+        from = fromEpoch;
+        to = toEpoch;
+        return this;
+    }
+    
+    /**
+     * Keeps only entries with one of {@code apcodes}.
+     * 
+     * @param apcodes
+     *                AP codes, i.e. indexes of building names
+     * @return this filter
+     */
+    public EntryFilter apCodes(int... apcodes) {
+        int max = -1;
+        for (int apcode : apcodes) {
+            if (apcode < 0)
+                throw new IllegalArgumentException(
+                    "apcode cannot be less than zero");
+            max = Math.max(max, apcode);
+        }
+        
+        boolean[] set = new boolean[max + 1];
+        for (int apcode : apcodes)
+            set[apcode] = true;
+        
+        aps = set;
+        return this;
+    }
+    
+    /**
+     * Keeps only entries from one of {@code buildings}, each given as either
+     * an AP name abbreviation (e.g. {@code Atki}) or a building name (e.g.
+     * {@code Atkins}) from the abbreviation trie set on {@link LogEntry}.
+     * 
+     * @param buildings
+     *                  abbreviations or building names
+     * @return this filter
+     * @throws IllegalArgumentException
+     *                                  if a building is not in the trie
+     */
+    public EntryFilter buildings(String... buildings) {
+        return apCodes(apCodesOf(buildings));
+    }
+    
+    /* the AP codes of buildings, each an abbreviation or a building name */
+    static int[] apCodesOf(String... buildings) {
+        AbbreviationTrie trie = LogEntry.abbreviationTrie();
+        if (trie == null)
+            throw new IllegalStateException(
+                "no abbreviation trie set on LogEntry");
+        
+        int[] apcodes = new int[buildings.length];
+        for (int i = 0; i < buildings.length; i++) {
+            String b = buildings[i];
+            int index = b.isEmpty() ? AbbreviationTrie.VALUE_NOT_FOUND
+                : trie.getValueIndex(b.toCharArray(), 0, b.length());
+            
+            if (index < 0)
+                index = trie.getValues().indexOf(b);
+            if (index < 0)
+                throw new IllegalArgumentException(
+                    "building " + b + " is not in the abbreviation trie");
+            
+            apcodes[i] = index;
+        }
+        
+        return apcodes;
+    }
+    
+    /**
+     * Keeps only entries of one of {@code macs}.
+     * 
+     * @param macs
+     *             station MACs, as they appear in the log
+     * @return this filter
+     */
+    public EntryFilter stations(Collection<String> macs) {
+        MacSet set = new MacSet(macs.size());
+        for (String mac : macs)
+            set.add(mac);
+        
+        return stations(set);
+    }
+    
+    /**
+     * Keeps only entries of a station in {@code macs}.
+     * 
+     * @param macs
+     *             a filled set of station MACs
+     * @return this filter
+     */
+    public EntryFilter stations(MacSet macs) {
+        stations = macs;
+        return this;
+    }
+    
+    
+    /* checks, called by LogParser and MessageLayout on the hot path */
+    
+    boolean acceptsCode(int code) {
+        return codes == null || codes[code - CodeRegistry.MIN_CODE];
+    }
+    
+    boolean acceptsTime(long tstamp) { return tstamp >= from && tstamp < to; }
+    
+    boolean acceptsAp(int apcode) {
+        return aps == null || (apcode >= 0 && apcode < aps.length
+            && aps[apcode]);
+    }
+    
+    boolean acceptsStation(final char[] buf, int off, int len) {
+        return stations == null || stations.contains(buf, off, len);
+    }
+}
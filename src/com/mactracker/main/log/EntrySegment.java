@@ -0,0 +1,210 @@
+package com.mactracker.main.log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Parsed entries stored column-wise in fixed length blocks, so they can be
+ * queried with a {@link SegmentQuery} instead of walking a
+ * {@code List<LogEntry>}.
+ * <p>
+ * Each block keeps its entries' timestamps, types, AP codes and station IDs
+ * in primitive arrays. Station MACs are stored once per segment, and entries
+ * refer to them by ID, in order of first appearance. Every block also keeps a
+ * zone map: its earliest and latest timestamp, the set of entry types and a
+ * bitset of the AP codes it holds, so a query skips every block that cannot
+ * match without reading its columns.
+ * <p>
+ * Blocks are filled in the order entries are added. Entries parsed in time
+ * order give blocks narrow, non-overlapping time ranges, so time range
+ * queries read only the few blocks the range covers.
+ * <p>
+ * A segment is not thread-safe, parsers sharing one must hand batches over
+ * one at a time as the {@link FileIngestor} does. Once the entries are added,
+ * any number of queries may read the segment at once.
+ * 
+ * @author Group Z
+ */
+public class EntrySegment implements EntrySink {
+    /**
+     * Default number of entries per block.
+     */
+    public static final int DEFAULT_BLOCK_LENGTH = 4096;
+    /**
+     * Station ID of entries without a station.
+     */
+    static final int NO_STATION = -1;
+    
+    private final int blockLength;
+    private Block[] blocks = new Block[16];
+    private int blockCount;
+    private long size;
+    
+    // station MACs by ID, and IDs by MAC
+    private final List<LogEntry.Station> stations = new ArrayList<>();
+    private final Map<LogEntry.Station, Integer> stationIds = new HashMap<>();
+    
+    // range of the AP codes held, for group-by arrays
+    private int minApCode = Integer.MAX_VALUE;
+    private int maxApCode = Integer.MIN_VALUE;
+    
+    
+    /* one block of entries, with its zone map */
+    static final class Block {
+        final long[] tstamps;
+        final byte[] types;
+        final int[] apcodes;
+        final int[] stations;
+        int size;
+        
+        /* zone map */
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        int typeMask; // bit per type ordinal
+        long[] apBits = new long[1]; // bit per AP code that is not negative
+        boolean negativeAps; // holds an AP code less than zero
+        
+        private Block(int length) {
+            tstamps = new long[length];
+            types = new byte[length];
+            apcodes = new int[length];
+            stations = new int[length];
+        }
+        
+        private void add(long tstamp, int type, int apcode, int station) {
+            tstamps[size] = tstamp;
+            types[size] = (byte) type;
+            apcodes[size] = apcode;
+            stations[size] = station;
+            size += 1;
+            
+            minTime = Math.min(minTime, tstamp);
+            maxTime = Math.max(maxTime, tstamp);
+            typeMask |= 1 << type;
+            
+            if (apcode < 0) {
+                negativeAps = true;
+            } else {
+                int word = apcode >>> 6;
+                if (word >= apBits.length)
+                    apBits = Arrays.copyOf(apBits,
+                        Math.max(word + 1, apBits.length * 2));
+                apBits[word] |= 1L << apcode;
+            }
+        }
+    }
+    
+    
+    /**
+     * Constructor that stores {@value #DEFAULT_BLOCK_LENGTH} entries per
+     * block.
+     */
+    public EntrySegment() { this(DEFAULT_BLOCK_LENGTH); }
+    
+    /**
+     * @param blockLength
+     *                    the number of entries per block, smaller blocks
+     *                    skip more precisely but cost more zone maps
+     */
+    public EntrySegment(int blockLength) {
+        if (blockLength < 1)
+            throw new IllegalArgumentException(
+                "blockLength must be positive");
+        
+        this.blockLength = blockLength;
+    }
+    
+    
+    /**
+     * Adds a batch of parsed entries to the segment.
+     */
+    @Override
+    public void accept(LogEntry[] batch, int count) {
+        for (int i = 0; i < count; i++)
+            add(batch[i]);
+    }
+    
+    /**
+     * Adds an entry to the segment.
+     * 
+     * @param entry
+     *              a parsed entry
+     */
+    public void add(LogEntry entry) {
+        Block b = blockCount == 0 ? null : blocks[blockCount - 1];
+        if (b == null || b.size == blockLength) {
+            if (blockCount == blocks.length)
+                blocks = Arrays.copyOf(blocks, blockCount * 2);
+            
+            b = new Block(blockLength);
+            blocks[blockCount++] = b;
+        }
+        
+        int apcode = entry.getApCode();
+        minApCode = Math.min(minApCode, apcode);
+        maxApCode = Math.max(maxApCode, apcode);
+        
+        b.add(entry.getTimeStamp(), entry.getType().ordinal(), apcode,
+            idOf(entry.getStation()));
+        size += 1;
+    }
+    
+    /* the ID of sta, assigning the next one if it is new */
+    private int idOf(LogEntry.Station sta) {
+        if (sta == null || sta.chars() == null)
+            return NO_STATION;
+        
+        Integer id = stationIds.get(sta);
+        if (id == null) {
+            id = stations.size();
+            stations.add(sta);
+            stationIds.put(sta, id);
+        }
+        
+        return id;
+    }
+    
+    
+    /**
+     * @return a query over this segment's entries
+     */
+    public SegmentQuery query() { return new SegmentQuery(this); }
+    
+    /**
+     * @return the number of entries in the segment
+     */
+    public long size() { return size; }
+    
+    /**
+     * @return the number of blocks in the segment
+     */
+    public int getBlockCount() { return blockCount; }
+    
+    /**
+     * @return the number of distinct stations in the segment
+     */
+    public int getStationCount() { return stations.size(); }
+    
+    /* accessors for SegmentQuery */
+    
+    Block block(int i) { return blocks[i]; }
+    
+    /* the ID of mac, or NO_STATION if no entry has it */
+    int stationId(String mac) {
+        Integer id = stationIds.get(new LogEntry.Station(mac.toCharArray()));
+        return id == null ? NO_STATION : id;
+    }
+    
+    /* the MAC of station ID id */
+    String station(int id) {
+        return id == NO_STATION ? null : stations.get(id).toString();
+    }
+    
+    int minApCode() { return minApCode; }
+    
+    int maxApCode() { return maxApCode; }
+}
@@ -0,0 +1,25 @@
+package com.mactracker.main.log;
+
+/**
+ * Receives the entries parsed by {@link LogParser#parse(EntrySink)} in
+ * batches, rather than one at a time, so that sinks shared by concurrent
+ * parsers pay for synchronization once per batch.
+ * 
+ * @author Group Z
+ */
+@FunctionalInterface
+public interface EntrySink {
+    
+    /**
+     * Receives {@code batch[0, count)}. The parser reuses {@code batch} once
+     * this returns, so sinks must copy out any entries they keep a reference
+     * to the array for.
+     * 
+     * @param batch
+     *              parsed entries, all of type {@code ASSOC_SUCCESS},
+     *              {@code DEAUTH_FROM} or {@code DEAUTH_TO}
+     * @param count
+     *              the number of entries in {@code batch}
+     */
+    void accept(LogEntry[] batch, int count);
+}
@@ -0,0 +1,239 @@
+package com.mactracker.main.log;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * Parses many log files at once, e.g. the small per-AP or hourly logs some
+ * sites write, where time goes to blocking opens and reads rather than to
+ * parsing.
+ * <p>
+ * Every file is parsed on its own virtual thread by a {@link LogParser} with a
+ * buffer from a shared {@link BufferPool}, and the number of files open at
+ * once is capped by a semaphore. Parsed entries from every file are funneled
+ * into a single {@link EntrySink}, which is called by one parser at a time so
+ * it need not be thread-safe.
+ * <p>
+ * Virtual threads need Java 21. On older runtimes files are parsed by a pool
+ * with one platform thread per open file instead.
+ * 
+ * @author Group Z
+ */
+public class FileIngestor {
+    /**
+     * Default buffer length for per-file parsers, 16K chars.
+     */
+    public static final int DEFAULT_BUFF_LENGTH = 16 * 1024;
+    
+    private final int maxOpenFiles;
+    private final BufferPool pool;
+    private Charset charset = StandardCharsets.US_ASCII;
+    private ParserMetrics metrics;
+    
+    
+    /**
+     * Constructor that parses with {@value #DEFAULT_BUFF_LENGTH} char buffers.
+     * 
+     * @param maxOpenFiles
+     *                     the maximum number of files open at once
+     */
+    public FileIngestor(int maxOpenFiles) {
+        this(maxOpenFiles, new BufferPool(DEFAULT_BUFF_LENGTH, maxOpenFiles));
+    }
+    
+    /**
+     * @param maxOpenFiles
+     *                     the maximum number of files open at once
+     * @param pool
+     *                     the pool per-file parsers take buffers from
+     */
+    public FileIngestor(int maxOpenFiles, BufferPool pool) {
+        if (maxOpenFiles < 1)
+            throw new IllegalArgumentException(
+                "maxOpenFiles cannot be less than one");
+        
+        this.maxOpenFiles = maxOpenFiles;
+        this.pool = pool;
+    }
+    
+    /**
+     * @param cset
+     *             the charset of the log files, ASCII by default
+     * @return this ingestor
+     */
+    public FileIngestor charset(Charset cset) {
+        charset = cset;
+        return this;
+    }
+    
+    /**
+     * @param registry
+     *                 the metrics registry every per-file parser publishes to
+     * @return this ingestor
+     */
+    public FileIngestor metrics(ParserMetrics registry) {
+        metrics = registry;
+        return this;
+    }
+    
+    
+    /**
+     * The outcome of an {@link FileIngestor#ingest ingest} call.
+     */
+    public static final class Result {
+        private final int files;
+        private final long entries;
+        private final Map<Path, Exception> failures;
+        
+        private Result(int files, long entries,
+            Map<Path, Exception> failures) {
+            this.files = files;
+            this.entries = entries;
+            this.failures = Collections.unmodifiableMap(failures);
+        }
+        
+        /**
+         * @return the number of files parsed
+         */
+        public int getFileCount() { return files; }
+        
+        /**
+         * @return the number of entries handed to the sink
+         */
+        public long getEntryCount() { return entries; }
+        
+        /**
+         * @return the files that could not be parsed, with the reason
+         */
+        public Map<Path, Exception> getFailures() { return failures; }
+        
+        @Override
+        public String toString() {
+            return "Files: " + files + "  Entries: " + entries
+                + "  Failures: " + failures.size();
+        }
+    }
+    
+    /**
+     * Parses every file in {@code files}, handing all parsed entries to
+     * {@code sink}. Returns once every file has been parsed or has failed.
+     * 
+     * @param files
+     *              the log files to parse
+     * @param sink
+     *              receives the entries of every file, one batch at a time
+     * @return the number of files and entries parsed, and any failures
+     * @throws InterruptedException
+     *                              if interrupted while waiting for files to
+     *                              be parsed
+     */
+    public Result ingest(Collection<Path> files, EntrySink sink)
+        throws InterruptedException {
+        Semaphore open = new Semaphore(maxOpenFiles);
+        AtomicLong entries = new AtomicLong();
+        
+        // one parser at a time hands its batch to sink, a lock rather than a
+        // monitor so a waiting virtual thread doesn't pin its carrier
+        ReentrantLock sinkLock = new ReentrantLock();
+        EntrySink funnel = (batch, count) -> {
+            sinkLock.lock();
+            try {
+                sink.accept(batch, count);
+            } finally {
+                sinkLock.unlock();
+            }
+        };
+        
+        List<Path> paths = new ArrayList<Path>(files);
+        List<Future<Integer>> parsed = new ArrayList<Future<Integer>>();
+        Map<Path, Exception> failures = new LinkedHashMap<Path, Exception>();
+        
+        ExecutorService exec = newExecutor(maxOpenFiles);
+        try {
+            for (Path file : paths) {
+                parsed.add(exec.submit(() -> {
+                    open.acquire();
+                    try {
+                        int n = parseFile(file, funnel);
+                        entries.addAndGet(n);
+                        return n;
+                    } finally {
+                        open.release();
+                    }
+                }));
+            }
+            
+            for (int i = 0; i < paths.size(); i++) {
+                try {
+                    parsed.get(i).get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    failures.put(paths.get(i), cause instanceof Exception
+                        ? (Exception) cause : e);
+                }
+            }
+        } finally {
+            exec.shutdownNow();
+        }
+        
+        return new Result(paths.size() - failures.size(), entries.get(),
+            failures);
+    }
+    
+    /* parses one file with a pooled buffer, failing if a read fails part way
+     * through, after the entries read before it were handed to sink */
+    private int parseFile(Path file, EntrySink sink) throws IOException {
+        try (Reader in = new InputStreamReader(Files.newInputStream(file),
+            charset)) {
+            LogParser parser = new LogParser(in, pool);
+            if (metrics != null)
+                parser.metrics(metrics);
+            
+            try {
+                int n = parser.parse(sink);
+                if (parser.getReadError() != null)
+                    throw parser.getReadError();
+                
+                return n;
+            } finally {
+                parser.release();
+            }
+        }
+    }
+    
+    /* a virtual thread per task when the runtime has them */
+    private static ExecutorService newExecutor(int platformThreads) {
+        try {
+            Method m = Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            // no virtual threads before Java 21, only open files need threads
+            return Executors.newFixedThreadPool(platformThreads, r -> {
+                Thread t = new Thread(r, "log-parser-ingest");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+}
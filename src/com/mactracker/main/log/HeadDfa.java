@@ -0,0 +1,130 @@
+package com.mactracker.main.log;
+
+/**
+ * Precomputed tables for the table-driven entry head parser, see
+ * {@link LogParser#tableDrivenHead(boolean)}.
+ * <p>
+ * Every head char is mapped to one of a few char classes, and the class and
+ * the current state index a transition table. A transition gives the next
+ * state and an action. Most transitions, e.g. any letter or digit, a space
+ * inside a {@code <>} section or a {@code '|'}, have no action and only move
+ * the parser on to the next char. Only colons, spaces outside of sections,
+ * {@code '<'}, carriage returns, line feeds and unbalanced section delimiters
+ * run an action, which the parser implements the same way the switch based
+ * head parser does.
+ * <p>
+ * A state is a bit set of the head sections the parser is in, mirroring the
+ * section states of the switch based head parser.
+ * 
+ * @author Group Z
+ */
+final class HeadDfa {
+    // don't instantiate
+    private HeadDfa() {}
+    
+    /* char classes */
+    static final int OTHER = 0;
+    static final int COLON = 1;
+    static final int SPACE = 2;
+    static final int CARROT_OPEN = 3;
+    static final int CARROT_CLOSE = 4;
+    static final int BRACKET_OPEN = 5;
+    static final int BRACKET_CLOSE = 6;
+    static final int PROCESS_DELIM = 7;
+    static final int CR = 8;
+    static final int LF = 9;
+    static final int CLASS_BITS = 4;
+    
+    /* state bits, a state without HEAD is in the timestamp section */
+    static final int HEAD = 1;
+    static final int CARR = 1 << 1;
+    static final int BRACK = 1 << 2;
+    static final int PROC = 1 << 3;
+    static final int CODE = 1 << 4;
+    static final int SECTIONS = CARR | BRACK | PROC;
+    static final int STATES = 1 << 5;
+    static final int STATE_MASK = STATES - 1;
+    
+    /* actions, the parser moves on to the next char after NONE */
+    static final int NONE = 0;
+    static final int COLON_TSTAMP = 1; // count the colon
+    static final int COLON_HEAD = 2; // count the colon, check for httpd/ERRS
+    static final int TSTAMP_END = 3; // mark the timestamp end, re-read char
+    static final int HEAD_SPACE = 4; // check for a double space
+    static final int OPEN_CARROT = 5; // read the code or skip the section
+    static final int UNEXPECTED = 6; // report an unbalanced delimiter
+    static final int CARRIAGE_RETURN = 7;
+    static final int LINE_FEED = 8;
+    static final int ACTION_SHIFT = 8;
+    
+    /**
+     * The char class of each ASCII char, chars past ASCII are {@link #OTHER}.
+     */
+    static final byte[] CLASSES = new byte[128];
+    
+    /**
+     * Indexed by {@code state << CLASS_BITS | class}, holds the next state
+     * and the action shifted left by {@link #ACTION_SHIFT}.
+     */
+    static final int[] TRANSITIONS = new int[STATES << CLASS_BITS];
+    
+    static {
+        CLASSES[':'] = COLON;
+        CLASSES[' '] = SPACE;
+        CLASSES['<'] = CARROT_OPEN;
+        CLASSES['>'] = CARROT_CLOSE;
+        CLASSES['['] = BRACKET_OPEN;
+        CLASSES[']'] = BRACKET_CLOSE;
+        CLASSES['|'] = PROCESS_DELIM;
+        CLASSES['\r'] = CR;
+        CLASSES['\n'] = LF;
+        
+        for (int s = 0; s < STATES; s++) {
+            boolean head = (s & HEAD) != 0;
+            
+            put(s, OTHER, s, NONE);
+            put(s, COLON, s, head ? COLON_HEAD : COLON_TSTAMP);
+            
+            // the first space ends the timestamp and is then read again as a
+            // head space, spaces in a <>, [] or || section don't matter
+            if (!head)
+                put(s, SPACE, s | HEAD, TSTAMP_END);
+            else if ((s & SECTIONS) != 0)
+                put(s, SPACE, s, NONE);
+            else
+                put(s, SPACE, s, HEAD_SPACE);
+            
+            put(s, CARROT_OPEN, s, OPEN_CARROT);
+            
+            if ((s & CARR) != 0)
+                put(s, CARROT_CLOSE, s & ~CARR, NONE);
+            else
+                put(s, CARROT_CLOSE, s, UNEXPECTED);
+            
+            if ((s & BRACK) != 0)
+                put(s, BRACKET_OPEN, s, UNEXPECTED);
+            else
+                put(s, BRACKET_OPEN, s | BRACK, NONE);
+            
+            if ((s & BRACK) != 0)
+                put(s, BRACKET_CLOSE, s & ~BRACK, NONE);
+            else
+                put(s, BRACKET_CLOSE, s, UNEXPECTED);
+            
+            // the process section flip-flops, it opens and closes with '|'
+            put(s, PROCESS_DELIM, s ^ PROC, NONE);
+            
+            put(s, CR, s, CARRIAGE_RETURN);
+            put(s, LF, s, LINE_FEED);
+        }
+    }
+    
+    private static void put(int state, int cls, int next, int action) {
+        TRANSITIONS[state << CLASS_BITS | cls] = next | action << ACTION_SHIFT;
+    }
+    
+    /* the char class of c */
+    static int classOf(char c) {
+        return c < CLASSES.length ? CLASSES[c] : OTHER;
+    }
+}
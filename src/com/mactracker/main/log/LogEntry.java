@@ -1,14 +1,20 @@
 package com.mactracker.main.log;
 
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
 
 
-public class LogEntry {
-    private static final int SAFE_BUMP = 0;
+public final class LogEntry {
+    /**
+     * The AP ID and radio ID of entries without an AP.
+     */
+    public static final int NO_AP = -1;
+    
+    // the current building mappings, null until a trie is set
+    private static volatile MappingSnapshot mappings;
     
-    private static AbbreviationTrie apNames;
+    /* every AP seen in a parsed message, shared by all parsers */
+    private static final ApTable aps = new ApTable();
+    private static volatile boolean keepAps; // may be set while parsing
     
     /**
      * The type of log entry that's been parsed.
@@ -19,11 +25,82 @@ public class LogEntry {
     
     
     /**
+     * Publishes {@code atrie} as the next version of the building mappings.
+     * Parsers pick it up at their next batch of entries, the trie must not be
+     * changed afterwards.
      * 
      * @param atrie
+     *              the trie AP names are looked up in
+     * @return the published snapshot
      */
-    public static void setAbbreviationTrie(AbbreviationTrie atrie) {
-        apNames = atrie;
+    public static synchronized MappingSnapshot setAbbreviationTrie(
+        AbbreviationTrie atrie) {
+        if (atrie == null)
+            throw new IllegalArgumentException("atrie cannot be null");
+        
+        MappingSnapshot last = mappings;
+        MappingSnapshot next = new MappingSnapshot(
+            last == null ? 1 : last.getVersion() + 1, atrie);
+        
+        aps.setTrie(atrie);
+        mappings = next;
+        return next;
+    }
+    
+    /**
+     * @return the current building mappings, or {@code null} if no trie has
+     *         been set
+     */
+    public static MappingSnapshot getMappings() { return mappings; }
+    
+    /**
+     * Tells parsers whether entries keep their AP, see {@link #getApId}. An
+     * entry's AP MAC, full AP name, model and number are only available if it
+     * was parsed with APs kept. Interning APs costs a hash of the AP token per
+     * entry, so it is off by default.
+     * 
+     * @param keep
+     *             whether entries parsed from now on keep their AP, including
+     *             by parsers that are already running
+     */
+    public static void setKeepAps(boolean keep) { keepAps = keep; }
+    
+    /* whether parsed entries intern their AP */
+    static boolean keepsAps() { return keepAps; }
+    
+    /* the trie AP names are looked up in, or null if not yet set */
+    static AbbreviationTrie abbreviationTrie() {
+        MappingSnapshot current = mappings;
+        return current == null ? null : current.trie();
+    }
+    
+    
+    /**
+     * Replaces the hardwired code-to-entry mappings, e.g. with a registry
+     * loaded from a code mapping file by
+     * {@link Utils#buildCodeRegistry(java.io.Reader)}. Parsers that are
+     * already running switch to {@code registry} from their next entry, so it
+     * should not be changed once set.
+     * 
+     * @param registry
+     *                 the code registry to dispatch codes with
+     */
+    public static void setCodeRegistry(CodeRegistry registry) {
+        if (registry == null)
+            throw new IllegalArgumentException("registry cannot be null");
+        
+        codes = registry;
+    }
+    
+    /**
+     * @return a new registry holding the hardwired code-to-entry mappings
+     */
+    public static CodeRegistry defaultCodeRegistry() {
+        CodeRegistry registry = new CodeRegistry();
+        for (int code : DEFAULT_CODES.codes())
+            registry.put(code, DEFAULT_CODES.get(code));
+        
+        return registry;
     }
     
     
@@ -33,7 +110,38 @@ public class LogEntry {
      * @return the log entry type associated with code, or {@code null} if no
      *         type exists
      */
-    static LogEntry fromCode(Integer code) { return CODES.get(code); }
+    static LogEntry fromCode(int code) { return codes.get(code); }
+    
+    /* factory for entries of codes that are skipped */
+    static LogEntry skipping() { return new LogEntry(); }
+    
+    /* factory for entries of codes whose messages are parsed by layout */
+    static LogEntry parsing(MessageLayout layout) {
+        return new LogEntry(layout);
+    }
+    
+    /* factory for entries produced by LogEntry#parse */
+    static LogEntry parsed(long tstamp, Type type, char[] usmac, int radio,
+        int apcode, int skipcnt) {
+        return new LogEntry(tstamp, type, usmac, radio, apcode, skipcnt, null);
+    }
+    
+    /* interns the AP token buf[start, end), i.e. [bssid]-[name] with the name
+     * starting at nameStart, and returns its radio ID */
+    static int radioId(final char[] buf, int start, int nameStart, int end) {
+        return aps.intern(buf, start, nameStart, end);
+    }
+    
+    /* the building code of a radio ID in the mappings names, looked up once
+     * per radio and snapshot */
+    static int apCode(int radio, MappingSnapshot names) {
+        return aps.apCode(radio, names);
+    }
+    
+    /**
+     * @return the dictionary of every AP kept by parsed entries so far
+     */
+    public static ApDictionary getApDictionary() { return aps.dictionary(); }
     
     
     /**
@@ -45,6 +153,9 @@ public class LogEntry {
         
         Station(char[] mac) { this.mac = mac; }
         
+        /* the MAC chars, not a copy */
+        char[] chars() { return mac; }
+        
         @Override
         public int hashCode() {
             int h = hash;
@@ -75,8 +186,10 @@ public class LogEntry {
     private final long tstamp;
     private final Type type;
     private final Station sta;
+    private final int radio; // NO_AP unless parsed from a message
     private final int apcode;
     private final int skipcnt;
+    private final MessageLayout layout; // null unless a code's entry is parsed
     
     /**
      * Default constructor
@@ -84,21 +197,11 @@ public class LogEntry {
     private LogEntry() { this(0, Type.SKIP, null, 0, 0); }
     
     /**
-     * @param skipcnt
-     *                the safe number of characters to skip
+     * @param layout
+     *                the layout used to parse message portions
      */
-    private LogEntry(int skipcnt) { this(0, Type.SKIP, null, 0, skipcnt); }
-    
-    /**
-     * 
-     * @param type
-     *                one of {@code SKIP}, {@code DEAUTH_FROM},
-     *                {@code DEAUTH_TO} or {@code ASSOC_SUCCESS}
-     * @param skipcnt
-     *                the safe number of characters to skip
-     */
-    private LogEntry(Type type, int skipcnt) {
-        this(0, type, null, 0, skipcnt);
+    private LogEntry(MessageLayout layout) {
+        this(0, layout.type(), null, 0, 0, layout);
     }
     
     /**
@@ -112,15 +215,27 @@ public class LogEntry {
      * @param apname
      *                the AP's building name
      * @param skipcnt
-     *                the safe number of characters to skip
+     *                the number of message characters read by a parse
      */
     private LogEntry(long tstamp, Type type, char[] usmac, int apcode,
         int skipcnt) {
+        this(tstamp, type, usmac, NO_AP, apcode, skipcnt, null);
+    }
+    
+    private LogEntry(long tstamp, Type type, char[] usmac, int apcode,
+        int skipcnt, MessageLayout layout) {
+        this(tstamp, type, usmac, NO_AP, apcode, skipcnt, layout);
+    }
+    
+    private LogEntry(long tstamp, Type type, char[] usmac, int radio,
+        int apcode, int skipcnt, MessageLayout layout) {
         this.tstamp = tstamp;
         this.type = type;
         this.sta = new Station(usmac);
+        this.radio = radio;
         this.apcode = apcode;
         this.skipcnt = skipcnt;
+        this.layout = layout;
     }
     
     
@@ -155,22 +270,76 @@ public class LogEntry {
      * @return the building name associated with this AP or the raw AP name
      */
     public String getApName() {
-        if (getApCode() < 0)
+        MappingSnapshot current = mappings;
+        if (getApCode() < 0 || current == null)
             return "Unknown";
         
-        return apNames.getValueFromIndex(getApCode());
+        // codes are stable across versions, the latest resolves every code
+        return current.getBuilding(getApCode());
+    }
+    
+    /**
+     * Returns the ID of this entry's AP in the {@link ApDictionary}. Every
+     * entry parsed from a message of an AP with the same name has the same ID.
+     * 
+     * @return the AP ID, or {@link #NO_AP} if this entry has no AP or was not
+     *         parsed with APs kept
+     * @see #setKeepAps(boolean)
+     */
+    public int getApId() { return radio == NO_AP ? NO_AP : aps.apId(radio); }
+    
+    /**
+     * Returns the ID of this entry's AP radio. Every entry parsed from a
+     * message of the same radio, i.e. the same BSSID and AP name, has the same
+     * ID.
+     * 
+     * @return the radio ID, or {@link #NO_AP} if this entry has no AP or was
+     *         not parsed with APs kept
+     */
+    public int getRadioId() { return radio; }
+    
+    /**
+     * @return the AP's BSSID as it appears in the log, or {@code null} if this
+     *         entry has no AP
+     */
+    public String getApMac() {
+        return radio == NO_AP ? null : aps.mac(radio);
+    }
+    
+    /**
+     * @return the full AP name, e.g. {@code Colv2102-AP325-1}, or {@code null}
+     *         if this entry has no AP
+     */
+    public String getApRawName() {
+        return radio == NO_AP ? null : aps.name(radio);
+    }
+    
+    /**
+     * @return the AP model from the AP name, e.g. {@code AP325} of
+     *         {@code Colv2102-AP325-1}, or {@code null} if the name has none
+     */
+    public String getApModel() {
+        return radio == NO_AP ? null : aps.nameField(radio, 1);
+    }
+    
+    /**
+     * @return the AP number from the AP name, e.g. {@code 1} of
+     *         {@code Colv2102-AP325-1}, or {@code null} if the name has none
+     */
+    public String getApNumber() {
+        return radio == NO_AP ? null : aps.nameField(radio, 2);
     }
     
     
     /* @return this log entry's six digit code. */
     // int getCode()
     
-    boolean needToParse() { return false; }
+    boolean needToParse() { return layout != null; }
     
     
     /**
-     * @return the minimum number of characters making up the message portion of
-     *         this log entry.
+     * @return the number of message characters read by the parse that produced
+     *         this log entry, or 0 if it was not produced by a parse
      */
     int getSkipCount() { return skipcnt; }
     
@@ -182,12 +351,25 @@ public class LogEntry {
      * portion.
      * 
      * @param buf
-     *            the buffer to read from
+     *               the buffer to read from
      * @param cur
-     *            the current index in the buffer
-     * @return a parsed log entry
+     *               the current index in the buffer
+     * @param filter
+     *               the filter to check the message with, or {@code null}
+     * @param watch
+     *               the watchlist to check the station with, or {@code null}
+     * @param names
+     *               the building mappings to look up the AP name in, or
+     *               {@code null} if none are set
+     * @return a parsed log entry, or see {@link MessageLayout#parse}
      */
-    LogEntry parse(long tstamp, final char[] buf, int cur) { return this; }
+    LogEntry parse(long tstamp, final char[] buf, int cur, EntryFilter filter,
+        MacWatchlist watch, MappingSnapshot names) {
+        if (layout == null)
+            return this;
+        
+        return layout.parse(tstamp, buf, cur, filter, watch, names);
+    }
     
     @Override
     public String toString() {
@@ -201,344 +383,110 @@ public class LogEntry {
     }
     
     /* Private Class Constants */
-    private static final char COLON = ':';
-    private static final char SPACE = ' ';
-    private static final char DASH = '-';
-    private static final char NEWL = '\n';
+    private static final char SPACE = MessageLayout.SPACE;
+    private static final char NEWL = MessageLayout.NEWLINE;
     
     
-    /* Create and populate map of entry types with hardcoded six digit NOTI
-     * codes and skip ahead amounts. */
-    private static final Map<Integer, LogEntry> CODES;
+    /* Create and populate registry of entry types with hardcoded six digit
+     * NOTI codes. */
+    private static final CodeRegistry DEFAULT_CODES;
+    // volatile so parsers already running see a newly set registry
+    private static volatile CodeRegistry codes;
     static {
-        CODES = new HashMap<Integer, LogEntry>();
+        final CodeRegistry CODES = new CodeRegistry();
+        DEFAULT_CODES = CODES;
+        codes = CODES;
+        
+        /* Message layout descriptors, parsed codes differ only in the entry
+         * type they produce, how many colons precede the space before the
+         * user MAC and which char ends the AP name. Every layout is parsed by
+         * the same MessageLayout#parse, so the parse call site in LogParser
+         * stays monomorphic no matter how many layouts are added.
+         * 
+         * code, entry type, colons till user MAC, AP name end */
         
         // -------------------------------------------------------------------
         /* Assoc Related Section */
         
         // 501100 Assoc Success
-        CODES.put(501100, new LogEntry(25) {
-            @Override
-            boolean needToParse() { return true; }
-            
-            @Override
-            LogEntry parse(long tstamp, final char[] buf, int cur) {
-                final byte COLONS_TILL_USER_MAC = 3;
-                char[] umac = null;
-                int apIndex;
-                int start = cur;
-                int mark;
-                byte ccnt = 0; // colon count
-                
-                /* handle parsing of user MAC address to string */
-                
-                while (ccnt < COLONS_TILL_USER_MAC + 1) {
-                    switch (buf[cur++]) {
-                        // colon is the main delimiter for user MAC
-                        case COLON:
-                            ccnt += 1;
-                            break;
-                        
-                        // single space after 3rd colon denotes user MAC
-                        case SPACE:
-                            if (ccnt == COLONS_TILL_USER_MAC) {
-                                // mark beginning colon of station (user) mac
-                                mark = cur;
-                                // read until next colon (end of mac)
-                                while (buf[cur++] != COLON) {}
-                                
-                                umac = Arrays.copyOfRange(buf, mark, cur - 1);
-                                
-                                ccnt += 1;
-                            }
-                            break;
-                    }
-                }
-                
-                /* handle parsing of AP MAC address to string */
-                // skip random text and AP IP address
-                while (buf[cur++] != DASH) {}
-                // mark index after first occurrence of '-'
-                mark = cur;
-                // skip until next dash which delimits end of AP MAC address
-                while (buf[cur++] != DASH) {}
-                
-                // we don't need the AP mac
-                // amac = String.valueOf(buf, mark, cur - mark - 1);
-                
-                /* handle parsing of AP name, which comes directly after MAC */
-                // mark index after AP MAC ending dash delimiter
-                mark = cur;
-                // skip until new line which denotes end of AP name
-                while (buf[cur++] != NEWL) {}
-                // lookup AP name's index from abbreviation and assign it
-                apIndex = apNames.getValueIndex(buf, mark, cur - mark - 1);
-                
-                return new LogEntry(tstamp, Type.ASSOC_SUCCESS, umac, apIndex,
-                    cur - start);
-            }
-        });
+        CODES.putLayout(501100, Type.ASSOC_SUCCESS, 3, NEWL);
         
         // 501102 Disassoc from STA
-        CODES.put(501102, new LogEntry(34) {
-            @Override
-            boolean needToParse() { return true; }
-            
-            @Override
-            LogEntry parse(long tstamp, final char[] buf, int cur) {
-                final byte COLONS_TILL_USER_MAC = 1;
-                char[] umac = null;
-                int apIndex;
-                int start = cur;
-                int mark;
-                byte ccnt = 0; // colon count
-                
-                /* handle parsing of user MAC address to string */
-                
-                while (ccnt < COLONS_TILL_USER_MAC + 1) {
-                    switch (buf[cur++]) {
-                        // colon is the main delimiter for user MAC
-                        case COLON:
-                            ccnt += 1;
-                            break;
-                        
-                        // single space after 1st colon denotes user MAC
-                        case SPACE:
-                            if (ccnt == COLONS_TILL_USER_MAC) {
-                                mark = cur;
-                                
-                                while (buf[cur++] != COLON) {}
-                                
-                                umac = Arrays.copyOfRange(buf, mark, cur - 1);
-                                ccnt += 1;
-                            }
-                            break;
-                    }
-                }
-                
-                /* handle parsing of AP MAC address to string */
-                // skip random text and AP IP address
-                while (buf[cur++] != DASH) {}
-                // mark index after first occurrence of '-'
-                mark = cur;
-                // skip until next dash which delimits end of AP MAC address
-                while (buf[cur++] != DASH) {}
-                /* handle parsing of AP name, which comes directly after MAC */
-                // mark index after AP MAC ending dash delimiter
-                mark = cur;
-                // skip until space which denotes end of AP name
-                while (buf[cur++] != SPACE) {}
-                // lookup AP name from abbreviation and assign it
-                apIndex = apNames.getValueIndex(buf, mark, cur - mark - 1);
-                
-                // skip ahead to next entry
-                while (buf[cur++] != NEWL) {}
-                
-                return new LogEntry(tstamp, Type.DEAUTH_FROM, umac, apIndex,
-                    cur - start);
-            }
-        });
+        CODES.putLayout(501102, Type.DEAUTH_FROM, 1, SPACE);
         
         // -------------------------------------------------------------------
         /* Deauth To Section */
         
         // 501080 Deauth to STA - Ageout AP [reason:%s]
-        CODES.put(501080, new LogEntry(30) {
-            @Override
-            boolean needToParse() { return true; }
-            
-            @Override
-            LogEntry parse(long tstamp, final char[] buf, int cur) {
-                final byte COLONS_TILL_USER_MAC = 1;
-                char[] umac = null;
-                int apIndex;
-                int start = cur;
-                int mark;
-                byte ccnt = 0; // colon count
-                
-                /* handle parsing of user MAC address to string */
-                
-                while (ccnt < COLONS_TILL_USER_MAC + 1) {
-                    switch (buf[cur++]) {
-                        // colon is the main delimiter for user MAC
-                        case COLON:
-                            ccnt += 1;
-                            break;
-                        
-                        // single space after 3rd colon denotes user MAC
-                        case SPACE:
-                            if (ccnt == COLONS_TILL_USER_MAC) {
-                                mark = cur;
-                                while (buf[cur++] != COLON) {}
-                                umac = Arrays.copyOfRange(buf, mark, cur - 1);
-                                ccnt += 1;
-                            }
-                            break;
-                    }
-                }
-                
-                /* handle parsing of AP MAC address to string */
-                // skip random text and AP IP address
-                while (buf[cur++] != DASH) {}
-                // mark index after first occurrence of '-'
-                mark = cur;
-                // skip until next dash which delimits end of AP MAC address
-                while (buf[cur++] != DASH) {}
-                
-                // we don't need the AP's mac
-                // amac = String.valueOf(buf, mark, cur - mark - 1);
-                
-                /* handle parsing of AP name, which comes directly after MAC */
-                // mark index after AP MAC ending dash delimiter
-                mark = cur;
-                // skip until space which denotes end of AP name
-                while (buf[cur++] != SPACE) {}
-                // lookup AP name from abbreviation and assign it
-                apIndex = apNames.getValueIndex(buf, mark, cur - mark - 1);
-                
-                // skip ahead to next entry
-                while (buf[cur++] != NEWL) {}
-                
-                
-                return new LogEntry(tstamp, Type.DEAUTH_TO, umac, apIndex,
-                    cur - start);
-            }
-        });
+        CODES.putLayout(501080, Type.DEAUTH_TO, 1, SPACE);
         
         /* Note: all of the following codes have the same message layouts as the
          * 501080 format, only the text between or after the MACs and AP name
          * changes. */
         
         // 501081 Deauth to STA - Ageout AP [reason:%d]
-        CODES.put(501081, CODES.get(501080));
+        CODES.putAlias(501081, 501080);
         // 501098 Deauth to STA - Moved out from AP to new AP
-        CODES.put(501098, CODES.get(501080));
+        CODES.putAlias(501098, 501080);
         // 501099 Deauth to STA - Reason [resp:%s]
-        CODES.put(501099, CODES.get(501080));
+        CODES.putAlias(501099, 501080);
         // 501106 Deauth to STA - Ageout AP [func:%s]
-        CODES.put(501106, CODES.get(501080));
+        CODES.putAlias(501106, 501080);
         // 501107 Deauth to STA - AP going down
-        CODES.put(501107, CODES.get(501080));
+        CODES.putAlias(501107, 501080);
         // 501108 Deauth to STA - Configuration Change
-        CODES.put(501108, CODES.get(501080));
+        CODES.putAlias(501108, 501080);
         // 501111 Deauth to STA - Reason [resp:%d]
-        CODES.put(501111, CODES.get(501080));
+        CODES.putAlias(501111, 501080);
         
         // -------------------------------------------------------------------
         /* Deauth From Section */
         
-        // 501105 Deauth from STA - with safe skip of 30
-        CODES.put(501105, new LogEntry(30) {
-            @Override
-            boolean needToParse() { return true; }
-            
-            @Override
-            LogEntry parse(long tstamp, final char[] buf, int cur) {
-                final byte COLONS_TILL_USER_MAC = 1;
-                char[] umac = null;
-                int apIndex;
-                int start = cur;
-                int mark;
-                byte ccnt = 0; // colon count
-                
-                /* handle parsing of user MAC address to string */
-                
-                while (ccnt < COLONS_TILL_USER_MAC + 1) {
-                    switch (buf[cur++]) {
-                        // colon is the main delimiter for user MAC
-                        case COLON:
-                            ccnt += 1;
-                            break;
-                        
-                        // single space after 3rd colon denotes user MAC
-                        case SPACE:
-                            if (ccnt == COLONS_TILL_USER_MAC) {
-                                mark = cur;
-                                while (buf[cur++] != COLON) {}
-                                umac = Arrays.copyOfRange(buf, mark, cur - 1);
-                                ccnt += 1;
-                            }
-                            break;
-                    }
-                }
-                
-                /* handle parsing of AP MAC address to string */
-                // skip random text and AP IP address
-                while (buf[cur++] != DASH) {}
-                // mark index after first occurrence of '-'
-                mark = cur;
-                // skip until next dash which delimits end of AP MAC address
-                while (buf[cur++] != DASH) {}
-                
-                // we may need the AP's mac in the future
-                // amac = String.valueOf(buf, mark, cur - mark - 1);
-                
-                /* handle parsing of AP name, which comes directly after MAC */
-                // mark index after AP MAC ending dash delimiter
-                mark = cur;
-                // skip until space which denotes end of AP name
-                while (buf[cur++] != SPACE) {}
-                // lookup AP name from abbreviation and assign it
-                apIndex = apNames.getValueIndex(buf, mark, cur - mark - 1);
-                
-                // skip ahead to next entry
-                while (buf[cur++] != NEWL) {}
-                
-                return new LogEntry(tstamp, Type.DEAUTH_FROM, umac, apIndex,
-                    cur - start);
-            }
-        });
+        // 501105 Deauth from STA
+        CODES.putLayout(501105, Type.DEAUTH_FROM, 1, SPACE);
         
         // 501114 Deauth from STA - same MAC and name locations as 501105 format
-        CODES.put(501114, CODES.get(501105));
+        CODES.putAlias(501114, 501105);
         
         // -------------------------------------------------------------------
-        /* Valid NOIT, aka Skip Codes Section */
+        /* Valid NOIT, aka Skip Codes Section, entries of these codes are
+         * read up to their entry delimiter without parsing their message */
         
-        
-        /* Example of how safe skip ahead is calculated:
-         * 
-         * Aruba 501093 message format is: 'Auth success: [mac]: AP
-         * [ip]-[bssid]-[name]' so safe skip ahead is 21 characters, but
-         * stringified IP addresses use at least 7 characters ('0.0.0.0') and
-         * the base64 MAC addresses are ~40 characters so we can theoretically
-         * skip 21 + (7 + 40 * 2) = 108 characters, not to mention some Auth
-         * messages include base64 usernames. */
         // 501093 Auth Success
-        CODES.put(501093, new LogEntry(21 + SAFE_BUMP));
+        CODES.putSkip(501093);
         
         // 501094 Auth Failure
-        CODES.put(501094, new LogEntry(30 + SAFE_BUMP));
+        CODES.putSkip(501094);
         
         // 501095 Assoc Request
-        CODES.put(501095, CODES.get(501094));
+        CODES.putAlias(501095, 501094);
         
         // 501101 Assoc Failure
-        CODES.put(501101, CODES.get(501094));
+        CODES.putAlias(501101, 501094);
         
-        // 501109 Auth Request - actual skip is 31
-        CODES.put(501109, CODES.get(501094));
+        // 501109 Auth Request
+        CODES.putAlias(501109, 501094);
         
         // 501110 Auth Failure
-        CODES.put(501110, new LogEntry(29 + SAFE_BUMP));
+        CODES.putSkip(501110);
         
         // 501112 Assoc Failure
-        CODES.put(501112, CODES.get(501094));
+        CODES.putAlias(501112, 501094);
         
         // 501199 User Authenticated
-        CODES.put(501199, new LogEntry(56 + SAFE_BUMP));
+        CODES.putSkip(501199);
         
         // 501218 stm_sta_assign_vlan
-        CODES.put(501218, new LogEntry(60 + SAFE_BUMP));
+        CODES.putSkip(501218);
         
         // 522008 User Authenticated
-        CODES.put(522008, new LogEntry(111 + SAFE_BUMP));
+        CODES.putSkip(522008);
         
         // 522038 User Authentication Completed Using
-        CODES.put(522038, new LogEntry(57 + SAFE_BUMP));
+        CODES.putSkip(522038);
         
         // 522275 User Authentication Failed
-        CODES.put(522275, new LogEntry(103 + SAFE_BUMP));
+        CODES.putSkip(522275);
         
     }
     
@@ -1,11 +1,9 @@
 package com.mactracker.main.log;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.Reader;
+import java.io.Writer;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
@@ -35,6 +33,8 @@ public class LogParser {
     private static final int BRACK_SECT = 1 << 9;
     private static final int PROC_SECT = 1 << 10;
     
+    private static final int FILTERED_STATE = 1 << 11;
+    
     private static final int ENTRY_SECT_MASK = CARR_SECT | BRACK_SECT
         | PROC_SECT;
     
@@ -77,17 +77,65 @@ public class LogParser {
     private int httpdErrorCount;
     private int otherErrorCount;
     private int illFormatCount;
+    private int filteredCount;
     private int nonNotiCount;
     
-    // used to debug parsing
-    StringBuilder debugAll;
-    StringBuilder debugFocus;
+    /* metrics, published to the registry once per buffer refill */
+    private ParserMetrics metrics;
+    private CodeCounts codeCounts;
+    private int lastCode; // six digit code of the last entry, or 0 if none
+    private int refillCount;
+    private int growCount;
+    private int tstampParseCount;
+    private long charCount; // chars read since the last publish
+    private final int[] published = new int[PUB_LENGTH];
+    
+    /* per code message length and skip scan profile, null unless profiling */
+    private CodeProfile profile;
+    
+    /* off-heap per station state, updated with every parsed entry */
+    private StationStore stations;
+    
+    /* drops unwanted entries as early as possible, null keeps every entry */
+    private EntryFilter filter;
+    
+    /* flags entries of watched stations, null if none are watched */
+    private MacWatchlist watch;
+    
+    /* building mappings, pinned once per batch so a batch sees one version */
+    private MappingSnapshot mappings;
+    
+    /* writes checkpoints between batches, null if not checkpointing */
+    private Checkpointer checkpointer;
     
-    private void debugEntry(StringBuilder sb, String tag) {
+    /* the first failure while feeding, thrown once the feed is parsed */
+    private RuntimeException feedFailure;
+    
+    /* whether entry heads are parsed with the HeadDfa tables */
+    private boolean tableHead = true;
+    
+    /* end of the current entry's timestamp, set while parsing its head */
+    private int tsend;
+    
+    /* indexes into published, the diagnostic values as of the last publish */
+    private static final int PUB_LINES = 0;
+    private static final int PUB_SKIP = 1;
+    private static final int PUB_CTRL = 2;
+    private static final int PUB_ASSOC = 3;
+    private static final int PUB_DEAUTH_FROM = 4;
+    private static final int PUB_DEAUTH_TO = 5;
+    private static final int PUB_REFILLS = 6;
+    private static final int PUB_GROWS = 7;
+    private static final int PUB_LENGTH = 8;
+    
+    // used to debug parsing, streams captured lines to the debug files
+    private DebugWriter debug;
+    private boolean ownsDebug; // whether this instance closes debug
+    
+    private void debugEntry(int category) {
         if (!outputDebug)
             return;
-        sb.append(String.format("%d  %s  -", lineCount, tag))
-            .append(buf, start, cur - start).append('\n');
+        debug.capture(category, lineCount, buf, start, cur);
     }
     
     
@@ -97,21 +145,163 @@ public class LogParser {
         return this;
     }
     
-    /* tells this instance to write debug files after parsing */
+    /* tells this instance to stream every skipped or ill-formatted entry to
+     * the debug files while parsing */
     public LogParser outputDebug() {
-        debugAll = new StringBuilder();
-        debugFocus = new StringBuilder();
+        try {
+            debug = new DebugWriter();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return this;
+        }
         
+        ownsDebug = true;
+        outputDebug = true;
+        return this;
+    }
+    
+    /**
+     * Tells this instance to stream debug lines through {@code writer}, e.g.
+     * one that samples and caps the lines captured so that debug output can
+     * be left on for large files. The caller is responsible for closing
+     * {@code writer} once parsing is done.
+     * 
+     * @param writer
+     *               the debug writer to capture lines with
+     * @return this parser
+     */
+    public LogParser outputDebug(DebugWriter writer) {
+        debug = writer;
+        ownsDebug = false;
         outputDebug = true;
         return this;
     }
     
     
+    /**
+     * Tells this instance to publish its counters to {@code registry} while
+     * parsing. Any number of parsers may share one registry.
+     * 
+     * @param registry
+     *                 the metrics registry to publish to
+     * @return this parser
+     */
+    public LogParser metrics(ParserMetrics registry) {
+        metrics = registry;
+        codeCounts = new CodeCounts();
+        return this;
+    }
+    
+    /**
+     * Tells this instance to profile entry and message lengths per six digit
+     * code while parsing. The profile is output with the diagnostics
+     * and is available from {@link #getCodeProfile()}.
+     * 
+     * @return this parser
+     */
+    public LogParser profileCodes() {
+        profile = new CodeProfile();
+        return this;
+    }
+    
+    /**
+     * Tells this instance to record every parsed entry in {@code store}. Any
+     * number of parsers may share one store.
+     * 
+     * @param store
+     *              the station store to update
+     * @return this parser
+     */
+    public LogParser stations(StationStore store) {
+        stations = store;
+        return this;
+    }
+    
+    /**
+     * Tells this instance to only keep entries accepted by {@code filter},
+     * see {@link EntryFilter} for where each criterion is checked.
+     * 
+     * @param filter
+     *               the filter to apply, or {@code null} to keep every entry
+     * @return this parser
+     */
+    public LogParser filter(EntryFilter filter) {
+        this.filter = filter;
+        return this;
+    }
+    
+    /**
+     * Tells this instance whether to parse entry heads with a table-driven
+     * state machine, the default, or with a switch on every char. Both
+     * produce the same entries and diagnostics, the tables are faster.
+     * 
+     * @param on
+     *           whether to parse entry heads with the tables
+     * @return this parser
+     */
+    public LogParser tableDrivenHead(boolean on) {
+        tableHead = on;
+        return this;
+    }
+    
+    /**
+     * Tells this instance to report every parsed entry of a station on
+     * {@code watchlist}, whether or not the entry is filtered.
+     * 
+     * @param watchlist
+     *                  the watchlist to check stations with, or {@code null}
+     * @return this parser
+     */
+    public LogParser watch(MacWatchlist watchlist) {
+        watch = watchlist;
+        return this;
+    }
+    
+    /**
+     * @return the number of entries dropped by the filter
+     */
+    public int getFilteredCount() { return filteredCount; }
+    
+    /**
+     * @return the code profile filled while parsing, or {@code null} if
+     *         {@link #profileCodes()} was not called
+     */
+    public CodeProfile getCodeProfile() { return profile; }
+    
+    /* publishes counter deltas since the last publish to the registry */
+    private void publishMetrics() {
+        metrics.addLines(delta(PUB_LINES, lineCount));
+        metrics.addChars(charCount);
+        charCount = 0;
+        
+        metrics.addEntries(LogEntry.Type.SKIP, delta(PUB_SKIP, skipNotiCount));
+        metrics.addEntries(LogEntry.Type.CNTRL, delta(PUB_CTRL, ctrlCount));
+        metrics.addEntries(LogEntry.Type.ASSOC_SUCCESS,
+            delta(PUB_ASSOC, assocSuccessCount));
+        metrics.addEntries(LogEntry.Type.DEAUTH_FROM,
+            delta(PUB_DEAUTH_FROM, deauthFromCount));
+        metrics.addEntries(LogEntry.Type.DEAUTH_TO,
+            delta(PUB_DEAUTH_TO, deauthToCount));
+        
+        metrics.addRefills(delta(PUB_REFILLS, refillCount));
+        metrics.addGrows(delta(PUB_GROWS, growCount));
+        
+        codeCounts.drainTo(metrics);
+    }
+    
+    /* returns value minus its last published value, and marks it published */
+    private int delta(int which, int value) {
+        int d = value - published[which];
+        published[which] = value;
+        return d;
+    }
+    
+    
     /* Outputs diagnostic information. */
     private void outputDiagnostics(PrintStream out) {
         int totalEntriesRead = httpdErrorCount + otherErrorCount
             + illFormatCount + nonNotiCount + skipNotiCount + assocSuccessCount
-            + deauthFromCount + deauthToCount;
+            + deauthFromCount + deauthToCount + filteredCount;
         
         out.println();
         out.println("Number of lines read:      " + lineCount);
@@ -130,30 +320,34 @@ public class LogParser {
         out.println("  httpd error entries:     " + httpdErrorCount);
         out.println("  other error entries:     " + otherErrorCount);
         out.println("  ill-formatted entries:   " + illFormatCount);
+        out.println("  oversized entries:       " + oversizeCount);
         out.println();
         
         out.println("  non-NOTI entries:        " + nonNotiCount);
         out.println("  skipped NOTI entries:    " + skipNotiCount);
+        out.println("  filtered entries:        " + filteredCount);
         out.println();
         
+        if (outputDebug) {
+            out.println("  dropped debug lines:     " + debug.getDropped());
+            out.println();
+        }
+        
         final double SECONDS_DIVIDEND = 1000000000.0;
         out.printf("Time taken:  %.4f seconds%n%n",
             (System.nanoTime() - startTime) / SECONDS_DIVIDEND);
+        
+        if (profile != null)
+            profile.print(out);
     }
     
-    private void writeDebugInfo() {
+    /* flushes and closes the debug files if this instance opened them */
+    private void closeDebug() {
+        if (!ownsDebug)
+            return;
+        
         try {
-            FileWriter all = new FileWriter(new File("./zout/debug_all.txt"));
-            all.write(debugAll.toString());
-            all.flush();
-            all.close();
-            
-            FileWriter focus = new FileWriter(
-                new File("./zout/debug_focus.txt"));
-            focus.write(debugFocus.toString());
-            focus.flush();
-            focus.close();
-            
+            debug.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -168,11 +362,15 @@ public class LogParser {
     
     /* reader and buffer constants */
     
-    // a safe max entry length approximation
+    // a safe max entry length approximation, also the minimum buffer length
     private static final int SAFE_MAX_ENTRY_LENGTH = 1024;
     
-    // default buffer length is 10Mb (Java char is 16 bits)
-    private static final int DEFAULT_BUFF_LENGTH = 5 * 1024 * 1024;
+    // default buffer length is 128Kb (Java char is 16 bits), small enough to
+    // stay in cache, since only complete lines are parsed it needs no slack
+    private static final int DEFAULT_BUFF_LENGTH = 64 * 1024;
+    
+    // default cap on buffer growth, 2Mb, lines this long are oversized
+    private static final int DEFAULT_MAX_BUFF_LENGTH = 1024 * 1024;
     
     // amount to scale buffer length if necessary
     private static final int GROW_RATE = 2;
@@ -180,13 +378,48 @@ public class LogParser {
     // reader has reached the end of file
     private static final int EOF = -1;
     
+    // no complete line in the buffer
+    private static final int NO_DELIM = -1;
+    
+    // number of parsed entries handed to a sink at a time
+    static final int BATCH_LENGTH = 256;
+    
+    /**
+     * What to do with a line that does not fit in a buffer at its maximum
+     * length.
+     */
+    public enum Oversize {
+        /**
+         * Parse the part of the line that fits and discard the rest of it.
+         */
+        TRUNCATE,
+        /**
+         * Write the whole line to a spill writer instead of parsing it.
+         */
+        SPILL;
+    }
+    
     /* class members */
     
-    private BufferedReader in; // wraps log source, efficiently fills buf
+    private Reader in; // log source, reads straight into buf
     private char[] buf; // buffer filled by 'in' with log entry chars
+    private final int buffLength; // length of buf before any growth
+    private final BufferPool pool; // where buf came from, or null
     private int state; // the current state of the parser
     private int start, cur, end; // buffer positions
-    private int charsRead; // num chars read by underlying BufferedReader
+    private int charsRead; // num chars read by the last read of 'in'
+    private int lastDelim; // index of the last entry delimiter in buf
+    private long base; // offset of buf[0] in the chars read from 'in'
+    private int inserted; // entry delimiters put in buf that weren't read
+    private long startOffset; // offset of the next reader's first char
+    private boolean eof; // whether the reader has reached the end of file
+    private IOException readError; // what ended the last parse's reads early
+    
+    private int maxBuffLength; // buf is never grown past this length
+    private Oversize oversize = Oversize.TRUNCATE;
+    private Writer spill; // receives oversized lines when spilling
+    private boolean discarding; // discarding the rest of an oversized line
+    private int oversizeCount; // diagnostics
     
     
     /**
@@ -201,57 +434,349 @@ public class LogParser {
      * @param initialBuffLen
      */
     public LogParser(Reader input, int initialBuffLen) {
-        this(new BufferedReader(input), initialBuffLen);
+        in = input;
+        int tmplen = initialBuffLen > SAFE_MAX_ENTRY_LENGTH ? initialBuffLen
+            : DEFAULT_BUFF_LENGTH;
+        
+        buf = new char[tmplen];
+        buffLength = tmplen;
+        pool = null;
+        maxBuffLength = Math.max(tmplen, DEFAULT_MAX_BUFF_LENGTH);
     }
     
     /**
+     * Constructor that parses with a buffer from {@code pool}. Call
+     * {@link #release()} to return the buffer once this parser is no longer
+     * needed.
      * 
      * @param input
-     * @param initialBuffLen
+     *              the log source
+     * @param pool
+     *              the pool to take the buffer from
      */
-    protected LogParser(BufferedReader input, int initialBuffLen) {
+    public LogParser(Reader input, BufferPool pool) {
+        if (pool.getBufferLength() <= SAFE_MAX_ENTRY_LENGTH)
+            throw new IllegalArgumentException("pool buffers must be longer "
+                + "than " + SAFE_MAX_ENTRY_LENGTH + " chars");
+        
+        in = input;
+        buf = pool.acquire();
+        buffLength = buf.length;
+        this.pool = pool;
+        maxBuffLength = Math.max(buffLength, DEFAULT_MAX_BUFF_LENGTH);
+    }
+    
+    /**
+     * Readies this parser to parse {@code input}, keeping its buffer and
+     * configuration. Diagnostic counts start over, metrics and code profiles
+     * keep accumulating. Debug output opened with {@link #outputDebug()} ends
+     * with the first parse, use {@link #outputDebug(DebugWriter)} to capture
+     * debug lines across resets.
+     * 
+     * @param input
+     *              the next log source
+     * @return this parser
+     */
+    public LogParser reset(Reader input) {
+        checkBuffer();
         in = input;
-        int tmplen = initialBuffLen > SAFE_MAX_ENTRY_LENGTH ? initialBuffLen
-            : DEFAULT_BUFF_LENGTH;
         
-        buf = new char[tmplen];
+        // drop a buffer grown by a long line, most files have none
+        if (buf.length != buffLength) {
+            buf = pool != null ? pool.acquire() : new char[buffLength];
+        }
+        
+        if (ownsDebug) {
+            debug = null;
+            ownsDebug = false;
+            outputDebug = false;
+        }
+        
+        // everything counted has been published by the last parse
+        lineCount = skipNotiCount = ctrlCount = 0;
+        assocSuccessCount = deauthFromCount = deauthToCount = 0;
+        httpdErrorCount = otherErrorCount = illFormatCount = 0;
+        nonNotiCount = oversizeCount = filteredCount = 0;
+        refillCount = growCount = 0;
+        Arrays.fill(published, 0);
+        
+        return this;
+    }
+    
+    /**
+     * Returns this parser's buffer to its pool, if it has one. The parser
+     * cannot parse after its buffer is released.
+     */
+    public void release() {
+        if (pool != null)
+            pool.release(buf);
+        buf = null;
+    }
+    
+    /* parsers can't be used once their buffer is released */
+    private void checkBuffer() {
+        if (buf == null)
+            throw new IllegalStateException("parser buffer was released");
     }
     
     public int getBufferLength() { return buf.length; }
     
+    /**
+     * Caps how long the buffer may grow to hold a single line. Lines longer
+     * than the cap are truncated or spilled, see {@link Oversize}.
+     * 
+     * @param maxLength
+     *                  the maximum buffer length in chars, at least the
+     *                  current buffer length
+     * @return this parser
+     */
+    public LogParser maxBufferLength(int maxLength) {
+        if (maxLength < buf.length)
+            throw new IllegalArgumentException(
+                "maxLength cannot be less than the buffer length");
+        
+        maxBuffLength = maxLength;
+        return this;
+    }
+    
+    /* tells this instance to parse what fits of oversized lines and discard
+     * the rest of them, the default */
+    public LogParser truncateOversizeLines() {
+        oversize = Oversize.TRUNCATE;
+        spill = null;
+        return this;
+    }
+    
+    /**
+     * Tells this instance to write oversized lines to {@code writer} rather
+     * than parse them. The caller is responsible for closing {@code writer}.
+     * 
+     * @param writer
+     *               receives each oversized line, delimiter included
+     * @return this parser
+     */
+    public LogParser spillOversizeLines(Writer writer) {
+        if (writer == null)
+            throw new IllegalArgumentException("writer cannot be null");
+        
+        oversize = Oversize.SPILL;
+        spill = writer;
+        return this;
+    }
+    
+    /**
+     * @return the number of lines that did not fit in the buffer at its
+     *         maximum length
+     */
+    public int getOversizeCount() { return oversizeCount; }
+    
     /**
      * Calls {@link #parse parse()} and closes {@code input} after parsing.
      */
     public List<LogEntry> parseAndClose() {
         List<LogEntry> entries = parse();
+        closeInput();
+        
+        return entries;
+    }
+    
+    /**
+     * Calls {@link #parse(EntrySink) parse(sink)} and closes {@code input}
+     * after parsing.
+     */
+    public int parseAndClose(EntrySink sink) {
+        int count = parse(sink);
+        closeInput();
         
+        return count;
+    }
+    
+    private void closeInput() {
         try {
             in.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
+    }
+    
+    /**
+     * 
+     */
+    public List<LogEntry> parse() {
+        final List<LogEntry> entries = new LinkedList<LogEntry>();
+        parse((batch, count) -> {
+            for (int i = 0; i < count; i++)
+                entries.add(batch[i]);
+        });
         
         return entries;
     }
     
     /**
+     * Parses every entry, handing parsed Assoc Success, Deauth From and Deauth
+     * To entries to {@code sink} in batches of up to {@value #BATCH_LENGTH}.
+     * Batches are also handed to the station store, if there is one.
+     * <p>
+     * A read failure ends the parse as the end of file would, and is kept for
+     * {@link #getReadError()}.
      * 
+     * @param sink
+     *             receives the parsed entries
+     * @return the number of entries handed to {@code sink}
      */
-    public List<LogEntry> parse() {
-        List<LogEntry> entries = new LinkedList<LogEntry>();
-        LogEntry entry = null;
+    public int parse(EntrySink sink) {
+        checkBuffer();
         
         // diagnostics
         startTime = System.nanoTime();
         
+        mappings = LogEntry.getMappings();
+        
         // fill buffer initially
         fillBuffer();
-        // continue with parsing if the file is not empty
-        boolean parsing = (charsRead != EOF);
-        while (parsing) {
+        int total = parseLines(sink, true);
+        
+        // metrics
+        if (metrics != null)
+            publishMetrics();
+        
+        // diagnostics
+        if (outputDiagnostics)
+            outputDiagnostics(System.out);
+        
+        // debugging
+        if (outputDebug)
+            closeDebug();
+        
+        return total;
+    }
+    
+    /**
+     * Parses log chars pushed to this parser, e.g. by a
+     * {@link SyslogReceiver}, rather than read from its reader. Every complete
+     * line is parsed and handed to {@code sink} before this returns, a final
+     * partial line is kept and parsed once the rest of it is fed.
+     * <p>
+     * Diagnostics and debug output are not written by feeding, metrics are
+     * published once per call.
+     * <p>
+     * A line whose parse fails, e.g. on a malformed timestamp, is dropped and
+     * counted as ill-formatted, and a batch the sink fails on is lost. Either
+     * way the lines after it are still parsed, and the first failure is
+     * thrown once every line fed is parsed.
+     * 
+     * @param chars
+     *              the log chars
+     * @param off
+     *              the index of the first char to parse
+     * @param len
+     *              the number of chars to parse
+     * @param sink
+     *              receives the parsed entries
+     * @return the number of entries handed to {@code sink}
+     * @throws RuntimeException
+     *                          the first failure of a line's parse or of
+     *                          {@code sink}, after the other lines are parsed
+     */
+    public int feed(final char[] chars, int off, int len, EntrySink sink) {
+        checkBuffer();
+        mappings = LogEntry.getMappings();
+        
+        int total = 0;
+        while (len > 0) {
+            // an oversized line was truncated or spilled, parse what's left
+            if (!makeRoom()) {
+                total += parseFed(sink);
+                continue;
+            }
+            
+            int n = Math.min(len, buf.length - 1 - end);
+            System.arraycopy(chars, off, buf, end, n);
+            appended(n);
+            off += n;
+            len -= n;
+            
+            if (discarding)
+                discardRest();
+            
+            total += parseFed(sink);
+        }
+        
+        // metrics
+        if (metrics != null)
+            publishMetrics();
+        
+        RuntimeException failure = feedFailure;
+        feedFailure = null;
+        if (failure != null)
+            throw failure;
+        
+        return total;
+    }
+    
+    /* parses the complete lines fed so far, going on past a batch the sink
+     * fails on and keeping the failure for feed to throw */
+    private int parseFed(EntrySink sink) {
+        while (true) {
+            try {
+                return parseLines(sink, false);
+            } catch (RuntimeException e) {
+                // the lines of the batch were parsed, cur is at the next one
+                keepFeedFailure(e);
+                state = NEW_ENTRY;
+            }
+        }
+    }
+    
+    /* keeps the first failure while feeding, suppressing later ones in it */
+    private void keepFeedFailure(RuntimeException e) {
+        if (feedFailure == null)
+            feedFailure = e;
+        else
+            feedFailure.addSuppressed(e);
+    }
+    
+    /* drops the line a failed parse stopped in, counting it as ill-formatted */
+    private void dropFailedLine(RuntimeException e) {
+        keepFeedFailure(e);
+        
+        cur = start;
+        while (buf[cur++] != ENTRY_DELIM) {}
+        start = cur;
+        illFormatCount += 1;
+    }
+    
+    /* parses lines into batches for sink, while there are complete lines in
+     * buf or, when refilling, until the reader runs out */
+    private int parseLines(EntrySink sink, boolean refill) {
+        LogEntry[] batch = new LogEntry[BATCH_LENGTH];
+        int count = 0;
+        int total = 0;
+        LogEntry entry = null;
+        
+        // continue with parsing while there are complete lines to parse
+        while (refill ? ensureLine() : cur <= lastDelim) {
             
             state = PARSE_HEAD | TSTAMP_SECT;
-            entry = parseEntry();
+            lastCode = 0;
+            if (refill) {
+                entry = parseEntry();
+            } else {
+                // a fed line's failure must not lose the lines around it
+                try {
+                    entry = parseEntry();
+                } catch (RuntimeException e) {
+                    dropFailedLine(e);
+                    entry = null;
+                }
+            }
+            
+            // metrics
+            if (metrics != null && lastCode != 0)
+                codeCounts.increment(lastCode);
+            
+            // diagnostics, counted before the line's batch is handed over
+            lineCount += 1;
             
             if (entry != null) {
                 switch (entry.getType()) {
@@ -261,42 +786,106 @@ public class LogParser {
                     
                     case ASSOC_SUCCESS:
                         assocSuccessCount += 1;
-                        entries.add(entry);
+                        batch[count++] = entry;
                         break;
                     
                     case DEAUTH_FROM:
                         deauthFromCount += 1;
-                        entries.add(entry);
+                        batch[count++] = entry;
                         break;
                     
                     case DEAUTH_TO:
                         deauthToCount += 1;
-                        entries.add(entry);
+                        batch[count++] = entry;
                         break;
                 }
                 
+                if (count == BATCH_LENGTH) {
+                    flush(sink, batch, count);
+                    total += count;
+                    count = 0;
+                }
             }
-            
-            // diagnostics
-            lineCount += 1;
-            
-            // refill buf only if needed
-            if (charsRead != EOF && cur + SAFE_MAX_ENTRY_LENGTH > end) {
-                refillBuffer();
-            }
-            
-            parsing = (cur < end) || (charsRead != EOF);
         }
         
-        // diagnostics
-        if (outputDiagnostics)
-            outputDiagnostics(System.out);
+        if (count > 0) {
+            flush(sink, batch, count);
+            total += count;
+        }
         
-        // debugging
-        if (outputDebug)
-            writeDebugInfo();
+        return total;
+    }
+    
+    /* hands a batch of parsed entries to the station store and sink */
+    private void flush(EntrySink sink, LogEntry[] batch, int count) {
+        if (stations != null)
+            stations.accept(batch, count);
+        sink.accept(batch, count);
         
-        return entries;
+        // every line before start has now been handed over
+        if (checkpointer != null)
+            checkpointer.flushed(this);
+        
+        // pick up mappings published while the batch was parsed
+        mappings = LogEntry.getMappings();
+    }
+    
+    /**
+     * Returns the offset of the next line to parse in the chars read from
+     * this parser's reader, or fed to it, i.e. one past the entry delimiter
+     * of the last line parsed. Every entry of the lines before it has been
+     * handed to the sink once the sink's batch returns.
+     * 
+     * @return the offset of the next line to parse
+     */
+    public long getPosition() { return base + start - inserted; }
+    
+    /**
+     * Returns the failure that ended the last parse's reads before the end of
+     * its reader. The lines read before it were parsed, a partial line cut
+     * off by it was not, so {@link #getPosition()} stays at that line.
+     * 
+     * @return the read failure of the last parse, or {@code null} if it read
+     *         to the end of its reader
+     */
+    public IOException getReadError() { return readError; }
+    
+    /* makes the next parse's offsets start at offset, for a reader opened at
+     * that offset */
+    void startAt(long offset) { startOffset = offset; }
+    
+    /* checkpoints this parser's parses, see Checkpointer */
+    void checkpoints(Checkpointer cp) { checkpointer = cp; }
+    
+    /* the names of the diagnostic counts, in the order of counts() */
+    static final String[] COUNT_NAMES = { "lines", "skipped NOTI entries",
+        "controller entries", "assoc success entries", "deauth from entries",
+        "deauth to entries", "httpd error entries", "other error entries",
+        "ill-formatted entries", "filtered entries", "non-NOTI entries",
+        "oversized entries" };
+    
+    /* the diagnostic counts, in the order restoreCounts takes them */
+    int[] counts() {
+        return new int[] { lineCount, skipNotiCount, ctrlCount,
+            assocSuccessCount, deauthFromCount, deauthToCount, httpdErrorCount,
+            otherErrorCount, illFormatCount, filteredCount, nonNotiCount,
+            oversizeCount };
+    }
+    
+    /* continues counting from the counts of a checkpointed parse */
+    void restoreCounts(int[] c) {
+        lineCount = c[0];
+        skipNotiCount = c[1];
+        ctrlCount = c[2];
+        assocSuccessCount = c[3];
+        deauthFromCount = c[4];
+        deauthToCount = c[5];
+        httpdErrorCount = c[6];
+        otherErrorCount = c[7];
+        illFormatCount = c[8];
+        filteredCount = c[9];
+        nonNotiCount = c[10];
+        oversizeCount = c[11];
     }
     
     
@@ -315,20 +904,16 @@ public class LogParser {
      * <p>
      * If this entry's code is associated with one of Assoc Success, Disassoc
      * From, Deauth To or Deauth From and from a controller. Then, once the end
-     * of the head portion is reached, the parser will skip ahead in the buffer
-     * a predetermined safe amount, received from a call to the respective
-     * {@code LogEntry#getSkipCount}. After skipping ahead the parser will then
-     * read until reaching a log entry delimiter <sup>1</sup>. Returning a
-     * LogEntry instance with type {@code LogEntry.Type.SKIP}.
+     * of the head portion is reached, the parser will read until reaching a
+     * log entry delimiter <sup>[1]</sup>, without parsing the message.
+     * Returning a LogEntry instance with type {@code LogEntry.Type.SKIP}.
      * <p>
      * If this entry's code is not associated with one of Assoc Success,
      * Disassoc From, Deauth To or Deauth From, but is a recognized NOTI code,
      * regardless of being from a controller or not. Then, once the end of the
-     * head portion is reached, the parser will skip ahead in the buffer a
-     * predetermined safe amount, received from a call to the respective {@code
-     * LogEntry#getSkipCount}. After skipping ahead the parser will then read
-     * until reaching a log entry delimiter <sup>[1]</sup>. Returning a LogEntry
-     * instance with type {@code LogEntry.Type.SKIP}.
+     * head portion is reached, the parser will read until reaching a log entry
+     * delimiter <sup>[1]</sup>, without parsing the message. Returning a
+     * LogEntry instance with type {@code LogEntry.Type.SKIP}.
      * <p>
      * If any of the following are true:
      * <ul>
@@ -372,9 +957,103 @@ public class LogParser {
      *         entry
      */
     private LogEntry parseEntry() {
+        // parse the head, which leaves the state set for what comes next
+        LogEntry entry = tableHead ? parseHeadTable() : parseHeadSwitch();
+        
+        /* POST PARSE HEAD LOOP PROCESSING */
+        
+        // once the entry head is parsed, either skip or parse the message
+        if (stateHas(SKIP_ENTRY)) {
+            int msgStart = cur;
+            
+            // skip to next entry
+            while (buf[cur++] != ENTRY_DELIM) {}
+            
+            // profiling, cur - 1 is the entry delimiter
+            if (profile != null && lastCode != 0) {
+                if (stateHas(VALID_NOTI_STATE)) {
+                    profile.record(lastCode, cur - start, cur - 1 - msgStart);
+                } else {
+                    profile.recordUnknown(lastCode, cur - start);
+                }
+            }
+            
+            if (!stateHas(VALID_NOTI_STATE)) {
+                // diagnostics
+                nonNotiCount += 1;
+                
+                // debug non-noti entry
+                debugEntry(DebugWriter.NON_NOTI);
+            }
+            
+            if (stateHas(FILTERED_STATE)) {
+                filteredCount += 1;
+                entry = null;
+            }
+        }
+        
+        // parse either an Assoc Success, Deauth To or Deauth From message
+        if (stateHas(PARSE_MSG)) {
+            // System.out.printf("Date String: '%s'%n start: %d tsend: %d%n",
+            // String.valueOf(buf, start, tsend - start), start, tsend);
+            
+            // parse time since epoch now, no reason to do it for every entry
+            long epoch;
+            if (metrics != null && (tstampParseCount++
+                & ParserMetrics.TSTAMP_SAMPLE_MASK) == 0) {
+                // time a sample of timestamp parses
+                long t0 = System.nanoTime();
+                epoch = parseTimeStamp(tsend);
+                metrics.recordTimestampParse(System.nanoTime() - t0);
+            } else {
+                epoch = parseTimeStamp(tsend);
+            }
+            
+            int msgStart = cur;
+            LogEntry parsed = entry.parse(epoch, buf, cur, filter, watch,
+                mappings);
+            
+            if (parsed == MessageLayout.FILTERED) {
+                // skip the rest of the message, nothing was allocated for it
+                entry = null;
+                while (buf[cur++] != ENTRY_DELIM) {}
+                
+                filteredCount += 1;
+            } else if (parsed != null) {
+                entry = parsed;
+                // skip ahead amount read by LogEntry#parse
+                cur += entry.getSkipCount();
+                
+                // profiling
+                if (profile != null)
+                    profile.record(lastCode, cur - start, cur - 1 - msgStart);
+            } else {
+                // the message ended before its layout was satisfied
+                entry = null;
+                while (buf[cur++] != ENTRY_DELIM) {}
+                
+                illFormatCount += 1;
+                // debug ill-formatted message
+                debugEntry(DebugWriter.ILL_FORMAT_MSG);
+            }
+        }
+        
+        // move start to beginning of next entry
+        start = cur;
+        state = NEW_ENTRY;
+        
+        return entry;
+    }
+    
+    
+    /* Parses the entry head one char at a time with a switch, see parseEntry.
+     * Returns the entry of the head's code, or null, with state set to either
+     * skip the entry, parse its message or neither, and tsend set to the end
+     * of the timestamp. */
+    private LogEntry parseHeadSwitch() {
         LogEntry entry = null;
         byte colcnt = 0; // current number of colons (:) read
-        int tsend = 0;
+        tsend = 0;
         
         /* BEGIN PARSE HEAD LOOP */
         while (stateHas(PARSE_HEAD)) {
@@ -392,8 +1071,10 @@ public class LogParser {
                     
                     /* Skip weird format, non-NOTI entries like httpd, sapm.. */
                     
-                    // httpd messages use '[:msg]' syntax
-                    if (stateHas(BRACK_SECT) && buf[cur - 1] == BRACKET_OPEN) {
+                    // httpd messages use '[:msg]' syntax, a char before the
+                    // entry start is a delimiter, which may be out of buf
+                    if (stateHas(BRACK_SECT) && cur > start
+                        && buf[cur - 1] == BRACKET_OPEN) {
                         // skip ahead to beginning of new entry
                         while (buf[cur++] != '\n') {}
                         
@@ -401,13 +1082,13 @@ public class LogParser {
                         httpdErrorCount += 1;
                         
                         // debug httpd errors
-                        debugEntry(debugAll, "colAfterBracksErrors");
+                        debugEntry(DebugWriter.HTTPD);
                         
                         start = cur;
                         state = NEW_ENTRY;
                         
                         return null;
-                    } else if (buf[cur - 1] != BRACKET_CLOSE) {
+                    } else if (cur == start || buf[cur - 1] != BRACKET_CLOSE) {
                         // this catches ERRS and system entries
                         
                         // skip ahead to beginning of new entry
@@ -416,7 +1097,7 @@ public class LogParser {
                         // diagnostics
                         otherErrorCount += 1;
                         // debug other error string builder for file output
-                        debugEntry(debugAll, "ColAfterNoBrackets");
+                        debugEntry(DebugWriter.COL_NO_BRACKETS);
                         
                         start = cur;
                         state = NEW_ENTRY;
@@ -447,7 +1128,7 @@ public class LogParser {
                     }
                     
                     // check for two back-to-back spaces
-                    if (buf[cur - 1] == SPACE) {
+                    if (cur > start && buf[cur - 1] == SPACE) {
                         
                         // two spaces before the 4th colon usually indicates the
                         // log entry is from a controller
@@ -483,9 +1164,18 @@ public class LogParser {
                     
                     // don't care about carrot sections after entry code
                     if (stateHas(CODE_READ_STATE)) {
-                        // skip ahead to end of carrot section
-                        while (buf[cur++] != CARROT_CLOSE) {}
-                        remState(CARR_SECT);
+                        // skip ahead to end of carrot section, stopping at an
+                        // entry delimiter so an unclosed section can't run
+                        // into the next entry
+                        char c;
+                        while ((c = buf[cur]) != CARROT_CLOSE
+                            && c != ENTRY_DELIM)
+                            cur += 1;
+                        
+                        if (c == CARROT_CLOSE) {
+                            remState(CARR_SECT);
+                            cur += 1;
+                        }
                         
                         // continue rather than break since we adjusted cur
                         continue;
@@ -496,8 +1186,11 @@ public class LogParser {
                     if (colcnt == COLONS_TILL_CODE) {
                         
                         // if the first digit in code is not 5 then this entry
-                        // is not a NOTI entry, i.e. move straight to skip
-                        if (buf[cur + 1] != NOTI_LEADING_DIGIT) {
+                        // is not a NOTI entry, i.e. move straight to skip,
+                        // the same goes for codes cut short by the end of
+                        // the entry
+                        if (buf[cur + 1] != NOTI_LEADING_DIGIT
+                            || !isCode(cur + 2)) {
                             remState(PARSE_HEAD);
                             addState(SKIP_ENTRY);
                             
@@ -514,6 +1207,8 @@ public class LogParser {
                             + buf[cur + 4] * 100 + buf[cur + 5] * 10
                             + buf[cur + 6] - MAGIC_CHARS_TO_INT_OFFSET;
                         
+                        lastCode = code;
+                        
                         // adjust current index to end of carrot section
                         cur += CODE_LENGTH;
                         // add CODE_READ to state
@@ -521,10 +1216,6 @@ public class LogParser {
                         
                         // set entry based on code-to-entry mapping in LogEntry
                         entry = LogEntry.fromCode(code);
-                        // TODO replace LogEntry's use of Java generic HashMap
-                        // with an int-to-LogEntry HashMap to reduce needless
-                        // autoboxing
-                        
                         
                         if (entry == null) {
                             // if the six digit code is unrecognized signal, to
@@ -533,15 +1224,24 @@ public class LogParser {
                             remState(PARSE_HEAD);
                             
                         } else if (entry.needToParse()) {
-                            // this entry is important, i.e. Assoc Success,
-                            // Deauth From and Deauth To, signal that we need
-                            // to parse the MACs and building name from message
-                            addState(PARSE_MSG);
+                            if (filter == null || filter.acceptsCode(code)) {
+                                // this entry is important, i.e. Assoc
+                                // Success, Deauth From and Deauth To, signal
+                                // that we need to parse the MACs and building
+                                // name from message
+                                addState(PARSE_MSG);
+                            } else {
+                                // filtered out, skip it like an unimportant
+                                // entry with the same code would be
+                                addState(VALID_NOTI_STATE);
+                                addState(SKIP_ENTRY);
+                                addState(FILTERED_STATE);
+                            }
                             
                         } else {
                             // this entry has a recognized six digit code, but
                             // it's unimportant, i.e. Auth Success, ... we just
-                            // need to skip ahead a safe predetermined amount
+                            // need to read to the next entry
                             addState(VALID_NOTI_STATE);
                             addState(SKIP_ENTRY);
                         }
@@ -602,10 +1302,11 @@ public class LogParser {
                         
                         illFormatCount += 1;
                         // debug ill-formatted entry
-                        debugEntry(debugFocus, "IllFormatEntry [\\r]");
+                        debugEntry(DebugWriter.ILL_FORMAT_CR);
                         
                         // signal that we need to skip this entry and continue
-                        // out of parse head loop
+                        // out of parse head loop, dropping the code's entry
+                        entry = null;
                         state = SKIP_ENTRY;
                         continue;
                     }
@@ -618,9 +1319,11 @@ public class LogParser {
                     illFormatCount += 1;
                     
                     // debug ill-formatted entries
-                    debugEntry(debugFocus, "IllFormatEntry [\\n]");
+                    debugEntry(DebugWriter.ILL_FORMAT_LF);
                     
-                    // move start to beginning of next entry
+                    // move start to beginning of next entry, dropping the
+                    // code's entry if one was read
+                    entry = null;
                     state = NEW_ENTRY;
                     break;
                 
@@ -634,89 +1337,376 @@ public class LogParser {
             
         }
         
-        /* POST PARSE HEAD LOOP PROCESSING */
+        return entry;
+    }
+    
+    /* Parses the entry head with the HeadDfa tables, producing the same entry,
+     * state and tsend as parseHeadSwitch. Chars that only move the parser on
+     * cost a table lookup, the rest run the actions below. */
+    private LogEntry parseHeadTable() {
+        final char[] buf = this.buf;
+        final int[] transitions = HeadDfa.TRANSITIONS;
+        LogEntry entry = null;
+        byte colcnt = 0; // current number of colons (:) read
+        int flags = 0; // states to set once the head is done
+        int s = 0;
+        int cur = this.cur;
+        tsend = 0;
         
-        // once the entry head is parsed, either skip ahead or parse the message
-        if (stateHas(SKIP_ENTRY)) {
-            
-            if (stateHas(VALID_NOTI_STATE)) {
-                // skip ahead amount specified by NOTI
-                cur += entry.getSkipCount();
-            }
-            
-            // skip ahead to next entry
-            while (buf[cur++] != ENTRY_DELIM) {}
+        while (true) {
+            int t = transitions[s << HeadDfa.CLASS_BITS
+                | HeadDfa.classOf(buf[cur])];
+            s = t & HeadDfa.STATE_MASK;
             
-            if (!stateHas(VALID_NOTI_STATE)) {
-                // diagnostics
-                nonNotiCount += 1;
+            switch (t >>> HeadDfa.ACTION_SHIFT) {
+                case HeadDfa.NONE:
+                    cur += 1;
+                    continue;
                 
-                // debug non-noti entry
-                debugEntry(debugAll, "NonNotiEntry");
+                case HeadDfa.COLON_TSTAMP:
+                    colcnt += 1;
+                    cur += 1;
+                    continue;
+                
+                case HeadDfa.COLON_HEAD:
+                    colcnt += 1;
+                    
+                    // httpd messages use '[:msg]' syntax
+                    if ((s & HeadDfa.BRACK) != 0 && cur > start
+                        && buf[cur - 1] == BRACKET_OPEN) {
+                        while (buf[cur++] != ENTRY_DELIM) {}
+                        this.cur = cur;
+                        
+                        httpdErrorCount += 1;
+                        debugEntry(DebugWriter.HTTPD);
+                        
+                        state = NEW_ENTRY;
+                        return null;
+                    } else if (cur == start || buf[cur - 1] != BRACKET_CLOSE) {
+                        // this catches ERRS and system entries
+                        while (buf[cur++] != ENTRY_DELIM) {}
+                        this.cur = cur;
+                        
+                        otherErrorCount += 1;
+                        debugEntry(DebugWriter.COL_NO_BRACKETS);
+                        
+                        state = NEW_ENTRY;
+                        return null;
+                    }
+                    
+                    cur += 1;
+                    continue;
+                
+                case HeadDfa.TSTAMP_END:
+                    // read the space again, now as a head space
+                    tsend = cur;
+                    continue;
+                
+                case HeadDfa.HEAD_SPACE:
+                    if (cur > start && buf[cur - 1] == SPACE) {
+                        // two spaces before the 4th colon, from a controller
+                        if (colcnt == NUM_TSTAMP_COLONS) {
+                            ctrlCount += 1;
+                        } else if ((s & HeadDfa.CODE) != 0) {
+                            // two spaces after the code, the head is done
+                            this.cur = cur;
+                            state = flags;
+                            return entry;
+                        }
+                    }
+                    
+                    cur += 1;
+                    continue;
+                
+                case HeadDfa.OPEN_CARROT:
+                    if ((s & HeadDfa.CARR) != 0) {
+                        errorUnexpectChar(CARROT_OPEN + "", lineCount,
+                            cur - start);
+                    }
+                    s |= HeadDfa.CARR;
+                    
+                    // don't care about carrot sections after entry code
+                    if ((s & HeadDfa.CODE) != 0) {
+                        char c;
+                        while ((c = buf[cur]) != CARROT_CLOSE
+                            && c != ENTRY_DELIM)
+                            cur += 1;
+                        
+                        if (c == CARROT_CLOSE) {
+                            s &= ~HeadDfa.CARR;
+                            cur += 1;
+                        }
+                        continue;
+                    }
+                    
+                    // the code is in the carrot section after the 4th colon
+                    if (colcnt == COLONS_TILL_CODE) {
+                        if (buf[cur + 1] != NOTI_LEADING_DIGIT
+                            || !isCode(cur + 2)) {
+                            // not a NOTI entry
+                            this.cur = cur + 1;
+                            state = flags | SKIP_ENTRY;
+                            return entry;
+                        }
+                        
+                        int code = NOTI_LEADING_DIGIT * 100000
+                            + buf[cur + 2] * 10000 + buf[cur + 3] * 1000
+                            + buf[cur + 4] * 100 + buf[cur + 5] * 10
+                            + buf[cur + 6] - MAGIC_CHARS_TO_INT_OFFSET;
+                        
+                        lastCode = code;
+                        cur += CODE_LENGTH;
+                        s |= HeadDfa.CODE;
+                        
+                        entry = LogEntry.fromCode(code);
+                        if (entry == null) {
+                            // unrecognized code
+                            this.cur = cur;
+                            state = flags | SKIP_ENTRY;
+                            return entry;
+                        } else if (entry.needToParse()) {
+                            if (filter == null || filter.acceptsCode(code))
+                                flags |= PARSE_MSG;
+                            else
+                                flags |= VALID_NOTI_STATE | SKIP_ENTRY
+                                    | FILTERED_STATE;
+                        } else {
+                            flags |= VALID_NOTI_STATE | SKIP_ENTRY;
+                        }
+                        continue;
+                    }
+                    
+                    cur += 1;
+                    continue;
+                
+                case HeadDfa.UNEXPECTED:
+                    errorUnexpectChar(String.valueOf(buf[cur]), lineCount,
+                        cur - start);
+                    cur += 1;
+                    continue;
+                
+                case HeadDfa.CARRIAGE_RETURN:
+                    if (buf[cur + 1] != '\n') {
+                        errorUnexpectChar("\\r", lineCount, cur - start);
+                        
+                        illFormatCount += 1;
+                        this.cur = cur;
+                        debugEntry(DebugWriter.ILL_FORMAT_CR);
+                        
+                        state = SKIP_ENTRY;
+                        return null;
+                    }
+                    
+                    cur += 1;
+                    continue;
+                
+                case HeadDfa.LINE_FEED:
+                    // entry head should not have an entry delim
+                    illFormatCount += 1;
+                    this.cur = cur;
+                    debugEntry(DebugWriter.ILL_FORMAT_LF);
+                    
+                    this.cur = cur + 1;
+                    state = NEW_ENTRY;
+                    return null;
             }
         }
+    }
+    
+    
+    /* parses the timestamp from start to tsend into seconds since epoch */
+    private long parseTimeStamp(int tsend) {
+        return Instant
+            .from(dtf.parse(String.valueOf(buf, start, tsend - start)))
+            .getEpochSecond();
+    }
+    
+    
+    /* whether the five chars from i on are digits, i.e. a NOTI code's tail */
+    private boolean isCode(int i) {
+        // all five chars come before the entry delimiter if they are digits,
+        // so none of them can be read from past the end of a complete line
+        for (int n = i + CODE_LENGTH - 1; i < n; i++) {
+            if (buf[i] < '0' || buf[i] > '9')
+                return false;
+        }
         
-        // parse either an Assoc Success, Deauth To or Deauth From message
-        if (stateHas(PARSE_MSG)) {
-            // System.out.printf("Date String: '%s'%n start: %d tsend: %d%n",
-            // String.valueOf(buf, start, tsend - start), start, tsend);
-            
-            // parse time since epoch now, no reason to do it for every entry
-            long epoch = Instant
-                .from(dtf.parse(String.valueOf(buf, start, tsend - start)))
-                .getEpochSecond();
-            
-            entry = entry.parse(epoch, buf, cur);
+        return true;
+    }
+    
+    
+    /* Makes sure a complete line starts at cur, i.e. that cur is at or before
+     * lastDelim, refilling buf when only a partial line is left. A final line
+     * without an entry delimiter is given one, unless checkpointing, where it
+     * may be a line still being written. Returns false once every line has
+     * been parsed. */
+    private boolean ensureLine() {
+        while (cur > lastDelim) {
+            if (eof) {
+                // a line cut off by a read failure is not the final line, and
+                // a checkpoint stays at the start of an unterminated one
+                if (cur >= end || readError != null || checkpointer != null)
+                    return false;
+                
+                // terminate the final line, buf always has room for this
+                buf[end] = ENTRY_DELIM;
+                inserted += 1;
+                lastDelim = end;
+                end += 1;
+                
+                return true;
+            }
             
-            // skip ahead amount read by LogEntry#parse
-            cur += entry.getSkipCount();
+            refillBuffer();
         }
         
-        // move start to beginning of next entry
-        start = cur;
-        state = NEW_ENTRY;
-        
-        return entry;
+        return true;
     }
     
-    
     /* move unread to buffer front and fill in rest */
     private void refillBuffer() {
-        // move not yet parsed chars to front of buf to prep for read
-        System.arraycopy(buf, start, buf, 0, end - start);
+        if (!makeRoom())
+            return;
         
-        // update cur index to reflect the move
-        // cur = end - start;
+        readMore();
         
-        // if start has not changed and we've read through buffer without
-        // encountering an entry separator, then grow buffer
-        if (cur - start == buf.length) { // same as (start==0 &&
-                                         // cur==buf.length)
-            buf = Arrays.copyOf(buf, buf.length * GROW_RATE);
-        }
+        // drop the rest of an oversized line before parsing resumes
+        if (discarding)
+            discardRest();
         
-        try {
-            charsRead = in.read(buf, end - start, buf.length - (end - start));
-        } catch (IOException e) {
-            // ToDo: implement recovery from a variety of IOExceptions
-            e.printStackTrace();
+        // metrics
+        refillCount += 1;
+        if (metrics != null)
+            publishMetrics();
+    }
+    
+    /* Moves unread chars to the buffer front. Returns false if the partial
+     * line fills the buffer and was handled as oversized instead. */
+    private boolean makeRoom() {
+        int len = end - start;
+        
+        // if the partial line fills the buffer then grow buffer, or handle the
+        // line as oversized once the buffer is as long as it may get
+        if (len == buf.length - 1) {
+            if (buf.length < maxBuffLength) {
+                buf = Arrays.copyOf(buf,
+                    (int) Math.min((long) buf.length * GROW_RATE, maxBuffLength));
+                growCount += 1;
+            } else {
+                handleOversize();
+                return false;
+            }
         }
         
-        end = (end - start) + charsRead;
+        // move not yet parsed chars to front of buf to prep for read
+        System.arraycopy(buf, start, buf, 0, len);
+        
+        base += start;
+        end = len;
         cur = start = 0;
+        lastDelim = NO_DELIM;
+        
+        return true;
     }
     
     /* fill the entire buffer, not just a portion */
     private void fillBuffer() {
+        // a resumed reader starts past the lines parsed before
+        base = startOffset;
+        startOffset = inserted = 0;
+        start = cur = end = 0;
+        lastDelim = NO_DELIM;
+        eof = false;
+        readError = null;
+        discarding = false;
+        
+        readMore();
+    }
+    
+    /* reads into buf after end, leaving room for one sentinel delimiter, and
+     * updates lastDelim if any delimiters were read */
+    private void readMore() {
         try {
-            charsRead = in.read(buf);
+            charsRead = in.read(buf, end, buf.length - 1 - end);
         } catch (IOException e) {
-            // ToDo: implement recovery from a variety of IOExceptions
-            e.printStackTrace();
+            // the lines read so far are parsed, the failure is kept
+            readError = e;
+            charsRead = EOF;
+        }
+        
+        if (charsRead == EOF) {
+            eof = true;
+            return;
+        }
+        
+        appended(charsRead);
+    }
+    
+    /* accounts for count chars put into buf after end */
+    private void appended(int count) {
+        int from = end;
+        end += count;
+        charCount += count;
+        
+        // the last delimiter is almost always within a line of end
+        for (int i = end - 1; i >= from; i--) {
+            if (buf[i] == ENTRY_DELIM) {
+                lastDelim = i;
+                break;
+            }
         }
+    }
+    
+    /* Truncates or spills the partial line filling buf. */
+    private void handleOversize() {
+        oversizeCount += 1;
+        discarding = true;
         
-        start = cur = 0;
-        end = charsRead;
+        if (oversize == Oversize.SPILL) {
+            spill(0, end);
+            // nothing of the line is left to parse
+            base += end;
+            start = cur = end = 0;
+            lastDelim = NO_DELIM;
+        } else {
+            // terminate what fits of the line so it is parsed on its own
+            buf[end] = ENTRY_DELIM;
+            inserted += 1;
+            lastDelim = end;
+            end += 1;
+        }
+    }
+    
+    /* drops chars read after an oversized line up to and including the next
+     * entry delimiter, spilling them if need be */
+    private void discardRest() {
+        int i = 0;
+        while (i < end && buf[i] != ENTRY_DELIM)
+            i += 1;
+        
+        if (i == end) {
+            // the oversized line goes on past everything read so far
+            spill(0, end);
+            base += end;
+            end = 0;
+            return;
+        }
+        
+        spill(0, i + 1);
+        discarding = false;
+        cur = start = i + 1;
+    }
+    
+    /* writes buf[from, to) to the spill writer, if spilling */
+    private void spill(int from, int to) {
+        if (oversize != Oversize.SPILL || to == from)
+            return;
+        
+        try {
+            spill.write(buf, from, to - from);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
     
     /* add one or more states to the parser's current state */
@@ -0,0 +1,191 @@
+package com.mactracker.main.log;
+
+import java.util.Arrays;
+
+
+/**
+ * A set of station MACs that can be tested against a MAC slice of a parse
+ * buffer in place, without copying the slice or allocating.
+ * <p>
+ * A membership test hashes the slice once. The hash is first checked against
+ * a blocked Bloom filter, whose probes all fall in one 64 byte block, so the
+ * common case of a MAC that is not in the set costs one cache miss. Only MACs
+ * that pass the Bloom filter are looked up in the exact open-addressed set,
+ * so the set never reports a MAC it does not hold.
+ * <p>
+ * A {@code MacSet} is filled before parsing starts. Once filled, any number
+ * of parser threads may test MACs against it at once.
+ * 
+ * @author Group Z
+ */
+public class MacSet {
+    // ten bits per MAC and six probes keeps false positives around 1%
+    private static final int BITS_PER_MAC = 10;
+    private static final int PROBES = 6;
+    private static final int BLOCK_LONGS = 8; // 512 bits, one cache line
+    private static final int BLOCK_BITS_MASK = BLOCK_LONGS * 64 - 1;
+    private static final int MIN_CAPACITY = 16;
+    
+    /* blocked Bloom filter */
+    private long[] bloom;
+    private int blockMask;
+    
+    /* exact set, stored hashes and MACs in parallel, zero hash marks empty */
+    private long[] hashes;
+    private char[][] macs;
+    private int size;
+    
+    
+    /**
+     * Constructor that sizes the set for about {@code expected} MACs. The
+     * set grows past that as needed.
+     * 
+     * @param expected
+     *                 the expected number of MACs
+     */
+    public MacSet(int expected) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < 2L * expected)
+            capacity <<= 1;
+        
+        allocate(capacity);
+    }
+    
+    private void allocate(int capacity) {
+        hashes = new long[capacity];
+        macs = new char[capacity][];
+        
+        // capacity is twice the MACs held, so half the bits per slot
+        long bits = (long) capacity * BITS_PER_MAC / 2;
+        int blocks = Integer.highestOneBit(
+            (int) Math.max(1, bits / (BLOCK_LONGS * 64)) * 2 - 1);
+        bloom = new long[blocks * BLOCK_LONGS];
+        blockMask = blocks - 1;
+    }
+    
+    
+    /**
+     * Adds a MAC to the set.
+     * 
+     * @param mac
+     *            a station MAC, as it appears in the log
+     * @return whether the MAC was not already in the set
+     */
+    public boolean add(String mac) {
+        char[] chars = mac.toCharArray();
+        return add(chars, 0, chars.length);
+    }
+    
+    /**
+     * Adds {@code mac[off, off+len)} to the set.
+     * 
+     * @return whether the MAC was not already in the set
+     */
+    public boolean add(final char[] mac, int off, int len) {
+        long hash = StationStore.macHash(mac, off, len);
+        int i = find(hash, mac, off, len);
+        if (i >= 0)
+            return false;
+        
+        if ((size + 1) * 2 > hashes.length) {
+            grow();
+            i = find(hash, mac, off, len);
+        }
+        
+        insert(-i - 1, hash, Arrays.copyOfRange(mac, off, off + len));
+        return true;
+    }
+    
+    private void insert(int i, long hash, char[] mac) {
+        hashes[i] = hash;
+        macs[i] = mac;
+        size += 1;
+        bloomAdd(hash);
+    }
+    
+    private void grow() {
+        long[] oldHashes = hashes;
+        char[][] oldMacs = macs;
+        
+        allocate(hashes.length * 2);
+        size = 0;
+        for (int j = 0; j < oldHashes.length; j++) {
+            if (oldHashes[j] != 0) {
+                char[] mac = oldMacs[j];
+                int i = find(oldHashes[j], mac, 0, mac.length);
+                insert(-i - 1, oldHashes[j], mac);
+            }
+        }
+    }
+    
+    /* returns the slot of mac, or -(slot + 1) of the empty slot for it */
+    private int find(long hash, final char[] mac, int off, int len) {
+        int mask = hashes.length - 1;
+        int i = (int) hash & mask;
+        
+        while (hashes[i] != 0) {
+            if (hashes[i] == hash && Arrays.equals(macs[i], 0, macs[i].length,
+                mac, off, off + len))
+                return i;
+            i = (i + 1) & mask;
+        }
+        
+        return -i - 1;
+    }
+    
+    
+    /* ---------------------------------------------------------------------
+     * Blocked Bloom filter, the block is picked with the high hash bits and
+     * the probes within it with the low ones */
+    
+    private void bloomAdd(long hash) {
+        int block = (int) (hash >>> 40) & blockMask;
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 20) | 1;
+        
+        for (int p = 0; p < PROBES; p++) {
+            int bit = (h1 + p * h2) & BLOCK_BITS_MASK;
+            bloom[block * BLOCK_LONGS + (bit >>> 6)] |= 1L << bit;
+        }
+    }
+    
+    private boolean bloomMightContain(long hash) {
+        int block = (int) (hash >>> 40) & blockMask;
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 20) | 1;
+        
+        for (int p = 0; p < PROBES; p++) {
+            int bit = (h1 + p * h2) & BLOCK_BITS_MASK;
+            if ((bloom[block * BLOCK_LONGS + (bit >>> 6)] & (1L << bit)) == 0)
+                return false;
+        }
+        
+        return true;
+    }
+    
+    
+    /**
+     * @param mac
+     *            a station MAC
+     * @return whether the MAC is in the set
+     */
+    public boolean contains(String mac) {
+        char[] chars = mac.toCharArray();
+        return contains(chars, 0, chars.length);
+    }
+    
+    /**
+     * Tests {@code buf[off, off+len)}, e.g. a MAC in a parse buffer, in place.
+     * 
+     * @return whether the MAC is in the set
+     */
+    public boolean contains(final char[] buf, int off, int len) {
+        long hash = StationStore.macHash(buf, off, len);
+        return bloomMightContain(hash) && find(hash, buf, off, len) >= 0;
+    }
+    
+    /**
+     * @return the number of MACs in the set
+     */
+    public int size() { return size; }
+}
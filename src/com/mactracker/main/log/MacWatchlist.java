@@ -0,0 +1,117 @@
+package com.mactracker.main.log;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+
+/**
+ * Flags every parsed entry whose station MAC is on a watchlist, e.g. a list
+ * of a few hundred thousand base64 anonymized MACs from security.
+ * <p>
+ * The MAC in each parsed message is tested in place in the parse buffer
+ * against a {@link MacSet}, so entries of stations not on the list cost one
+ * hash and one Bloom filter probe and allocate nothing. Each match is handed
+ * to a listener with the entry's timestamp, type and building.
+ * <p>
+ * Watching happens before an {@link EntryFilter}'s time, station and
+ * building checks, so a filtered parse still flags every appearance of a
+ * watched station. Only the filter's code set, which decides which messages
+ * are parsed at all, applies first.
+ * <p>
+ * A watchlist may be shared by any number of parsers, its listener is then
+ * called from each of their threads.
+ * 
+ * @author Group Z
+ */
+public class MacWatchlist {
+    private final MacSet macs;
+    private final Consumer<Match> listener;
+    private final LongAdder matches = new LongAdder();
+    
+    
+    /**
+     * @param macs
+     *                 the watched station MACs
+     * @param listener
+     *                 called with every match, from the parser thread that
+     *                 found it
+     */
+    public MacWatchlist(MacSet macs, Consumer<Match> listener) {
+        if (macs == null || listener == null)
+            throw new IllegalArgumentException(
+                "macs and listener cannot be null");
+        
+        this.macs = macs;
+        this.listener = listener;
+    }
+    
+    
+    /**
+     * An appearance of a watched station.
+     */
+    public static final class Match {
+        private final String mac;
+        private final long tstamp;
+        private final LogEntry.Type type;
+        private final int apcode;
+        
+        private Match(String mac, long tstamp, LogEntry.Type type,
+            int apcode) {
+            this.mac = mac;
+            this.tstamp = tstamp;
+            this.type = type;
+            this.apcode = apcode;
+        }
+        
+        public String getMac() { return mac; }
+        
+        public long getTimeStamp() { return tstamp; }
+        
+        public LogEntry.Type getType() { return type; }
+        
+        public int getApCode() { return apcode; }
+        
+        /**
+         * @return the building name of the entry's AP, or {@code "Unknown"}
+         */
+        public String getBuilding() {
+            AbbreviationTrie trie = LogEntry.abbreviationTrie();
+            if (apcode < 0 || trie == null)
+                return "Unknown";
+            
+            return trie.getValueFromIndex(apcode);
+        }
+        
+        @Override
+        public String toString() {
+            return String.format(
+                "Timestamp:[ %d ]  Type:[ %s ]  Station-MAC:[ %s ]  "
+                    + "AP-Code:[ %d ] AP-Name:[ %s ]",
+                tstamp, type, mac, apcode, getBuilding());
+        }
+    }
+    
+    
+    /* called by MessageLayout on the hot path, buf[off, off+len) is a MAC */
+    boolean watches(final char[] buf, int off, int len) {
+        return macs.contains(buf, off, len);
+    }
+    
+    /* called by MessageLayout once a watched entry's AP is known */
+    void match(long tstamp, LogEntry.Type type, final char[] buf, int off,
+        int len, int apcode) {
+        matches.increment();
+        listener.accept(
+            new Match(String.valueOf(buf, off, len), tstamp, type, apcode));
+    }
+    
+    /**
+     * @return the number of matches found by every parser
+     */
+    public long getMatchCount() { return matches.sum(); }
+    
+    /**
+     * @return the number of watched MACs
+     */
+    public int size() { return macs.size(); }
+}
@@ -0,0 +1,78 @@
+package com.mactracker.main.log;
+
+/**
+ * An immutable, versioned view of the building name mappings, i.e. the
+ * abbreviation trie AP names are looked up in.
+ * <p>
+ * The current snapshot is published by {@link LogEntry#setAbbreviationTrie}
+ * or by a {@link MappingWatcher}, and each parser reads it once per batch of
+ * entries, so every entry of a batch is looked up in the same mappings even
+ * while new ones are published.
+ * <p>
+ * A snapshot built by a {@link MappingWatcher} starts with every building of
+ * the snapshot it replaces, so a building keeps its code across versions and
+ * a code handed out by any older version still resolves to the name it had.
+ * 
+ * @author Group Z
+ */
+public final class MappingSnapshot {
+    private final long version;
+    private final AbbreviationTrie trie;
+    
+    // building codes of interned AP radios in this snapshot, see ApTable
+    volatile int[] radioCodes = new int[0];
+    
+    
+    /* only LogEntry publishes snapshots, trie must not change afterwards */
+    MappingSnapshot(long version, AbbreviationTrie trie) {
+        this.version = version;
+        this.trie = trie;
+    }
+    
+    
+    /**
+     * @return the version of this snapshot, one more than the version it
+     *         replaced
+     */
+    public long getVersion() { return version; }
+    
+    /**
+     * @param apName
+     *               a raw AP name, e.g. {@code Bioi260-AP335-1}
+     * @return the building code of the AP, or
+     *         {@link AbbreviationTrie#VALUE_NOT_FOUND}
+     */
+    public int getApCode(String apName) {
+        return trie.getValueIndex(apName.toCharArray(), 0, apName.length());
+    }
+    
+    /**
+     * @param apcode
+     *               a building code, see {@link LogEntry#getApCode()}
+     * @return the building name, or {@code "Unknown"}
+     */
+    public String getBuilding(int apcode) {
+        if (apcode < 0)
+            return "Unknown";
+        
+        try {
+            return trie.getValueFromIndex(apcode);
+        } catch (IndexOutOfBoundsException e) {
+            // a code from another set of mappings
+            return "Unknown";
+        }
+    }
+    
+    /**
+     * @return the number of abbreviations mapped to a building
+     */
+    public int size() { return trie.size(); }
+    
+    /* the trie of this snapshot, which must not be changed */
+    AbbreviationTrie trie() { return trie; }
+    
+    /* looks up the building code of the AP name in buf[offset, offset+count) */
+    int apIndex(final char[] buf, int offset, int count) {
+        return trie.getValueIndex(buf, offset, count);
+    }
+}
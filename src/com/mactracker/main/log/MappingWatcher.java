@@ -0,0 +1,237 @@
+package com.mactracker.main.log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+
+/**
+ * Watches a name mapping file, e.g. {@code bname_mappings.txt}, and publishes
+ * a new {@link MappingSnapshot} each time the file is saved, so a long running
+ * ingest picks up edited building mappings without a restart.
+ * <p>
+ * The trie is rebuilt on the watcher's own daemon thread, then published to
+ * {@link LogEntry}, and parsers switch to it at their next batch of entries.
+ * Every rebuilt trie keeps the building codes of the one it replaces, see
+ * {@link Utils#buildAbbrTrie(Reader, AbbreviationTrie)}, so entries, filters
+ * and stores holding older codes stay valid.
+ * <p>
+ * Editors often save a file in more than one write, so a reload waits until
+ * the file has been quiet for {@value #SETTLE_MILLIS}ms. A file that cannot be
+ * read leaves the current mappings in place and is counted as a failed reload.
+ * 
+ * @author Group Z
+ */
+public class MappingWatcher implements Closeable {
+    /**
+     * How long the mapping file must go unchanged before it is reloaded.
+     */
+    public static final long SETTLE_MILLIS = 250;
+    
+    private final Path mappings;
+    private Path snapshot;
+    private Consumer<MappingSnapshot> listener;
+    
+    private WatchService watcher;
+    private Thread thread;
+    private final Object reloading = new Object();
+    private volatile FileTime loaded; // modified time of last loaded file
+    private final AtomicLong failed = new AtomicLong();
+    
+    
+    /**
+     * @param mappings
+     *                 the name mapping file to watch
+     */
+    public MappingWatcher(Path mappings) {
+        if (mappings == null)
+            throw new IllegalArgumentException("mappings cannot be null");
+        
+        this.mappings = mappings.toAbsolutePath();
+    }
+    
+    /**
+     * Tells this watcher to rewrite the binary snapshot of the trie after
+     * every reload, see {@link Utils#loadAbbrTrie(Path, Path)}.
+     * 
+     * @param file
+     *             the trie snapshot file
+     * @return this watcher
+     */
+    public MappingWatcher snapshot(Path file) {
+        snapshot = file;
+        return this;
+    }
+    
+    /**
+     * @param onReload
+     *                 called with every published snapshot, from the watcher
+     *                 thread
+     * @return this watcher
+     */
+    public MappingWatcher onReload(Consumer<MappingSnapshot> onReload) {
+        listener = onReload;
+        return this;
+    }
+    
+    
+    /**
+     * Loads the mapping file now, then starts watching it.
+     * 
+     * @return this watcher
+     * @throws IOException
+     *                     if the mapping file cannot be read or watched
+     */
+    public synchronized MappingWatcher start() throws IOException {
+        if (thread != null)
+            throw new IllegalStateException("watcher already started");
+        
+        reload();
+        
+        watcher = mappings.getFileSystem().newWatchService();
+        mappings.getParent().register(watcher,
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY);
+        
+        thread = new Thread(this::watch, "mapping-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        return this;
+    }
+    
+    /**
+     * Rebuilds the trie from the mapping file and publishes it, whether or
+     * not the file changed.
+     * 
+     * @return the published snapshot
+     * @throws IOException
+     *                     if the mapping file cannot be read
+     */
+    public MappingSnapshot reload() throws IOException {
+        synchronized (reloading) {
+            FileTime modified = Files.getLastModifiedTime(mappings);
+            
+            AbbreviationTrie abbr;
+            try (Reader reader = Files.newBufferedReader(mappings,
+                StandardCharsets.UTF_8)) {
+                abbr = Utils.buildAbbrTrie(reader,
+                    LogEntry.abbreviationTrie());
+            }
+            
+            MappingSnapshot published = LogEntry.setAbbreviationTrie(abbr);
+            loaded = modified;
+            
+            if (snapshot != null)
+                writeSnapshot(abbr, snapshot);
+            if (listener != null)
+                listener.accept(published);
+            
+            return published;
+        }
+    }
+    
+    /* writes the snapshot next to its final name first, so a crash never
+     * leaves a torn snapshot behind, also used by Utils#loadAbbrTrie */
+    static void writeSnapshot(AbbreviationTrie abbr, Path snapshot)
+        throws IOException {
+        Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            abbr.writeSnapshot(out);
+        }
+        
+        Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /* the watcher thread, reloads once the mapping file settles */
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean changed = drain(key);
+                
+                // wait out the rest of a multi-write save
+                WatchKey more;
+                while ((more = watcher.poll(SETTLE_MILLIS,
+                    TimeUnit.MILLISECONDS)) != null)
+                    changed |= drain(more);
+                
+                if (changed && isNewer())
+                    tryReload();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed, stop watching
+        }
+    }
+    
+    /* whether key holds an event for the mapping file, and re-arms key */
+    private boolean drain(WatchKey key) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            Object name = event.context();
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                || mappings.getFileName().equals(name))
+                changed = true;
+        }
+        
+        key.reset();
+        return changed;
+    }
+    
+    private boolean isNewer() {
+        try {
+            return !Files.getLastModifiedTime(mappings).equals(loaded);
+        } catch (IOException e) {
+            // e.g. deleted and not yet replaced, keep the current mappings
+            return false;
+        }
+    }
+    
+    private void tryReload() {
+        try {
+            reload();
+        } catch (IOException | RuntimeException e) {
+            // keep the current mappings until the file is saved again
+            failed.incrementAndGet();
+        }
+    }
+    
+    
+    /**
+     * @return the number of changes to the mapping file that could not be
+     *         loaded
+     */
+    public long getFailedReloads() { return failed.get(); }
+    
+    /**
+     * Stops watching the mapping file, the last published mappings stay in
+     * place.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (watcher != null)
+            watcher.close();
+        
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
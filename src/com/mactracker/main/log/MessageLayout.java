@@ -0,0 +1,214 @@
+package com.mactracker.main.log;
+
+import java.util.Arrays;
+
+
+/**
+ * Describes where the station MAC and AP name sit in the message portion of a
+ * NOTI entry, and parses messages with that layout.
+ * <p>
+ * Every Aruba station message the parser cares about reads as some text, a
+ * colon delimited station MAC address, some more text and an AP given as
+ * {@code [ip]-[bssid]-[name]}. Messages only differ in how many colons come
+ * before the station MAC and in what ends the AP name, e.g.
+ * 
+ * <pre>
+ * Assoc success @ 15:55:24.411235: [mac]: AP [ip]-[bssid]-[name]
+ * Deauth to sta: [mac]: Ageout AP [ip]-[bssid]-[name] Sapcp Ageout ...
+ * </pre>
+ * 
+ * @author Group Z
+ */
+final class MessageLayout {
+    /* AP name terminators */
+    static final char NEWLINE = '\n';
+    static final char SPACE = ' ';
+    
+    private static final char COLON = ':';
+    private static final char DASH = '-';
+    private static final char CR = '\r';
+    
+    /**
+     * Returned by {@link #parse} for messages rejected by a filter.
+     */
+    static final LogEntry FILTERED = LogEntry.skipping();
+    
+    private final LogEntry.Type type;
+    private final int colonsTillMac;
+    private final char apNameEnd;
+    
+    /**
+     * @param type
+     *                      the type of entry produced by this layout
+     * @param colonsTillMac
+     *                      the number of colons before the space preceding the
+     *                      station MAC
+     * @param apNameEnd
+     *                      either {@link #NEWLINE} or {@link #SPACE}
+     */
+    MessageLayout(LogEntry.Type type, int colonsTillMac, char apNameEnd) {
+        if (type == LogEntry.Type.SKIP || type == LogEntry.Type.CNTRL)
+            throw new IllegalArgumentException(
+                "a message layout cannot produce " + type + " entries");
+        if (colonsTillMac < 0)
+            throw new IllegalArgumentException(
+                "colonsTillMac cannot be less than zero");
+        if (apNameEnd != NEWLINE && apNameEnd != SPACE)
+            throw new IllegalArgumentException(
+                "apNameEnd must be a newline or a space");
+        
+        this.type = type;
+        this.colonsTillMac = colonsTillMac;
+        this.apNameEnd = apNameEnd;
+    }
+    
+    LogEntry.Type type() { return type; }
+    
+    int colonsTillMac() { return colonsTillMac; }
+    
+    char apNameEnd() { return apNameEnd; }
+    
+    
+    /**
+     * Parses the message portion of a log entry with this layout. Scans never
+     * read past the entry delimiter, so a message cut short returns
+     * {@code null} rather than reading into the next entry.
+     * <p>
+     * The time is checked against {@code filter} first, the station MAC before
+     * it is copied and the AP code right after it is looked up, a message
+     * rejected by any returns {@link #FILTERED} without allocating. Messages
+     * of a station on {@code watch} are reported to it before any filter
+     * check that could skip them.
+     * 
+     * @param tstamp
+     *               the entry's time since epoch in seconds
+     * @param buf
+     *               the buffer to read from
+     * @param cur
+     *               the starting index of the message portion in {@code buf}
+     * @param filter
+     *               the filter to check the message with, or {@code null}
+     * @param watch
+     *               the watchlist to check the station with, or {@code null}
+     * @param names
+     *               the building mappings to look up the AP name in, or
+     *               {@code null} if none are set
+     * @return a parsed log entry, whose skip count is the number of chars read
+     *         up to and including the entry delimiter, {@code null} if the
+     *         message does not have this layout or {@link #FILTERED}
+     */
+    LogEntry parse(long tstamp, final char[] buf, int cur,
+        EntryFilter filter, MacWatchlist watch, MappingSnapshot names) {
+        // whether the filter keeps this message so far
+        boolean keep = filter == null || filter.acceptsTime(tstamp);
+        if (!keep && watch == null)
+            return FILTERED;
+        
+        int macStart = -1;
+        int macEnd = -1;
+        int radio;
+        int apIndex;
+        int start = cur;
+        int mark;
+        int ccnt = 0; // colon count
+        
+        /* handle parsing of user MAC address to string */
+        
+        while (ccnt < colonsTillMac + 1) {
+            switch (buf[cur++]) {
+                // colon is the main delimiter for user MAC
+                case COLON:
+                    ccnt += 1;
+                    break;
+                
+                // single space after the last leading colon denotes user MAC
+                case SPACE:
+                    if (ccnt == colonsTillMac) {
+                        macStart = cur;
+                        // read until next colon (end of mac)
+                        if ((cur = scanTo(buf, cur, COLON)) < 0)
+                            return null;
+                        
+                        macEnd = cur - 1;
+                        ccnt += 1;
+                    }
+                    break;
+                
+                // entry ended before the user MAC
+                case NEWLINE:
+                    return null;
+            }
+        }
+        
+        // watchlist and station filter, checked on the MAC in place
+        boolean watched = watch != null && macStart >= 0
+            && watch.watches(buf, macStart, macEnd - macStart);
+        
+        keep = keep && (filter == null || macStart < 0
+            || filter.acceptsStation(buf, macStart, macEnd - macStart));
+        if (!keep && !watched)
+            return FILTERED;
+        
+        /* handle parsing of AP MAC address, skip random text and AP IP */
+        if ((cur = scanTo(buf, cur, DASH)) < 0)
+            return null;
+        int apStart = cur;
+        // skip until next dash which delimits end of AP MAC address
+        if ((cur = scanTo(buf, cur, DASH)) < 0)
+            return null;
+        
+        /* handle parsing of AP name, which comes directly after MAC */
+        mark = cur;
+        char c;
+        // an AP name ending with the entry also ends at the delimiter
+        while ((c = buf[cur++]) != apNameEnd && c != NEWLINE) {}
+        if (cur - mark == 1)
+            return null; // no AP name
+        
+        if (LogEntry.keepsAps()) {
+            // an AP name ending a CRLF delimited entry ends before the CR
+            int end = cur - 1;
+            if (c == NEWLINE && buf[end - 1] == CR && end - 1 > mark)
+                end -= 1;
+            
+            // intern the AP, which looks up its name's index once per AP
+            // in the batch's pinned mappings
+            radio = LogEntry.radioId(buf, apStart, mark, end);
+            apIndex = LogEntry.apCode(radio, names);
+        } else {
+            // lookup AP name's index from abbreviation
+            radio = LogEntry.NO_AP;
+            apIndex = names == null ? AbbreviationTrie.VALUE_NOT_FOUND
+                : names.apIndex(buf, mark, cur - mark - 1);
+        }
+        
+        if (watched)
+            watch.match(tstamp, type, buf, macStart, macEnd - macStart,
+                apIndex);
+        
+        // building filter
+        if (!keep || (filter != null && !filter.acceptsAp(apIndex)))
+            return FILTERED;
+        
+        // skip ahead to next entry, unless the AP name ended the entry
+        if (c != NEWLINE)
+            while (buf[cur++] != NEWLINE) {}
+        
+        char[] umac = macStart < 0 ? null
+            : Arrays.copyOfRange(buf, macStart, macEnd);
+        return LogEntry.parsed(tstamp, type, umac, radio, apIndex,
+            cur - start);
+    }
+    
+    /* returns the index after the next c from cur on, or -1 if the entry
+     * delimiter comes first */
+    private static int scanTo(final char[] buf, int cur, char c) {
+        char r;
+        while ((r = buf[cur++]) != c) {
+            if (r == NEWLINE)
+                return -1;
+        }
+        
+        return cur;
+    }
+}
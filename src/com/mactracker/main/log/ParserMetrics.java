@@ -0,0 +1,434 @@
+package com.mactracker.main.log;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+
+/**
+ * A registry of hot-path parser metrics that can be shared by any number of
+ * {@link LogParser} instances, observed while parsing is in progress and
+ * exported over JMX.
+ * <p>
+ * Every counter is a striped {@link LongAdder}, so concurrent parsers do not
+ * contend on a single cache line. Parsers do not touch the registry per line,
+ * they keep their plain {@code int} diagnostics and publish the deltas once per
+ * buffer refill, which keeps the cost of metrics collection well under one
+ * percent of parse time.
+ * 
+ * @author Group Z
+ */
+public class ParserMetrics implements ParserMetricsMXBean {
+    /**
+     * The JMX domain that registries are registered under.
+     */
+    public static final String JMX_DOMAIN = "com.mactracker.main.log";
+    
+    // only one out of every 64 timestamp parses is timed
+    static final int TSTAMP_SAMPLE_MASK = 64 - 1;
+    
+    private static final int HISTOGRAM_BUCKETS = 64;
+    private static final double NANOS_PER_SECOND = 1000000000.0;
+    
+    /* registry counters */
+    private final LongAdder lines = new LongAdder();
+    private final LongAdder chars = new LongAdder();
+    private final LongAdder refills = new LongAdder();
+    private final LongAdder grows = new LongAdder();
+    private final LongAdder[] byType;
+    private final Map<Integer, LongAdder> byCode;
+    
+    /* timestamp parse time histogram, bucketed by powers of two nanos */
+    private final LongAdder tstampCount = new LongAdder();
+    private final LongAdder tstampNanos = new LongAdder();
+    private final LongAdder[] tstampBuckets;
+    
+    private final long created;
+    private volatile Snapshot last;
+    private ScheduledExecutorService reporter;
+    
+    
+    /**
+     * Constructor that creates an empty metrics registry.
+     */
+    public ParserMetrics() {
+        byType = newAdders(LogEntry.Type.values().length);
+        byCode = new ConcurrentHashMap<Integer, LongAdder>();
+        tstampBuckets = newAdders(HISTOGRAM_BUCKETS);
+        
+        created = System.nanoTime();
+    }
+    
+    private static LongAdder[] newAdders(int n) {
+        LongAdder[] adders = new LongAdder[n];
+        for (int i = 0; i < n; i++)
+            adders[i] = new LongAdder();
+        
+        return adders;
+    }
+    
+    
+    /* ---------------------------------------------------------------------
+     * Recording, called by LogParser at buffer refills and end of parse */
+    
+    void addLines(int n) { lines.add(n); }
+    
+    void addChars(long n) { chars.add(n); }
+    
+    void addRefills(int n) { refills.add(n); }
+    
+    void addGrows(int n) { grows.add(n); }
+    
+    void addEntries(LogEntry.Type type, int n) {
+        if (n != 0)
+            byType[type.ordinal()].add(n);
+    }
+    
+    void addCode(int code, int n) {
+        LongAdder adder = byCode.get(code);
+        if (adder == null)
+            adder = byCode.computeIfAbsent(code, c -> new LongAdder());
+        
+        adder.add(n);
+    }
+    
+    void recordTimestampParse(long nanos) {
+        tstampCount.increment();
+        tstampNanos.add(nanos);
+        tstampBuckets[bucketOf(nanos)].increment();
+    }
+    
+    /* index of the smallest power of two greater or equal to nanos */
+    private static int bucketOf(long nanos) {
+        if (nanos <= 1)
+            return 0;
+        
+        return HISTOGRAM_BUCKETS - Long.numberOfLeadingZeros(nanos - 1);
+    }
+    
+    
+    /* ---------------------------------------------------------------------
+     * Snapshots and periodic reporting */
+    
+    /**
+     * Takes a point in time copy of every counter in this registry.
+     * <p>
+     * Counters are read one at a time while parsers may still be publishing, so
+     * a snapshot is only consistent to within one buffer refill per parser.
+     * 
+     * @return a new snapshot
+     */
+    public Snapshot snapshot() { return new Snapshot(this); }
+    
+    /**
+     * Starts a daemon thread that takes a snapshot every {@code period} and
+     * hands it to {@code consumer}. Rates reported over JMX are computed
+     * against the latest of these snapshots.
+     * 
+     * @param period
+     *                 the time between snapshots
+     * @param unit
+     *                 the unit of {@code period}
+     * @param consumer
+     *                 receives each snapshot, e.g. {@code s -> s.print(out)}
+     * @return this registry
+     * @throws IllegalStateException
+     *                               if reporting has already been started
+     */
+    public synchronized ParserMetrics startReporting(long period,
+        TimeUnit unit, Consumer<Snapshot> consumer) {
+        if (reporter != null)
+            throw new IllegalStateException("reporting already started");
+        
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "parser-metrics-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        
+        reporter.scheduleAtFixedRate(() -> {
+            Snapshot s = snapshot();
+            s.previous = last;
+            last = s;
+            consumer.accept(s);
+        }, period, period, unit);
+        
+        return this;
+    }
+    
+    /**
+     * Stops periodic reporting, if it was started.
+     */
+    public synchronized void stopReporting() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+    }
+    
+    /**
+     * Registers this registry with the platform MBean server under
+     * {@code com.mactracker.main.log:type=ParserMetrics,name=<name>}.
+     * 
+     * @param name
+     *             the name to register this registry under
+     * @return this registry
+     * @throws IllegalStateException
+     *                               if the registry cannot be registered,
+     *                               e.g. because {@code name} is in use
+     */
+    public ParserMetrics register(String name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(this, objectName(name));
+        } catch (JMException e) {
+            throw new IllegalStateException(
+                "could not register metrics '" + name + "'", e);
+        }
+        
+        return this;
+    }
+    
+    /**
+     * Unregisters a registry previously registered under {@code name}.
+     * 
+     * @param name
+     *             the name the registry was registered under
+     */
+    public static void unregister(String name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(objectName(name));
+        } catch (JMException e) {
+            // not registered, nothing to do
+        }
+    }
+    
+    private static ObjectName objectName(String name)
+        throws JMException {
+        return new ObjectName(
+            JMX_DOMAIN + ":type=ParserMetrics,name=" + ObjectName.quote(name));
+    }
+    
+    
+    /* ---------------------------------------------------------------------
+     * ParserMetricsMXBean */
+    
+    @Override
+    public long getLines() { return lines.sum(); }
+    
+    @Override
+    public long getChars() { return chars.sum(); }
+    
+    @Override
+    public double getLinesPerSecond() {
+        Snapshot prev = last;
+        if (prev == null)
+            return perSecond(getLines(), System.nanoTime() - created);
+        
+        return perSecond(getLines() - prev.lines,
+            System.nanoTime() - prev.nanoTime);
+    }
+    
+    @Override
+    public double getCharsPerSecond() {
+        Snapshot prev = last;
+        if (prev == null)
+            return perSecond(getChars(), System.nanoTime() - created);
+        
+        return perSecond(getChars() - prev.chars,
+            System.nanoTime() - prev.nanoTime);
+    }
+    
+    @Override
+    public long getBufferRefills() { return refills.sum(); }
+    
+    @Override
+    public long getBufferGrows() { return grows.sum(); }
+    
+    @Override
+    public Map<String, Long> getEntriesByType() {
+        return snapshot().getEntriesByType();
+    }
+    
+    @Override
+    public Map<String, Long> getEntriesByCode() {
+        return snapshot().getEntriesByCode();
+    }
+    
+    @Override
+    public long getTimestampParsesSampled() { return tstampCount.sum(); }
+    
+    @Override
+    public double getTimestampParseMeanNanos() {
+        long n = tstampCount.sum();
+        return n == 0 ? 0.0 : tstampNanos.sum() / (double) n;
+    }
+    
+    @Override
+    public long getTimestampParseP99Nanos() {
+        return snapshot().timestampParsePercentile(0.99);
+    }
+    
+    @Override
+    public void reset() {
+        lines.reset();
+        chars.reset();
+        refills.reset();
+        grows.reset();
+        for (LongAdder a : byType)
+            a.reset();
+        byCode.clear();
+        tstampCount.reset();
+        tstampNanos.reset();
+        for (LongAdder a : tstampBuckets)
+            a.reset();
+        last = null;
+    }
+    
+    private static double perSecond(long n, long nanos) {
+        return nanos <= 0 ? 0.0 : n * NANOS_PER_SECOND / nanos;
+    }
+    
+    
+    /**
+     * An immutable point in time copy of a {@link ParserMetrics} registry.
+     * 
+     * @author Group Z
+     */
+    public static class Snapshot {
+        private final long nanoTime;
+        private final long lines;
+        private final long chars;
+        private final long refills;
+        private final long grows;
+        private final long[] byType;
+        private final Map<Integer, Long> byCode;
+        private final long tstampCount;
+        private final long tstampNanos;
+        private final long[] tstampBuckets;
+        
+        // the snapshot taken before this one by the periodic reporter
+        private Snapshot previous;
+        
+        private Snapshot(ParserMetrics m) {
+            nanoTime = System.nanoTime();
+            lines = m.lines.sum();
+            chars = m.chars.sum();
+            refills = m.refills.sum();
+            grows = m.grows.sum();
+            
+            byType = new long[m.byType.length];
+            for (int i = 0; i < byType.length; i++)
+                byType[i] = m.byType[i].sum();
+            
+            Map<Integer, Long> codes = new TreeMap<Integer, Long>();
+            m.byCode.forEach((code, adder) -> codes.put(code, adder.sum()));
+            byCode = Collections.unmodifiableMap(codes);
+            
+            tstampCount = m.tstampCount.sum();
+            tstampNanos = m.tstampNanos.sum();
+            tstampBuckets = new long[HISTOGRAM_BUCKETS];
+            for (int i = 0; i < HISTOGRAM_BUCKETS; i++)
+                tstampBuckets[i] = m.tstampBuckets[i].sum();
+        }
+        
+        public long getLines() { return lines; }
+        
+        public long getChars() { return chars; }
+        
+        public long getBufferRefills() { return refills; }
+        
+        public long getBufferGrows() { return grows; }
+        
+        public long getEntries(LogEntry.Type type) {
+            return byType[type.ordinal()];
+        }
+        
+        public Map<String, Long> getEntriesByType() {
+            Map<String, Long> m = new TreeMap<String, Long>();
+            for (LogEntry.Type t : LogEntry.Type.values())
+                m.put(t.name(), byType[t.ordinal()]);
+            
+            return m;
+        }
+        
+        public Map<String, Long> getEntriesByCode() {
+            Map<String, Long> m = new TreeMap<String, Long>();
+            byCode.forEach((code, n) -> m.put(String.valueOf(code), n));
+            
+            return m;
+        }
+        
+        /**
+         * @return entry counts keyed by six digit NOTI code
+         */
+        public Map<Integer, Long> getCodeCounts() { return byCode; }
+        
+        /**
+         * @return lines per second since the previous periodic snapshot, or
+         *         {@code 0} if there is no previous snapshot
+         */
+        public double linesPerSecond() {
+            if (previous == null)
+                return 0.0;
+            
+            return perSecond(lines - previous.lines,
+                nanoTime - previous.nanoTime);
+        }
+        
+        /**
+         * @return chars (bytes) per second since the previous periodic
+         *         snapshot, or {@code 0} if there is no previous snapshot
+         */
+        public double charsPerSecond() {
+            if (previous == null)
+                return 0.0;
+            
+            return perSecond(chars - previous.chars,
+                nanoTime - previous.nanoTime);
+        }
+        
+        /**
+         * @param p
+         *          a percentile in the range {@code (0, 1]}
+         * @return an upper bound on the {@code p}th percentile timestamp parse
+         *         time in nanoseconds, or {@code 0} if nothing was sampled
+         */
+        public long timestampParsePercentile(double p) {
+            long rank = (long) Math.ceil(tstampCount * p);
+            long seen = 0;
+            for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+                seen += tstampBuckets[i];
+                if (seen >= rank && seen > 0)
+                    return i == 0 ? 1 : 1L << Math.min(i, 62);
+            }
+            
+            return 0;
+        }
+        
+        /* Outputs this snapshot in the same register as the diagnostics. */
+        public void print(PrintStream out) {
+            out.printf("Lines: %d (%.0f/s)  Chars: %d (%.0f/s)%n", lines,
+                linesPerSecond(), chars, charsPerSecond());
+            out.printf("  Buffer refills: %d  grows: %d%n", refills, grows);
+            out.println("  Entries by type: " + getEntriesByType());
+            out.println("  Entries by code: " + byCode);
+            out.printf("  Timestamp parse: %.1f ns mean, <= %d ns p99 (%d sampled)%n",
+                tstampCount == 0 ? 0.0 : tstampNanos / (double) tstampCount,
+                timestampParsePercentile(0.99), tstampCount);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.mactracker.main.log;
+
+import java.util.Map;
+
+
+/**
+ * JMX view of a {@link ParserMetrics} registry.
+ * <p>
+ * Rates are computed against the last periodic snapshot, or against the time
+ * the registry was created if no periodic reporting has been started.
+ * 
+ * @author Group Z
+ */
+public interface ParserMetricsMXBean {
+    
+    /**
+     * @return the number of log lines read by all parsers using the registry
+     */
+    long getLines();
+    
+    /**
+     * @return the number of chars read by all parsers using the registry, the
+     *         controller logs are ASCII so this is also the number of bytes
+     */
+    long getChars();
+    
+    /**
+     * @return lines read per second
+     */
+    double getLinesPerSecond();
+    
+    /**
+     * @return chars (bytes) read per second
+     */
+    double getCharsPerSecond();
+    
+    /**
+     * @return the number of times a parser's buffer was refilled
+     */
+    long getBufferRefills();
+    
+    /**
+     * @return the number of times a parser's buffer was grown
+     */
+    long getBufferGrows();
+    
+    /**
+     * @return entry counts keyed by {@link LogEntry.Type} name
+     */
+    Map<String, Long> getEntriesByType();
+    
+    /**
+     * @return entry counts keyed by six digit NOTI code
+     */
+    Map<String, Long> getEntriesByCode();
+    
+    /**
+     * @return the number of timestamp parses that were timed
+     */
+    long getTimestampParsesSampled();
+    
+    /**
+     * @return the mean time taken by a sampled timestamp parse, in nanoseconds
+     */
+    double getTimestampParseMeanNanos();
+    
+    /**
+     * @return an upper bound on the 99th percentile timestamp parse time, in
+     *         nanoseconds
+     */
+    long getTimestampParseP99Nanos();
+    
+    /**
+     * Resets every counter in the registry to zero.
+     */
+    void reset();
+}
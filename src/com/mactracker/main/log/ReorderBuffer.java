@@ -0,0 +1,180 @@
+package com.mactracker.main.log;
+
+import java.util.Arrays;
+
+
+/**
+ * Puts entries from merged or clock skewed streams back into timestamp order
+ * before they reach the wrapped sink, so consumers that assume
+ * {@link LogEntry#getTimeStamp()} never goes backwards can stay single-pass.
+ * <p>
+ * Entries are held for up to a lateness bound. The watermark trails the
+ * newest timestamp seen by one second more than the bound, and once it
+ * reaches a second every entry of that second is handed on. Entries of the
+ * same second keep their arrival order. An entry at or behind the watermark
+ * arrived too late to be put in order, so it is dropped and counted.
+ * <p>
+ * Timestamps are whole seconds, so entries are held in a calendar queue:
+ * a ring of one bucket per second, as long as the bound. Adding an entry
+ * appends it to its second's bucket, and emitting walks the buckets the
+ * watermark passed. Neither needs a comparison.
+ * <p>
+ * Call {@link #flush()} once the streams end to hand on the entries still
+ * held. A buffer is not thread-safe, parsers sharing one must hand batches
+ * over one at a time as the {@link FileIngestor} does.
+ * 
+ * @author Group Z
+ */
+public class ReorderBuffer implements EntrySink {
+    private static final int MIN_BUCKET = 8;
+    
+    private final EntrySink sink;
+    private final long lateness;
+    
+    // bucket of second t is buckets[t & mask]
+    private final LogEntry[][] buckets;
+    private final int[] sizes;
+    private final int mask;
+    
+    private boolean started;
+    private long newest; // newest timestamp seen
+    private long emitted; // every second up to this one was emitted
+    
+    private final LogEntry[] out = new LogEntry[LogParser.BATCH_LENGTH];
+    private int outCount;
+    private long held;
+    private long late;
+    
+    
+    /**
+     * @param sink
+     *                        receives the entries in timestamp order
+     * @param latenessSeconds
+     *                        how far behind the newest timestamp seen an
+     *                        entry can be and still be put in order
+     */
+    public ReorderBuffer(EntrySink sink, int latenessSeconds) {
+        if (sink == null)
+            throw new IllegalArgumentException("sink cannot be null");
+        if (latenessSeconds < 0)
+            throw new IllegalArgumentException(
+                "latenessSeconds cannot be negative");
+        
+        this.sink = sink;
+        lateness = latenessSeconds;
+        
+        // held entries span at most lateness + 1 seconds
+        int length = Integer.highestOneBit(latenessSeconds + 1) * 2;
+        buckets = new LogEntry[length][];
+        sizes = new int[length];
+        mask = length - 1;
+    }
+    
+    
+    /**
+     * Holds the batch's entries, then hands on every held entry the
+     * watermark has passed.
+     */
+    @Override
+    public void accept(LogEntry[] batch, int count) {
+        for (int i = 0; i < count; i++)
+            add(batch[i]);
+        
+        emitBatch();
+    }
+    
+    private void add(LogEntry e) {
+        long t = e.getTimeStamp();
+        if (!started) {
+            started = true;
+            newest = t;
+            emitted = t - lateness - 1;
+        }
+        
+        if (t <= emitted) {
+            late += 1;
+            return;
+        }
+        
+        // move the watermark first, so t's bucket holds no older second
+        if (t > newest) {
+            long prev = newest;
+            newest = t;
+            emitThrough(t - lateness - 1, prev);
+        }
+        
+        int b = (int) t & mask;
+        LogEntry[] bucket = buckets[b];
+        if (bucket == null) {
+            bucket = new LogEntry[MIN_BUCKET];
+            buckets[b] = bucket;
+        } else if (sizes[b] == bucket.length) {
+            bucket = Arrays.copyOf(bucket, bucket.length * 2);
+            buckets[b] = bucket;
+        }
+        
+        bucket[sizes[b]++] = e;
+        held += 1;
+    }
+    
+    /* emits the held entries of every second up to watermark, in order,
+     * walking buckets no further than heldThrough */
+    private void emitThrough(long watermark, long heldThrough) {
+        long last = Math.min(watermark, heldThrough);
+        for (long t = emitted + 1; t <= last; t++) {
+            int b = (int) t & mask;
+            LogEntry[] bucket = buckets[b];
+            int n = sizes[b];
+            
+            for (int i = 0; i < n; i++) {
+                out[outCount++] = bucket[i];
+                bucket[i] = null;
+                
+                if (outCount == out.length)
+                    emitBatch();
+            }
+            
+            sizes[b] = 0;
+            held -= n;
+        }
+        
+        if (watermark > emitted)
+            emitted = watermark;
+    }
+    
+    private void emitBatch() {
+        if (outCount == 0)
+            return;
+        
+        sink.accept(out, outCount);
+        Arrays.fill(out, 0, outCount, null);
+        outCount = 0;
+    }
+    
+    /**
+     * Hands on every held entry, in timestamp order. Entries accepted later
+     * that are not newer than the newest entry seen so far are late.
+     */
+    public void flush() {
+        if (started)
+            emitThrough(newest, newest);
+        
+        emitBatch();
+    }
+    
+    
+    /**
+     * @return the watermark, entries at or behind it are late
+     */
+    public long getWatermark() { return emitted; }
+    
+    /**
+     * @return the number of entries held, waiting for the watermark
+     */
+    public long getHeldCount() { return held; }
+    
+    /**
+     * @return the number of entries dropped for arriving too late
+     */
+    public long getLateCount() { return late; }
+}
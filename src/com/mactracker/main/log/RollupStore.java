@@ -0,0 +1,574 @@
+package com.mactracker.main.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.DateTimeException;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+
+/**
+ * Pre-aggregated entry counts per AP code and entry type, at minute, hour and
+ * day resolution, so dashboards read a few counters instead of re-scanning
+ * parsed entries.
+ * <p>
+ * Parsing only counts into the minute tier, one probe of a primitive hash
+ * table per entry. Once the newest timestamp starts a new hour, every
+ * complete hour of minutes is folded into the hour and day tiers, and minutes
+ * older than the minute retention are dropped, so memory stays bounded by the
+ * retention plus one counter set per AP code per hour and per day. Queries on
+ * the hour and day tiers include minutes that are not yet folded.
+ * <p>
+ * Retention is measured from the newest timestamp seen, not the clock, so
+ * replaying old logs rolls up the same way as parsing live ones. A late entry
+ * for an hour that was already folded is counted in every tier that still
+ * holds its time.
+ * <p>
+ * Hours and days are those of the store's zone offset, UTC by default, e.g.
+ * {@code ZoneOffset.ofHours(-4)} for logs stamped {@code -04:00} so a day
+ * bucket runs from local midnight to midnight. The offset is fixed, a zone
+ * with daylight saving time has to be rolled up at one of its offsets.
+ * <p>
+ * Rollups are saved to and loaded from a compact binary file, and can be
+ * checkpointed with a {@link Checkpointer}. A store is not thread-safe,
+ * parsers sharing one must hand batches over one at a time as the
+ * {@link FileIngestor} does.
+ * 
+ * @author Group Z
+ */
+public class RollupStore implements EntrySink, Checkpointable {
+    /**
+     * Default minute retention, two days.
+     */
+    public static final long DEFAULT_MINUTE_RETENTION = 2 * 24 * 3600;
+    
+    /**
+     * A rollup resolution.
+     */
+    public enum Tier {
+        MINUTE(60), HOUR(3600), DAY(86400);
+        
+        private final long seconds;
+        
+        private Tier(long seconds) { this.seconds = seconds; }
+        
+        /**
+         * @return the length of one bucket of this tier, in seconds
+         */
+        public long getSeconds() { return seconds; }
+        
+        /* the index of the bucket epoch falls in */
+        private long bucket(long epoch) {
+            return Math.floorDiv(epoch, seconds);
+        }
+    }
+    
+    private static final int TYPES = LogEntry.Type.values().length;
+    private static final int MAGIC = 0x524C5550; // "RLUP"
+    private static final int VERSION = 2;
+    private static final long NONE = Long.MIN_VALUE;
+    
+    private final long minuteRetention;
+    private final int offset; // seconds local time is ahead of UTC
+    private final Table minutes = new Table();
+    private final Table hours = new Table();
+    private final Table days = new Table();
+    
+    // in local seconds, i.e. seconds since epoch plus the offset
+    private long newest = NONE; // newest timestamp counted
+    private long folded = NONE; // minutes before this are in hours and days
+    private long kept = NONE; // minutes before this were dropped
+    
+    
+    /**
+     * Constructor that keeps minutes for {@link #DEFAULT_MINUTE_RETENTION}
+     * seconds, with UTC hours and days.
+     */
+    public RollupStore() { this(DEFAULT_MINUTE_RETENTION); }
+    
+    /**
+     * Constructor with UTC hours and days.
+     * 
+     * @param minuteRetention
+     *                        how long minute counts are kept, in seconds
+     *                        behind the newest timestamp
+     */
+    public RollupStore(long minuteRetention) {
+        this(minuteRetention, ZoneOffset.UTC);
+    }
+    
+    /**
+     * @param minuteRetention
+     *                        how long minute counts are kept, in seconds
+     *                        behind the newest timestamp
+     * @param zone
+     *                        the offset whose hours and days entries are
+     *                        rolled up by
+     */
+    public RollupStore(long minuteRetention, ZoneOffset zone) {
+        if (minuteRetention < Tier.HOUR.seconds)
+            throw new IllegalArgumentException(
+                "minuteRetention must be at least an hour");
+        if (zone == null)
+            throw new IllegalArgumentException("zone cannot be null");
+        
+        this.minuteRetention = minuteRetention;
+        this.offset = zone.getTotalSeconds();
+    }
+    
+    
+    /* open-addressed (bucket, apcode) to per type counts table */
+    private static final class Table {
+        private static final int MIN_CAPACITY = 256;
+        
+        private long[] keys; // NONE marks an empty slot
+        private long[] counts; // TYPES counts per slot
+        private int size;
+        
+        private Table() { this(MIN_CAPACITY); }
+        
+        private Table(int capacity) {
+            keys = new long[capacity];
+            counts = new long[capacity * TYPES];
+            Arrays.fill(keys, NONE);
+        }
+        
+        private static long key(long bucket, int apcode) {
+            return bucket << 32 | (apcode & 0xFFFFFFFFL);
+        }
+        
+        private static long bucketOf(long key) { return key >> 32; }
+        
+        private static int apcodeOf(long key) { return (int) key; }
+        
+        private int slot(long key) {
+            int mask = keys.length - 1;
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+        
+        /* returns the slot of key, or -1 */
+        private int find(long key) {
+            int mask = keys.length - 1;
+            int i = slot(key);
+            long k;
+            while ((k = keys[i]) != NONE) {
+                if (k == key)
+                    return i;
+                i = (i + 1) & mask;
+            }
+            
+            return -1;
+        }
+        
+        private void add(long key, int type, long n) {
+            if (size * 2 >= keys.length)
+                rehash(keys.length * 2);
+            
+            int mask = keys.length - 1;
+            int i = slot(key);
+            long k;
+            while ((k = keys[i]) != NONE && k != key)
+                i = (i + 1) & mask;
+            
+            if (k == NONE) {
+                keys[i] = key;
+                size += 1;
+            }
+            
+            counts[i * TYPES + type] += n;
+        }
+        
+        private long get(long key, int type) {
+            int i = find(key);
+            return i < 0 ? 0 : counts[i * TYPES + type];
+        }
+        
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            long[] oldCounts = counts;
+            keys = new long[capacity];
+            counts = new long[capacity * TYPES];
+            Arrays.fill(keys, NONE);
+            size = 0;
+            
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != NONE)
+                    put(oldKeys[i], oldCounts, i * TYPES);
+            }
+        }
+        
+        /* adds the TYPES counts at from[off] to key */
+        private void put(long key, long[] from, int off) {
+            for (int type = 0; type < TYPES; type++) {
+                if (from[off + type] != 0)
+                    add(key, type, from[off + type]);
+            }
+        }
+        
+        /* drops every key of a bucket before bucket, in bulk */
+        private void dropBefore(long bucket) {
+            Table rest = new Table(Math.max(MIN_CAPACITY, keys.length / 2));
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != NONE && bucketOf(keys[i]) >= bucket)
+                    rest.put(keys[i], counts, i * TYPES);
+            }
+            
+            keys = rest.keys;
+            counts = rest.counts;
+            size = rest.size;
+        }
+    }
+    
+    
+    /**
+     * Counts a batch of parsed entries.
+     */
+    @Override
+    public void accept(LogEntry[] batch, int count) {
+        for (int i = 0; i < count; i++) {
+            LogEntry e = batch[i];
+            record(e.getTimeStamp(), e.getApCode(), e.getType().ordinal(), 1);
+        }
+    }
+    
+    /* counts n entries of type at epoch in every tier that needs them */
+    private void record(long epoch, int apcode, int type, long n) {
+        epoch += offset;
+        if (epoch > newest) {
+            boolean newHour = newest == NONE
+                || Tier.HOUR.bucket(epoch) != Tier.HOUR.bucket(newest);
+            newest = epoch;
+            if (newHour)
+                compact();
+        }
+        
+        long minute = Tier.MINUTE.bucket(epoch);
+        if (kept == NONE || minute >= kept)
+            minutes.add(Table.key(minute, apcode), type, n);
+        
+        // hours already folded take late entries directly
+        if (folded != NONE && epoch < folded) {
+            hours.add(Table.key(Tier.HOUR.bucket(epoch), apcode), type, n);
+            days.add(Table.key(Tier.DAY.bucket(epoch), apcode), type, n);
+        }
+    }
+    
+    /**
+     * Folds every complete hour of minute counts into the hour and day tiers,
+     * and drops minutes older than the minute retention. Called whenever the
+     * newest timestamp starts a new hour.
+     */
+    public void compact() {
+        if (newest == NONE)
+            return;
+        
+        // fold the minutes of every hour before the newest one
+        long foldTo = Tier.HOUR.bucket(newest) * Tier.HOUR.seconds;
+        if (folded == NONE || foldTo > folded) {
+            long from = folded == NONE ? Long.MIN_VALUE
+                : Tier.MINUTE.bucket(folded);
+            long to = Tier.MINUTE.bucket(foldTo);
+            
+            long[] keys = minutes.keys;
+            for (int i = 0; i < keys.length; i++) {
+                long key = keys[i];
+                if (key == NONE)
+                    continue;
+                
+                long minute = Table.bucketOf(key);
+                if (minute < from || minute >= to)
+                    continue;
+                
+                long epoch = minute * Tier.MINUTE.seconds;
+                int apcode = Table.apcodeOf(key);
+                hours.put(Table.key(Tier.HOUR.bucket(epoch), apcode),
+                    minutes.counts, i * TYPES);
+                days.put(Table.key(Tier.DAY.bucket(epoch), apcode),
+                    minutes.counts, i * TYPES);
+            }
+            
+            folded = foldTo;
+        }
+        
+        // only folded minutes are dropped
+        long keep = Math.min(folded, newest - minuteRetention);
+        long keepMinute = Tier.MINUTE.bucket(keep);
+        if (kept == NONE || keepMinute > kept) {
+            minutes.dropBefore(keepMinute);
+            kept = keepMinute;
+        }
+    }
+    
+    
+    /**
+     * @param tier
+     *                  the resolution
+     * @param apcode
+     *                  an AP code
+     * @param type
+     *                  an entry type
+     * @param fromEpoch
+     *                  the start of the first bucket is the start of the
+     *                  bucket this falls in, in seconds since epoch
+     * @param toEpoch
+     *                  the time the last bucket ends at or before, in seconds
+     *                  since epoch
+     * @return the number of entries in each bucket of {@code tier} in
+     *         {@code [fromEpoch, toEpoch)}, zero for minutes no longer kept,
+     *         with hours and days in the store's zone offset
+     */
+    public long[] series(Tier tier, int apcode, LogEntry.Type type,
+        long fromEpoch, long toEpoch) {
+        long first = tier.bucket(fromEpoch + offset);
+        long end = tier.bucket(toEpoch + offset - 1) + 1;
+        if (end <= first)
+            return new long[0];
+        
+        long[] series = new long[(int) (end - first)];
+        int t = type.ordinal();
+        
+        Table table = tier == Tier.MINUTE ? minutes
+            : tier == Tier.HOUR ? hours : days;
+        for (long b = first; b < end; b++)
+            series[(int) (b - first)] = table.get(Table.key(b, apcode), t);
+        
+        // minutes not yet folded into the hour and day tiers
+        if (tier != Tier.MINUTE && newest != NONE) {
+            long from = Math.max(first * tier.seconds,
+                folded == NONE ? Long.MIN_VALUE : folded);
+            long to = Math.min(end * tier.seconds, newest + 1);
+            
+            long step = Tier.MINUTE.seconds;
+            for (long m = Tier.MINUTE.bucket(from); m * step < to; m++) {
+                long n = minutes.get(Table.key(m, apcode), t);
+                if (n != 0)
+                    series[(int) (tier.bucket(m * step) - first)] += n;
+            }
+        }
+        
+        return series;
+    }
+    
+    /**
+     * @param tier
+     *                  the resolution, which should be the coarsest whose
+     *                  buckets line up with the range
+     * @param apcode
+     *                  an AP code
+     * @param type
+     *                  an entry type
+     * @param fromEpoch
+     *                  see {@link #series}
+     * @param toEpoch
+     *                  see {@link #series}
+     * @return the number of entries in the buckets of {@code tier} in
+     *         {@code [fromEpoch, toEpoch)}
+     */
+    public long count(Tier tier, int apcode, LogEntry.Type type,
+        long fromEpoch, long toEpoch) {
+        long total = 0;
+        for (long n : series(tier, apcode, type, fromEpoch, toEpoch))
+            total += n;
+        
+        return total;
+    }
+    
+    /**
+     * @return the AP codes with counted entries, in ascending order
+     */
+    public int[] getApCodes() {
+        int[] codes = new int[days.size + minutes.size];
+        int n = 0;
+        for (Table table : new Table[] { days, minutes }) {
+            for (long key : table.keys) {
+                if (key != NONE)
+                    codes[n++] = Table.apcodeOf(key);
+            }
+        }
+        
+        return Arrays.stream(codes, 0, n).sorted().distinct().toArray();
+    }
+    
+    /**
+     * @return the newest timestamp counted, or {@link Long#MIN_VALUE} if
+     *         none
+     */
+    public long getNewest() { return newest == NONE ? NONE : newest - offset; }
+    
+    /**
+     * @return the offset whose hours and days entries are rolled up by
+     */
+    public ZoneOffset getZone() { return ZoneOffset.ofTotalSeconds(offset); }
+    
+    
+    /* ---------------------------------------------------------------------
+     * Binary format, every tier's keys in ascending order as varint deltas,
+     * each followed by its non-zero counts as varints */
+    
+    /**
+     * Writes the rollups to {@code path}, replacing it atomically.
+     * 
+     * @param path
+     *             the rollup file
+     * @throws IOException
+     *                     if writing fails
+     */
+    public void write(Path path) throws IOException {
+        compact();
+        
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (OutputStream os = Files.newOutputStream(tmp)) {
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(os));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeState(out);
+            out.flush();
+        }
+        
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /**
+     * @param path
+     *             a file written by {@link #write(Path)}
+     * @return the rollups of {@code path}, in the zone offset they were
+     *         written with, keeping minutes for
+     *         {@link #DEFAULT_MINUTE_RETENTION} seconds
+     * @throws IOException
+     *                     if reading fails or the file is not a rollup file
+     */
+    public static RollupStore read(Path path) throws IOException {
+        try (InputStream is = Files.newInputStream(path)) {
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(is));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("not a rollup file: " + path);
+            
+            if (in.readInt() != TYPES)
+                throw new IOException("rollups have other entry types");
+            
+            RollupStore store = new RollupStore(DEFAULT_MINUTE_RETENTION,
+                readOffset(in));
+            store.readTiers(in);
+            return store;
+        }
+    }
+    
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeInt(TYPES);
+        out.writeInt(offset);
+        out.writeLong(newest);
+        out.writeLong(folded);
+        out.writeLong(kept);
+        
+        for (Table table : new Table[] { minutes, hours, days }) {
+            long[] sorted = new long[table.size];
+            int n = 0;
+            for (long key : table.keys) {
+                if (key != NONE)
+                    sorted[n++] = key;
+            }
+            Arrays.sort(sorted);
+            
+            out.writeInt(n);
+            long prev = 0;
+            for (long key : sorted) {
+                writeVarLong(out, key - prev);
+                prev = key;
+                
+                // a bit per non-zero count, then the counts
+                int i = table.find(key) * TYPES;
+                int present = 0;
+                for (int type = 0; type < TYPES; type++) {
+                    if (table.counts[i + type] != 0)
+                        present |= 1 << type;
+                }
+                
+                writeVarLong(out, present);
+                for (int type = 0; type < TYPES; type++) {
+                    if (table.counts[i + type] != 0)
+                        writeVarLong(out, table.counts[i + type]);
+                }
+            }
+        }
+    }
+    
+    @Override
+    public void readState(DataInput in) throws IOException {
+        if (in.readInt() != TYPES)
+            throw new IOException("rollups have other entry types");
+        if (readOffset(in).getTotalSeconds() != offset)
+            throw new IOException("rollups have another zone offset");
+        
+        readTiers(in);
+    }
+    
+    /* reads a zone offset written as its total seconds */
+    private static ZoneOffset readOffset(DataInput in) throws IOException {
+        try {
+            return ZoneOffset.ofTotalSeconds(in.readInt());
+        } catch (DateTimeException e) {
+            throw new IOException("malformed rollups", e);
+        }
+    }
+    
+    /* reads the tiers and their bounds, after the types and offset */
+    private void readTiers(DataInput in) throws IOException {
+        newest = Math.max(newest, in.readLong());
+        folded = Math.max(folded, in.readLong());
+        kept = Math.max(kept, in.readLong());
+        
+        for (Table table : new Table[] { minutes, hours, days }) {
+            int n = in.readInt();
+            if (n < 0)
+                throw new IOException("malformed rollups");
+            
+            long key = 0;
+            for (int k = 0; k < n; k++) {
+                key += readVarLong(in);
+                int present = (int) readVarLong(in);
+                for (int type = 0; type < TYPES; type++) {
+                    if ((present & 1 << type) != 0)
+                        table.add(key, type, readVarLong(in));
+                }
+            }
+        }
+    }
+    
+    /* LEB128, deltas of sorted keys and counts are never negative */
+    private static void writeVarLong(DataOutput out, long v)
+        throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) (v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        
+        out.writeByte((int) v);
+    }
+    
+    private static long readVarLong(DataInput in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return v;
+        }
+        
+        throw new IOException("malformed varint");
+    }
+}
@@ -0,0 +1,464 @@
+package com.mactracker.main.log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+
+/**
+ * A query over the entries of an {@link EntrySegment}: predicates on time
+ * range, entry type, AP code and station, and either counts, counts grouped
+ * by one column, or the selected columns of every matching entry.
+ * <p>
+ * Predicates are pushed down to the segment's blocks. A block whose zone map
+ * shows it cannot match, e.g. its time range is outside the query's or it
+ * holds none of the queried AP codes, is skipped without reading its
+ * columns. A block whose zone map shows every entry matches is counted
+ * without reading them either. The remaining blocks are scanned in parallel
+ * on the common fork/join pool, and their results merged.
+ * <p>
+ * For example, the stations in Atkins between 9 and 10:
+ * 
+ * <pre>
+ * segment.query().buildings("Atkins").between(nine, ten)
+ *     .countByStation().keySet()
+ * </pre>
+ * 
+ * A query is built and run by one thread, and may be run more than once.
+ * 
+ * @author Group Z
+ */
+public class SegmentQuery {
+    /**
+     * A column of a segment's entries.
+     */
+    public enum Column {
+        TIME, TYPE, AP_CODE, STATION;
+    }
+    
+    private static final int TYPES = LogEntry.Type.values().length;
+    private static final int ALL_TYPES = (1 << TYPES) - 1;
+    
+    private final EntrySegment segment;
+    private long from = Long.MIN_VALUE;
+    private long to = Long.MAX_VALUE;
+    private int typeMask = ALL_TYPES;
+    private long[] apBits; // bit per AP code, null for any
+    private Collection<String> macs; // null for any
+    
+    
+    /* created by EntrySegment#query */
+    SegmentQuery(EntrySegment segment) { this.segment = segment; }
+    
+    
+    /**
+     * Matches only entries timestamped in {@code [fromEpoch, toEpoch)}.
+     * 
+     * @param fromEpoch
+     *                  the earliest time matched, in seconds since epoch
+     * @param toEpoch
+     *                  the time matched entries are before, in seconds since
+     *                  epoch
+     * @return this query
+     */
+    public SegmentQuery between(long fromEpoch, long toEpoch) {
+        if (fromEpoch > toEpoch)
+            throw new IllegalArgumentException(
+                "fromEpoch cannot be after toEpoch");
+        
+        from = fromEpoch;
+        to = toEpoch;
+        return this;
+    }
+    
+    /**
+     * Matches only entries of one of {@code types}.
+     * 
+     * @param types
+     *              entry types
+     * @return this query
+     */
+    public SegmentQuery types(LogEntry.Type... types) {
+        int mask = 0;
+        for (LogEntry.Type type : types)
+            mask |= 1 << type.ordinal();
+        
+        typeMask = mask;
+        return this;
+    }
+    
+    /**
+     * Matches only entries with one of {@code apcodes}.
+     * 
+     * @param apcodes
+     *                AP codes, i.e. indexes of building names
+     * @return this query
+     */
+    public SegmentQuery apCodes(int... apcodes) {
+        int max = -1;
+        for (int apcode : apcodes) {
+            if (apcode < 0)
+                throw new IllegalArgumentException(
+                    "apcode cannot be less than zero");
+            max = Math.max(max, apcode);
+        }
+        
+        long[] bits = new long[(max >>> 6) + 1];
+        for (int apcode : apcodes)
+            bits[apcode >>> 6] |= 1L << apcode;
+        
+        apBits = bits;
+        return this;
+    }
+    
+    /**
+     * Matches only entries from one of {@code buildings}, see
+     * {@link EntryFilter#buildings(String...)}.
+     * 
+     * @param buildings
+     *                  abbreviations or building names
+     * @return this query
+     * @throws IllegalArgumentException
+     *                                  if a building is not in the trie
+     */
+    public SegmentQuery buildings(String... buildings) {
+        return apCodes(EntryFilter.apCodesOf(buildings));
+    }
+    
+    /**
+     * Matches only entries of one of {@code macs}.
+     * 
+     * @param macs
+     *             station MACs, as they appear in the log
+     * @return this query
+     */
+    public SegmentQuery stations(Collection<String> macs) {
+        this.macs = macs;
+        return this;
+    }
+    
+    
+    /* ---------------------------------------------------------------------
+     * Results */
+    
+    /**
+     * @return the number of matching entries
+     */
+    public long count() {
+        return scan(() -> new long[1], (r, b, rows, n) -> r[0] += n,
+            (a, b) -> a[0] += b[0])[0];
+    }
+    
+    /**
+     * @return the number of matching entries of each type, indexed by type
+     *         ordinal
+     */
+    public long[] countByType() {
+        return scan(() -> new long[TYPES], (r, b, rows, n) -> {
+            for (int i = 0; i < n; i++)
+                r[b.types[row(rows, i)]] += 1;
+        }, SegmentQuery::add);
+    }
+    
+    /**
+     * @return the number of matching entries of each AP code with any, in
+     *         ascending AP code order
+     */
+    public Map<Integer, Long> countByApCode() {
+        Map<Integer, Long> counts = new TreeMap<>();
+        if (segment.size() == 0)
+            return counts;
+        
+        final int min = segment.minApCode();
+        long[] byAp = scan(() -> new long[segment.maxApCode() - min + 1],
+            (r, b, rows, n) -> {
+                for (int i = 0; i < n; i++)
+                    r[b.apcodes[row(rows, i)] - min] += 1;
+            }, SegmentQuery::add);
+        
+        for (int i = 0; i < byAp.length; i++) {
+            if (byAp[i] != 0)
+                counts.put(i + min, byAp[i]);
+        }
+        
+        return counts;
+    }
+    
+    /**
+     * @return the number of matching entries of each station MAC with any, in
+     *         order of the station's first entry
+     */
+    public Map<String, Long> countByStation() {
+        long[] bySta = scan(() -> new long[segment.getStationCount()],
+            (r, b, rows, n) -> {
+                for (int i = 0; i < n; i++) {
+                    int id = b.stations[row(rows, i)];
+                    if (id != EntrySegment.NO_STATION)
+                        r[id] += 1;
+                }
+            }, SegmentQuery::add);
+        
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (int id = 0; id < bySta.length; id++) {
+            if (bySta[id] != 0)
+                counts.put(segment.station(id), bySta[id]);
+        }
+        
+        return counts;
+    }
+    
+    /**
+     * @param columns
+     *                the columns to read, reading fewer costs less
+     * @return {@code columns} of every matching entry, in the order the
+     *         entries were added to the segment
+     */
+    public Rows select(Column... columns) {
+        // one part per block with matches, merged in block order
+        List<Part> parts = scan(ArrayList::new, (r, b, rows, n) -> {
+            if (n > 0)
+                r.add(new Part(b, rows, n));
+        }, List::addAll);
+        
+        int total = 0;
+        for (Part part : parts)
+            total += part.n;
+        
+        boolean[] cols = new boolean[Column.values().length];
+        for (Column c : columns)
+            cols[c.ordinal()] = true;
+        
+        Rows out = new Rows(segment, total, cols);
+        int at = 0;
+        for (Part part : parts) {
+            EntrySegment.Block b = part.block;
+            for (int i = 0; i < part.n; i++, at++) {
+                int r = row(part.rows, i);
+                if (out.tstamps != null)
+                    out.tstamps[at] = b.tstamps[r];
+                if (out.types != null)
+                    out.types[at] = b.types[r];
+                if (out.apcodes != null)
+                    out.apcodes[at] = b.apcodes[r];
+                if (out.stations != null)
+                    out.stations[at] = b.stations[r];
+            }
+        }
+        
+        return out;
+    }
+    
+    /**
+     * The selected columns of a query's matching entries.
+     */
+    public static final class Rows {
+        private final EntrySegment segment;
+        private final int size;
+        private final long[] tstamps;
+        private final byte[] types;
+        private final int[] apcodes;
+        private final int[] stations;
+        
+        private Rows(EntrySegment segment, int size, boolean[] cols) {
+            this.segment = segment;
+            this.size = size;
+            tstamps = cols[Column.TIME.ordinal()] ? new long[size] : null;
+            types = cols[Column.TYPE.ordinal()] ? new byte[size] : null;
+            apcodes = cols[Column.AP_CODE.ordinal()] ? new int[size] : null;
+            stations = cols[Column.STATION.ordinal()] ? new int[size] : null;
+        }
+        
+        /**
+         * @return the number of rows
+         */
+        public int size() { return size; }
+        
+        /**
+         * @param i
+         *          a row
+         * @return the row's timestamp, in seconds since epoch
+         */
+        public long getTimeStamp(int i) {
+            return selected(tstamps, Column.TIME)[i];
+        }
+        
+        /**
+         * @param i
+         *          a row
+         * @return the row's entry type
+         */
+        public LogEntry.Type getType(int i) {
+            return LogEntry.Type.values()[selected(types, Column.TYPE)[i]];
+        }
+        
+        /**
+         * @param i
+         *          a row
+         * @return the row's AP code
+         */
+        public int getApCode(int i) {
+            return selected(apcodes, Column.AP_CODE)[i];
+        }
+        
+        /**
+         * @param i
+         *          a row
+         * @return the row's station MAC, or {@code null} if it has none
+         */
+        public String getStation(int i) {
+            return segment.station(selected(stations, Column.STATION)[i]);
+        }
+        
+        private static <T> T selected(T column, Column c) {
+            if (column == null)
+                throw new IllegalStateException(c + " was not selected");
+            
+            return column;
+        }
+    }
+    
+    
+    /* ---------------------------------------------------------------------
+     * Block scans */
+    
+    /* consumes the matching rows of one block, rows[0, n) or, if rows is
+     * null, every row of the block */
+    private interface BlockScan<R> {
+        void scan(R result, EntrySegment.Block b, int[] rows, int n);
+    }
+    
+    /* the matching rows of one block, see BlockScan */
+    private static final class Part {
+        private final EntrySegment.Block block;
+        private final int[] rows;
+        private final int n;
+        
+        private Part(EntrySegment.Block block, int[] rows, int n) {
+            this.block = block;
+            this.rows = rows;
+            this.n = n;
+        }
+    }
+    
+    private static int row(int[] rows, int i) {
+        return rows == null ? i : rows[i];
+    }
+    
+    private static void add(long[] a, long[] b) {
+        for (int i = 0; i < a.length; i++)
+            a[i] += b[i];
+    }
+    
+    /* scans every block that may match in parallel, merging the results */
+    private <R> R scan(Supplier<R> supplier, BlockScan<R> scan,
+        BiConsumer<R, R> merge) {
+        final boolean[] sta = stationMask();
+        if (sta != null && sta.length == 0)
+            return supplier.get(); // no entry has a queried station
+        
+        return IntStream.range(0, segment.getBlockCount()).parallel().collect(
+            supplier, (r, i) -> {
+                EntrySegment.Block b = segment.block(i);
+                if (!mayMatch(b))
+                    return;
+                
+                if (sta == null && covers(b)) {
+                    scan.scan(r, b, null, b.size);
+                } else {
+                    int[] rows = new int[b.size];
+                    int n = match(b, sta, rows);
+                    scan.scan(r, b, rows, n);
+                }
+            }, merge);
+    }
+    
+    /* the queried station IDs of the segment, null for any, empty if none
+     * of the queried stations is in the segment */
+    private boolean[] stationMask() {
+        if (macs == null)
+            return null;
+        
+        boolean[] mask = new boolean[segment.getStationCount()];
+        boolean any = false;
+        for (String mac : macs) {
+            int id = segment.stationId(mac);
+            if (id != EntrySegment.NO_STATION) {
+                mask[id] = true;
+                any = true;
+            }
+        }
+        
+        return any ? mask : new boolean[0];
+    }
+    
+    /* zone map checks, whether some entry of b may match */
+    private boolean mayMatch(EntrySegment.Block b) {
+        if (b.size == 0 || b.maxTime < from || b.minTime >= to)
+            return false;
+        if ((b.typeMask & typeMask) == 0)
+            return false;
+        if (apBits == null)
+            return true;
+        
+        int n = Math.min(apBits.length, b.apBits.length);
+        for (int w = 0; w < n; w++) {
+            if ((apBits[w] & b.apBits[w]) != 0)
+                return true;
+        }
+        
+        return false;
+    }
+    
+    /* zone map checks, whether every entry of b matches, ignoring stations */
+    private boolean covers(EntrySegment.Block b) {
+        if (b.minTime < from || b.maxTime >= to)
+            return false;
+        if ((b.typeMask & ~typeMask) != 0)
+            return false;
+        if (apBits == null)
+            return true;
+        if (b.negativeAps)
+            return false;
+        
+        for (int w = 0; w < b.apBits.length; w++) {
+            long queried = w < apBits.length ? apBits[w] : 0;
+            if ((b.apBits[w] & ~queried) != 0)
+                return false;
+        }
+        
+        return true;
+    }
+    
+    /* fills rows with the matching rows of b, returns their number */
+    private int match(EntrySegment.Block b, boolean[] sta, int[] rows) {
+        int n = 0;
+        for (int r = 0; r < b.size; r++) {
+            long t = b.tstamps[r];
+            if (t < from || t >= to || (typeMask >>> b.types[r] & 1) == 0)
+                continue;
+            
+            if (apBits != null) {
+                int apcode = b.apcodes[r];
+                if (apcode < 0 || (apcode >>> 6) >= apBits.length
+                    || (apBits[apcode >>> 6] & 1L << apcode) == 0)
+                    continue;
+            }
+            
+            if (sta != null) {
+                int id = b.stations[r];
+                if (id == EntrySegment.NO_STATION || !sta[id])
+                    continue;
+            }
+            
+            rows[n++] = r;
+        }
+        
+        return n;
+    }
+}
@@ -0,0 +1,222 @@
+package com.mactracker.main.log;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Per AP code and per station aggregates shared by any number of concurrently
+ * running {@link LogParser}s, e.g. one parser per controller file.
+ * <p>
+ * Parsers hand entries over in batches through {@link #accept}. Each batch is
+ * first tallied per AP code and entry type in a small table local to the
+ * calling thread, then added to striped {@link LongAdder} counters once per
+ * distinct AP code, so parsers do not contend per entry. Station state goes to
+ * a {@link StationStore}, which locks each of its segments once per batch.
+ * <p>
+ * The counters, but not station state, are saved by a {@link Checkpoint}. A
+ * checkpoint is only consistent when the aggregates are fed by the one
+ * checkpointed parser.
+ * 
+ * @author Group Z
+ */
+public class SharedAggregates implements EntrySink, Checkpointable {
+    private static final int TYPES = LogEntry.Type.values().length;
+    
+    private final Map<Integer, LongAdder[]> byAp;
+    private final LongAdder[] byType;
+    private final LongAdder batches = new LongAdder();
+    private final StationStore stations;
+    
+    
+    /**
+     * Constructor that creates aggregates without station state.
+     */
+    public SharedAggregates() { this(null); }
+    
+    /**
+     * @param stations
+     *                 the store to record station state in, or {@code null}
+     */
+    public SharedAggregates(StationStore stations) {
+        byAp = new ConcurrentHashMap<Integer, LongAdder[]>();
+        byType = newAdders();
+        this.stations = stations;
+    }
+    
+    private static LongAdder[] newAdders() {
+        LongAdder[] adders = new LongAdder[TYPES];
+        for (int i = 0; i < TYPES; i++)
+            adders[i] = new LongAdder();
+        
+        return adders;
+    }
+    
+    
+    /**
+     * Adds a batch of parsed entries to the aggregates. Safe to call from any
+     * number of parser threads at once.
+     */
+    @Override
+    public void accept(LogEntry[] batch, int count) {
+        BatchTally tally = new BatchTally(count);
+        for (int i = 0; i < count; i++)
+            tally.add(batch[i].getApCode(), batch[i].getType().ordinal());
+        
+        tally.drainTo(this);
+        batches.increment();
+        
+        if (stations != null)
+            stations.accept(batch, count);
+    }
+    
+    /* adds n entries of type for apcode, called once per tallied pair */
+    private void add(int apcode, int type, int n) {
+        LongAdder[] adders = byAp.get(apcode);
+        if (adders == null)
+            adders = byAp.computeIfAbsent(apcode, a -> newAdders());
+        
+        adders[type].add(n);
+        byType[type].add(n);
+    }
+    
+    /* open-addressed (apcode, type) to count table for a single batch */
+    private static final class BatchTally {
+        private final int[] aps;
+        private final int[] types;
+        private final int[] counts; // zero marks an empty slot
+        
+        private BatchTally(int count) {
+            // at least twice the batch length, keeps probes short
+            int capacity = Integer.highestOneBit(Math.max(count, 1) * 4 - 1);
+            aps = new int[capacity];
+            types = new int[capacity];
+            counts = new int[capacity];
+        }
+        
+        private void add(int apcode, int type) {
+            int mask = counts.length - 1;
+            int i = (apcode * TYPES + type) * 0x9E3779B9;
+            i = (i ^ (i >>> 16)) & mask;
+            
+            while (counts[i] != 0) {
+                if (aps[i] == apcode && types[i] == type) {
+                    counts[i] += 1;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            
+            aps[i] = apcode;
+            types[i] = type;
+            counts[i] = 1;
+        }
+        
+        private void drainTo(SharedAggregates aggregates) {
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0)
+                    aggregates.add(aps[i], types[i], counts[i]);
+            }
+        }
+    }
+    
+    
+    /**
+     * @param type
+     *             an entry type
+     * @return the number of entries of {@code type} aggregated
+     */
+    public long getCount(LogEntry.Type type) {
+        return byType[type.ordinal()].sum();
+    }
+    
+    /**
+     * @param apcode
+     *               an AP code
+     * @param type
+     *               an entry type
+     * @return the number of entries of {@code type} aggregated for
+     *         {@code apcode}
+     */
+    public long getCount(int apcode, LogEntry.Type type) {
+        LongAdder[] adders = byAp.get(apcode);
+        return adders == null ? 0 : adders[type.ordinal()].sum();
+    }
+    
+    /**
+     * @return the AP codes with aggregated entries, in ascending order
+     */
+    public int[] getApCodes() {
+        int[] codes = new int[byAp.size()];
+        int n = 0;
+        for (Integer apcode : byAp.keySet()) {
+            // the map may have grown since it was sized
+            if (n == codes.length)
+                codes = Arrays.copyOf(codes, n * 2 + 1);
+            codes[n++] = apcode;
+        }
+        
+        codes = Arrays.copyOf(codes, n);
+        Arrays.sort(codes);
+        return codes;
+    }
+    
+    /**
+     * @return the number of batches aggregated
+     */
+    public long getBatchCount() { return batches.sum(); }
+    
+    /**
+     * @return the station store, or {@code null} if station state is not
+     *         kept
+     */
+    public StationStore getStations() { return stations; }
+    
+    
+    /**
+     * Writes the batch count and the count of every (AP code, type) pair.
+     */
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeInt(TYPES);
+        out.writeLong(batches.sum());
+        
+        int[] apcodes = getApCodes();
+        out.writeInt(apcodes.length);
+        for (int apcode : apcodes) {
+            out.writeInt(apcode);
+            LongAdder[] adders = byAp.get(apcode);
+            for (int type = 0; type < TYPES; type++)
+                out.writeLong(adders[type].sum());
+        }
+    }
+    
+    @Override
+    public void readState(DataInput in) throws IOException {
+        if (in.readInt() != TYPES)
+            throw new IOException("aggregate state has other entry types");
+        
+        batches.add(in.readLong());
+        
+        int n = in.readInt();
+        if (n < 0)
+            throw new IOException("malformed aggregate state");
+        
+        for (int i = 0; i < n; i++) {
+            int apcode = in.readInt();
+            for (int type = 0; type < TYPES; type++) {
+                long count = in.readLong();
+                if (count != 0) {
+                    byAp.computeIfAbsent(apcode, a -> newAdders())[type]
+                        .add(count);
+                    byType[type].add(count);
+                }
+            }
+        }
+    }
+}
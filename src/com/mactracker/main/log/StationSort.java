@@ -0,0 +1,246 @@
+package com.mactracker.main.log;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+
+/**
+ * Orders entries by station and then by timestamp, e.g. to regroup a week of
+ * events into per station sessions, with a parallel radix sort instead of a
+ * comparator sort over {@code LogEntry} objects.
+ * <p>
+ * Each entry is reduced to a packed key: its station ID in the high bits and
+ * its timestamp, less the earliest one, in the low bits, each only as wide as
+ * its range needs. The keys are sorted along with the entries' indexes by an
+ * LSD radix sort, 11 bits per pass, so a sort takes a few linear passes with
+ * no comparisons however many entries there are. Each pass splits the keys
+ * into chunks, counts the chunks' digits in parallel, then moves every chunk
+ * to its place in parallel. Passes over a digit every key shares are
+ * skipped.
+ * <p>
+ * The sort is stable, entries of the same station and second keep their
+ * order. It is not in place, it needs a second key and index array as long
+ * as the first.
+ * 
+ * @author Group Z
+ */
+public final class StationSort {
+    private static final int DIGIT_BITS = 11;
+    private static final int RADIX = 1 << DIGIT_BITS;
+    
+    // fewer keys than this are sorted by the calling thread alone
+    private static final int PARALLEL_THRESHOLD = 1 << 16;
+    
+    private StationSort() {}
+    
+    
+    /**
+     * Returns the order of {@code entries} by station then timestamp. Station
+     * IDs are given in order of first appearance, so stations are grouped in
+     * that order, and entries without a station come first.
+     * 
+     * @param entries
+     *                parsed entries
+     * @return the indexes of {@code entries}, in sorted order
+     */
+    public static int[] order(List<LogEntry> entries) {
+        int n = entries.size();
+        int[] stations = new int[n];
+        long[] tstamps = new long[n];
+        
+        Map<LogEntry.Station, Integer> ids = new HashMap<>();
+        int i = 0;
+        for (LogEntry e : entries) {
+            LogEntry.Station sta = e.getStation();
+            if (sta == null || sta.chars() == null) {
+                stations[i] = -1;
+            } else {
+                Integer id = ids.get(sta);
+                if (id == null) {
+                    id = ids.size();
+                    ids.put(sta, id);
+                }
+                stations[i] = id;
+            }
+            
+            tstamps[i++] = e.getTimeStamp();
+        }
+        
+        return order(stations, tstamps);
+    }
+    
+    /**
+     * Sorts {@code entries} by station then timestamp, see
+     * {@link #order(List)}.
+     * 
+     * @param entries
+     *                parsed entries
+     */
+    public static void sort(LogEntry[] entries) {
+        int[] order = order(Arrays.asList(entries));
+        LogEntry[] sorted = new LogEntry[entries.length];
+        for (int i = 0; i < order.length; i++)
+            sorted[i] = entries[order[i]];
+        
+        System.arraycopy(sorted, 0, entries, 0, sorted.length);
+    }
+    
+    /**
+     * Returns the order of entries given column-wise, by station ID then
+     * timestamp.
+     * 
+     * @param stations
+     *                 the entries' station IDs
+     * @param tstamps
+     *                 the entries' timestamps, in seconds since epoch
+     * @return the indexes of the entries, in sorted order
+     * @throws IllegalArgumentException
+     *                                  if the columns differ in length, or
+     *                                  the ranges of the IDs and timestamps
+     *                                  together need more than 64 bits
+     */
+    public static int[] order(int[] stations, long[] tstamps) {
+        if (stations.length != tstamps.length)
+            throw new IllegalArgumentException(
+                "stations and tstamps must be the same length");
+        
+        int n = stations.length;
+        int[] order = new int[n];
+        if (n == 0)
+            return order;
+        
+        int minId = Integer.MAX_VALUE, maxId = Integer.MIN_VALUE;
+        long minTime = Long.MAX_VALUE, maxTime = Long.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            minId = Math.min(minId, stations[i]);
+            maxId = Math.max(maxId, stations[i]);
+            minTime = Math.min(minTime, tstamps[i]);
+            maxTime = Math.max(maxTime, tstamps[i]);
+        }
+        
+        int idBits = bitsFor((long) maxId - minId);
+        int timeBits = bitsFor(maxTime - minTime);
+        if (idBits + timeBits > Long.SIZE || maxTime - minTime < 0)
+            throw new IllegalArgumentException(
+                "station IDs and timestamps span too much for a packed key");
+        
+        // pack in parallel, the order starts out as the identity
+        final int minI = minId;
+        final long minT = minTime;
+        long[] keys = new long[n];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            keys[i] = ((long) stations[i] - minI) << timeBits
+                | (tstamps[i] - minT);
+            order[i] = i;
+        });
+        
+        radixSort(keys, order, idBits + timeBits);
+        return order;
+    }
+    
+    /**
+     * Sorts entries given column-wise by station ID then timestamp, moving
+     * both columns, see {@link #order(int[], long[])}.
+     * 
+     * @param stations
+     *                 the entries' station IDs
+     * @param tstamps
+     *                 the entries' timestamps, in seconds since epoch
+     */
+    public static void sort(int[] stations, long[] tstamps) {
+        int[] order = order(stations, tstamps);
+        int[] ids = stations.clone();
+        long[] times = tstamps.clone();
+        
+        IntStream.range(0, order.length).parallel().forEach(i -> {
+            stations[i] = ids[order[i]];
+            tstamps[i] = times[order[i]];
+        });
+    }
+    
+    
+    /* the number of bits needed to hold every value in [0, range] */
+    private static int bitsFor(long range) {
+        return Long.SIZE - Long.numberOfLeadingZeros(range);
+    }
+    
+    /* sorts the low bits of keys, moving vals along with them */
+    private static void radixSort(long[] keys, int[] vals, int bits) {
+        int n = keys.length;
+        int chunks = n < PARALLEL_THRESHOLD ? 1 : Math.min(
+            n / (PARALLEL_THRESHOLD / 4),
+            Runtime.getRuntime().availableProcessors() * 4);
+        int[][] counts = new int[chunks][RADIX];
+        
+        long[] srcKeys = keys, dstKeys = new long[n];
+        int[] srcVals = vals, dstVals = new int[n];
+        
+        for (int shift = 0; shift < bits; shift += DIGIT_BITS) {
+            final int sh = shift;
+            final long[] fromKeys = srcKeys, toKeys = dstKeys;
+            final int[] fromVals = srcVals, toVals = dstVals;
+            
+            // count each chunk's digits
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+                int[] count = counts[c];
+                Arrays.fill(count, 0);
+                int end = (int) (n * (long) (c + 1) / chunks);
+                for (int i = (int) (n * (long) c / chunks); i < end; i++)
+                    count[(int) (fromKeys[i] >>> sh) & (RADIX - 1)] += 1;
+            });
+            
+            // a digit every key shares leaves the order as it is
+            if (sharedDigit(counts, n))
+                continue;
+            
+            // offsets, by digit then chunk so the sort stays stable
+            int at = 0;
+            for (int d = 0; d < RADIX; d++) {
+                for (int c = 0; c < chunks; c++) {
+                    int count = counts[c][d];
+                    counts[c][d] = at;
+                    at += count;
+                }
+            }
+            
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+                int[] next = counts[c];
+                int end = (int) (n * (long) (c + 1) / chunks);
+                for (int i = (int) (n * (long) c / chunks); i < end; i++) {
+                    int to = next[(int) (fromKeys[i] >>> sh) & (RADIX - 1)]++;
+                    toKeys[to] = fromKeys[i];
+                    toVals[to] = fromVals[i];
+                }
+            });
+            
+            srcKeys = toKeys;
+            dstKeys = fromKeys;
+            srcVals = toVals;
+            dstVals = fromVals;
+        }
+        
+        if (srcVals != vals) {
+            System.arraycopy(srcKeys, 0, keys, 0, n);
+            System.arraycopy(srcVals, 0, vals, 0, n);
+        }
+    }
+    
+    /* whether every key has the digit counted */
+    private static boolean sharedDigit(int[][] counts, int n) {
+        for (int d = 0; d < RADIX; d++) {
+            int total = 0;
+            for (int[] count : counts)
+                total += count[d];
+            
+            if (total == n)
+                return true;
+            if (total != 0)
+                return false;
+        }
+        
+        return false;
+    }
+}
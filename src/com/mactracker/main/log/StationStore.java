@@ -0,0 +1,541 @@
+package com.mactracker.main.log;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+
+/**
+ * Per station state kept off-heap, in open-addressed hash tables held in
+ * direct {@link ByteBuffer}s and keyed by the bytes of the station MAC.
+ * <p>
+ * Station MACs are stored as read from the log, e.g. the base64 anonymized
+ * MACs of the campus logs, so a MAC can be up to {@value #MAX_MAC_LENGTH}
+ * ASCII chars long. Each record keeps a 64 bit hash of its MAC, so probes
+ * only compare MAC bytes when the hashes match.
+ * <p>
+ * For every station the store keeps the AP code and timestamp of its last
+ * entry, the start of its open session (an assoc success not yet followed by
+ * a deauth), its assoc and deauth counts, and the number and total length of
+ * its closed sessions. A station costs {@value #RECORD_BYTES} bytes outside
+ * the Java heap and no objects on it, so garbage collection does not slow
+ * down as the number of stations grows.
+ * <p>
+ * The store is split into segments, each with its own table and lock. Writes
+ * lock only the segment of the station written, so parser threads writing
+ * different stations rarely contend. Reads take no lock, each segment is a
+ * sequence lock: writers make the segment's sequence odd while changing a
+ * record, and readers retry whenever the sequence changed while they read.
+ * 
+ * @author Group Z
+ */
+public class StationStore implements EntrySink {
+    /**
+     * The longest MAC, in chars, the store can hold.
+     */
+    public static final int MAX_MAC_LENGTH = 60;
+    /**
+     * Session start of a station without an open session.
+     */
+    public static final long NO_SESSION = Long.MIN_VALUE;
+    
+    private static final int DEFAULT_SEGMENTS = 64;
+    private static final int MIN_SEGMENT_SLOTS = 64;
+    
+    // set in the stored hash of every occupied slot, so zero marks empty
+    private static final long OCCUPIED = 1L << 63;
+    
+    /* record layout, offsets in bytes */
+    private static final int HASH = 0;
+    private static final int LAST_SEEN = 8;
+    private static final int SESSION_START = 16;
+    private static final int SESSION_SECONDS = 24;
+    private static final int LAST_AP = 32;
+    private static final int ASSOCS = 36;
+    private static final int DEAUTHS = 40;
+    private static final int SESSIONS = 44;
+    private static final int MAC_LEN = 48;
+    private static final int MAC = 52;
+    static final int RECORD_BYTES = MAC + MAX_MAC_LENGTH;
+    
+    // segments can't hold more slots than fit in one direct buffer
+    private static final int MAX_SEGMENT_SLOTS = Integer.highestOneBit(
+        Integer.MAX_VALUE / RECORD_BYTES);
+    
+    /* a sequence locked hash table of station records */
+    private static final class Segment {
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile long seq; // odd while a record is being written
+        private volatile ByteBuffer table;
+        private int size; // guarded by lock
+        
+        private Segment(int slots) { table = allocate(slots); }
+    }
+    
+    private final Segment[] segments;
+    
+    
+    /**
+     * Constructor that creates a store sized for about {@code expected}
+     * stations. The store grows past that as needed.
+     * 
+     * @param expected
+     *                 the expected number of distinct stations
+     */
+    public StationStore(int expected) {
+        segments = new Segment[DEFAULT_SEGMENTS];
+        
+        // two slots per expected station, split over the segments
+        long perSegment = 2L * Math.max(expected, 0) / DEFAULT_SEGMENTS;
+        int slots = MIN_SEGMENT_SLOTS;
+        while (slots < perSegment && slots < MAX_SEGMENT_SLOTS)
+            slots <<= 1;
+        
+        for (int i = 0; i < segments.length; i++)
+            segments[i] = new Segment(slots);
+    }
+    
+    private static ByteBuffer allocate(int slots) {
+        return ByteBuffer.allocateDirect(slots * RECORD_BYTES)
+            .order(ByteOrder.nativeOrder());
+    }
+    
+    
+    /* ---------------------------------------------------------------------
+     * Hashing */
+    
+    /* 64 bit FNV-1a hash of mac[off, off+len), well mixed for the table */
+    static long macHash(final char[] mac, int off, int len) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = off, n = off + len; i < n; i++)
+            h = (h ^ mac[i]) * 0x100000001B3L;
+        
+        h ^= h >>> 29;
+        return h | OCCUPIED;
+    }
+    
+    private Segment segmentOf(long hash) {
+        return segments[segmentIndex(hash)];
+    }
+    
+    private int segmentIndex(long hash) {
+        // slots are picked with the low bits, segments with higher ones
+        return (int) (hash >>> 32) & (segments.length - 1);
+    }
+    
+    
+    /* ---------------------------------------------------------------------
+     * Writes */
+    
+    /**
+     * Updates the state of the station in {@code entry}. Assoc successes open
+     * a session, deauths close the open session, if any. Entries that are not
+     * assoc successes or deauths, or whose station MAC is missing or too long,
+     * are ignored.
+     * 
+     * @param entry
+     *              a parsed log entry
+     */
+    public void record(LogEntry entry) {
+        LogEntry.Type type = entry.getType();
+        if (type == LogEntry.Type.SKIP || type == LogEntry.Type.CNTRL)
+            return;
+        
+        char[] mac = entry.getStation().chars();
+        if (mac == null || mac.length > MAX_MAC_LENGTH)
+            return;
+        
+        record(mac, 0, mac.length, type, entry.getTimeStamp(),
+            entry.getApCode());
+    }
+    
+    /**
+     * Updates the state of the station with MAC {@code mac[off, off+len)}.
+     * 
+     * @param mac
+     *               holds the station MAC
+     * @param off
+     *               the index of the MAC's first char
+     * @param len
+     *               the length of the MAC
+     * @param type
+     *               one of {@code ASSOC_SUCCESS}, {@code DEAUTH_FROM} or
+     *               {@code DEAUTH_TO}
+     * @param tstamp
+     *               the entry's time since epoch in seconds
+     * @param apcode
+     *               the entry's AP code
+     * @throws IllegalArgumentException
+     *                                  if the MAC is longer than
+     *                                  {@link #MAX_MAC_LENGTH}
+     */
+    public void record(final char[] mac, int off, int len, LogEntry.Type type,
+        long tstamp, int apcode) {
+        checkLength(len);
+        long hash = macHash(mac, off, len);
+        Segment s = segmentOf(hash);
+        
+        s.lock.lock();
+        try {
+            recordLocked(s, hash, mac, off, len, type, tstamp, apcode);
+        } finally {
+            s.lock.unlock();
+        }
+    }
+    
+    /**
+     * Records a batch of parsed entries, locking each segment at most once
+     * per batch. Entries of the same station are applied in batch order.
+     * Entries are ignored as they are by {@link #record(LogEntry)}.
+     */
+    @Override
+    public void accept(LogEntry[] batch, int count) {
+        // stable counting sort of the batch by segment
+        long[] hashes = new long[count];
+        int[] starts = new int[segments.length + 1];
+        for (int i = 0; i < count; i++) {
+            LogEntry.Type type = batch[i].getType();
+            char[] mac = batch[i].getStation().chars();
+            if (type == LogEntry.Type.SKIP || type == LogEntry.Type.CNTRL
+                || mac == null || mac.length > MAX_MAC_LENGTH)
+                continue; // hash stays zero, which no MAC hashes to
+            
+            hashes[i] = macHash(mac, 0, mac.length);
+            starts[segmentIndex(hashes[i]) + 1] += 1;
+        }
+        
+        for (int g = 0; g < segments.length; g++)
+            starts[g + 1] += starts[g];
+        
+        int[] order = new int[starts[segments.length]];
+        int[] next = Arrays.copyOf(starts, segments.length);
+        for (int i = 0; i < count; i++) {
+            if (hashes[i] != 0)
+                order[next[segmentIndex(hashes[i])]++] = i;
+        }
+        
+        for (int g = 0; g < segments.length; g++) {
+            if (starts[g] == starts[g + 1])
+                continue;
+            
+            Segment s = segments[g];
+            s.lock.lock();
+            try {
+                for (int k = starts[g]; k < starts[g + 1]; k++) {
+                    LogEntry e = batch[order[k]];
+                    char[] mac = e.getStation().chars();
+                    recordLocked(s, hashes[order[k]], mac, 0, mac.length,
+                        e.getType(), e.getTimeStamp(), e.getApCode());
+                }
+            } finally {
+                s.lock.unlock();
+            }
+        }
+    }
+    
+    /* records one entry in s, whose lock is held */
+    private void recordLocked(Segment s, long hash, final char[] mac, int off,
+        int len, LogEntry.Type type, long tstamp, int apcode) {
+        ByteBuffer t = s.table;
+        int at = find(t, hash, mac, off, len);
+        boolean added = at < 0;
+        
+        if (added && (s.size + 1) * 2 > t.capacity() / RECORD_BYTES) {
+            // grow into a new table, readers keep reading the old one
+            t = rehash(t);
+            s.table = t;
+            at = find(t, hash, mac, off, len);
+        }
+        
+        s.seq += 1; // odd, readers retry
+        VarHandle.storeStoreFence();
+        
+        if (added) {
+            at = -at - 1;
+            t.putLong(at + HASH, hash);
+            t.putInt(at + MAC_LEN, len);
+            for (int i = 0; i < len; i++)
+                t.put(at + MAC + i, (byte) mac[off + i]);
+            t.putLong(at + LAST_SEEN, tstamp);
+            t.putLong(at + SESSION_START, NO_SESSION);
+            t.putLong(at + SESSION_SECONDS, 0);
+            t.putInt(at + ASSOCS, 0);
+            t.putInt(at + DEAUTHS, 0);
+            t.putInt(at + SESSIONS, 0);
+            s.size += 1;
+        }
+        
+        update(t, at, type, tstamp, apcode);
+        
+        s.seq += 1; // even, record is consistent
+    }
+    
+    /* applies one entry to the record at */
+    private static void update(ByteBuffer t, int at, LogEntry.Type type,
+        long tstamp, int apcode) {
+        // out of order entries don't move last seen back
+        if (tstamp >= t.getLong(at + LAST_SEEN)) {
+            t.putLong(at + LAST_SEEN, tstamp);
+            t.putInt(at + LAST_AP, apcode);
+        }
+        
+        long open = t.getLong(at + SESSION_START);
+        if (type == LogEntry.Type.ASSOC_SUCCESS) {
+            t.putInt(at + ASSOCS, t.getInt(at + ASSOCS) + 1);
+            // roaming re-assocs keep the session open
+            if (open == NO_SESSION)
+                t.putLong(at + SESSION_START, tstamp);
+        } else {
+            t.putInt(at + DEAUTHS, t.getInt(at + DEAUTHS) + 1);
+            if (open != NO_SESSION && tstamp >= open) {
+                t.putLong(at + SESSION_SECONDS,
+                    t.getLong(at + SESSION_SECONDS) + tstamp - open);
+                t.putInt(at + SESSIONS, t.getInt(at + SESSIONS) + 1);
+                t.putLong(at + SESSION_START, NO_SESSION);
+            }
+        }
+    }
+    
+    /* returns the byte offset of mac's record, or -(offset + 1) of the empty
+     * slot mac would be inserted at */
+    private static int find(ByteBuffer t, long hash, final char[] mac,
+        int off, int len) {
+        int mask = t.capacity() / RECORD_BYTES - 1;
+        int i = (int) hash & mask;
+        
+        while (true) {
+            int at = i * RECORD_BYTES;
+            long h = t.getLong(at + HASH);
+            if (h == 0)
+                return -at - 1;
+            if (h == hash && macEquals(t, at, mac, off, len))
+                return at;
+            i = (i + 1) & mask;
+        }
+    }
+    
+    private static boolean macEquals(ByteBuffer t, int at, final char[] mac,
+        int off, int len) {
+        if (t.getInt(at + MAC_LEN) != len)
+            return false;
+        
+        for (int i = 0; i < len; i++) {
+            if (t.get(at + MAC + i) != (byte) mac[off + i])
+                return false;
+        }
+        
+        return true;
+    }
+    
+    /* returns the byte offset of the empty slot for hash, t has no equal MAC */
+    private static int findEmpty(ByteBuffer t, long hash) {
+        int mask = t.capacity() / RECORD_BYTES - 1;
+        int i = (int) hash & mask;
+        
+        while (t.getLong(i * RECORD_BYTES + HASH) != 0)
+            i = (i + 1) & mask;
+        
+        return i * RECORD_BYTES;
+    }
+    
+    private static void checkLength(int len) {
+        if (len < 0 || len > MAX_MAC_LENGTH)
+            throw new IllegalArgumentException(
+                "MAC length must be from 0 to " + MAX_MAC_LENGTH);
+    }
+    
+    private static ByteBuffer rehash(ByteBuffer old) {
+        int slots = old.capacity() / RECORD_BYTES;
+        if (slots >= MAX_SEGMENT_SLOTS)
+            throw new IllegalStateException("station store segment is full");
+        
+        ByteBuffer t = allocate(slots * 2);
+        for (int at = 0; at < old.capacity(); at += RECORD_BYTES) {
+            long h = old.getLong(at + HASH);
+            if (h == 0)
+                continue;
+            
+            int to = findEmpty(t, h);
+            for (int b = 0; b < RECORD_BYTES; b += 4)
+                t.putInt(to + b, old.getInt(at + b));
+        }
+        
+        return t;
+    }
+    
+    
+    /* ---------------------------------------------------------------------
+     * Reads */
+    
+    /**
+     * The state of one station, as read from the store. Reads fill a
+     * {@code State} in place, so that scans need not allocate per station.
+     */
+    public static final class State {
+        private final char[] mac = new char[MAX_MAC_LENGTH];
+        private int macLen;
+        private long lastSeen;
+        private long sessionStart;
+        private long sessionSeconds;
+        private int lastAp;
+        private int assocs;
+        private int deauths;
+        private int sessions;
+        
+        public String getMac() { return String.valueOf(mac, 0, macLen); }
+        
+        public long getLastSeen() { return lastSeen; }
+        
+        public int getLastApCode() { return lastAp; }
+        
+        /**
+         * @return the start of the open session, or {@link #NO_SESSION}
+         */
+        public long getSessionStart() { return sessionStart; }
+        
+        public boolean hasOpenSession() { return sessionStart != NO_SESSION; }
+        
+        public int getAssocCount() { return assocs; }
+        
+        public int getDeauthCount() { return deauths; }
+        
+        public int getSessionCount() { return sessions; }
+        
+        /**
+         * @return the total length of closed sessions, in seconds
+         */
+        public long getSessionSeconds() { return sessionSeconds; }
+        
+        /* copies the record at from t, no consistency check */
+        private void read(ByteBuffer t, int at) {
+            // a torn read may see any length, keep it in bounds until the
+            // read is checked
+            macLen = Math.min(t.getInt(at + MAC_LEN) & 0xFF, MAX_MAC_LENGTH);
+            for (int i = 0; i < macLen; i++)
+                mac[i] = (char) (t.get(at + MAC + i) & 0xFF);
+            lastSeen = t.getLong(at + LAST_SEEN);
+            sessionStart = t.getLong(at + SESSION_START);
+            sessionSeconds = t.getLong(at + SESSION_SECONDS);
+            lastAp = t.getInt(at + LAST_AP);
+            assocs = t.getInt(at + ASSOCS);
+            deauths = t.getInt(at + DEAUTHS);
+            sessions = t.getInt(at + SESSIONS);
+        }
+        
+        @Override
+        public String toString() {
+            return String.format(
+                "Station-MAC:[ %s ]  Last-Seen:[ %d ]  AP-Code:[ %d ]  "
+                    + "Assocs:[ %d ]  Deauths:[ %d ]  Sessions:[ %d ]",
+                getMac(), lastSeen, lastAp, assocs, deauths, sessions);
+        }
+    }
+    
+    /**
+     * Reads the state of the station with MAC {@code mac[off, off+len)} into
+     * {@code into}, without locking.
+     * 
+     * @param mac
+     *             holds the station MAC
+     * @param off
+     *             the index of the MAC's first char
+     * @param len
+     *             the length of the MAC
+     * @param into
+     *             filled with the station's state
+     * @return whether the station is in the store
+     */
+    public boolean read(final char[] mac, int off, int len, State into) {
+        if (len < 0 || len > MAX_MAC_LENGTH)
+            return false;
+        
+        long hash = macHash(mac, off, len);
+        Segment s = segmentOf(hash);
+        
+        while (true) {
+            long seq = s.seq;
+            if ((seq & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            
+            ByteBuffer t = s.table;
+            int at = find(t, hash, mac, off, len);
+            if (at >= 0)
+                into.read(t, at);
+            
+            VarHandle.loadLoadFence();
+            if (s.seq == seq)
+                return at >= 0;
+        }
+    }
+    
+    /**
+     * @param mac
+     *            a station MAC
+     * @return the station's state, or {@code null} if it is not in the store
+     */
+    public State get(String mac) {
+        char[] chars = mac.toCharArray();
+        State state = new State();
+        return read(chars, 0, chars.length, state) ? state : null;
+    }
+    
+    /**
+     * Passes the state of every station to {@code action}, one segment at a
+     * time. The same {@code State} is refilled for each station, copy what
+     * needs to be kept. Each segment is read under its lock.
+     * 
+     * @param action
+     *               called once per station
+     */
+    public void forEach(Consumer<State> action) {
+        State state = new State();
+        for (Segment s : segments) {
+            s.lock.lock();
+            try {
+                ByteBuffer t = s.table;
+                for (int at = 0; at < t.capacity(); at += RECORD_BYTES) {
+                    if (t.getLong(at + HASH) == 0)
+                        continue;
+                    
+                    state.read(t, at);
+                    action.accept(state);
+                }
+            } finally {
+                s.lock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * @return the number of stations in the store
+     */
+    public long size() {
+        long size = 0;
+        for (Segment s : segments) {
+            s.lock.lock();
+            try {
+                size += s.size;
+            } finally {
+                s.lock.unlock();
+            }
+        }
+        
+        return size;
+    }
+    
+    /**
+     * @return the number of bytes held off-heap by the store's tables
+     */
+    public long offHeapBytes() {
+        long bytes = 0;
+        for (Segment s : segments)
+            bytes += s.table.capacity();
+        
+        return bytes;
+    }
+}
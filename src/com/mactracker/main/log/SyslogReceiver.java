@@ -0,0 +1,532 @@
+package com.mactracker.main.log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Receives controller syslog messages over UDP and/or TCP and parses them as
+ * they arrive, so entries reach a sink milliseconds after they are logged
+ * instead of after the log file is rotated and read.
+ * <p>
+ * Messages must be sent in the same line format the controllers' log files
+ * are written in, one message per line. A leading syslog priority, e.g.
+ * {@code <190>}, is dropped. TCP streams are split on line feeds, a datagram
+ * holds one or more whole lines.
+ * <p>
+ * Everything runs on a single thread with a {@link Selector}. Bytes are read
+ * into pooled buffers, one per TCP connection, and complete lines are pushed
+ * straight into the receiver's {@link LogParser} with
+ * {@link LogParser#feed(char[], int, int, EntrySink)}, the parser's reader is
+ * never used. The parser and sink are called from the receiver thread only.
+ * <p>
+ * Back-pressure is the sink's: nothing is read while it runs, so TCP senders
+ * are held back by their send windows and datagrams queue in the socket
+ * receive buffer, see {@link #receiveBufferSize(int)}, until the operating
+ * system drops them. Lines longer than {@link #maxLineLength(int)} are dropped
+ * and counted against their source.
+ * <p>
+ * A line the parser fails on, e.g. one with a malformed timestamp, or a batch
+ * the sink fails on, is dropped and counted against the source it came from,
+ * and receiving goes on. Only a failure of the selector or of a listening
+ * socket stops the receiver, see {@link #getError()}.
+ * 
+ * @author Group Z
+ */
+public class SyslogReceiver implements Closeable {
+    /**
+     * Default maximum line length, in bytes.
+     */
+    public static final int DEFAULT_MAX_LINE_LENGTH = 8 * 1024;
+    
+    private static final int MAX_DATAGRAM_LENGTH = 64 * 1024;
+    private static final int MAX_POOLED = 64;
+    private static final byte NEWLINE = '\n';
+    private static final byte PRI_OPEN = '<';
+    private static final byte PRI_CLOSE = '>';
+    private static final int MAX_PRI_LENGTH = 5; // "<191>"
+    
+    private final LogParser parser;
+    private final EntrySink sink;
+    private InetSocketAddress udpBind;
+    private InetSocketAddress tcpBind;
+    private int rcvBufSize;
+    private int maxLineLength = DEFAULT_MAX_LINE_LENGTH;
+    
+    private Selector selector;
+    private DatagramChannel udp;
+    private ServerSocketChannel tcp;
+    private Thread thread;
+    private volatile boolean running;
+    private volatile Exception error; // what stopped the receiver thread
+    
+    // connection buffers, only touched by the receiver thread
+    private final ArrayDeque<ByteBuffer> pool = new ArrayDeque<ByteBuffer>();
+    private ByteBuffer datagram;
+    private char[] chars;
+    
+    private final ConcurrentHashMap<InetAddress, Source> sources =
+        new ConcurrentHashMap<InetAddress, Source>();
+    private final AtomicLong entries = new AtomicLong();
+    
+    
+    /**
+     * @param parser
+     *               the parser to feed received lines to, which must not be
+     *               used elsewhere while the receiver runs
+     * @param sink
+     *               receives the parsed entries, on the receiver thread
+     */
+    public SyslogReceiver(LogParser parser, EntrySink sink) {
+        if (parser == null || sink == null)
+            throw new IllegalArgumentException(
+                "parser and sink cannot be null");
+        
+        this.parser = parser;
+        this.sink = sink;
+    }
+    
+    /**
+     * @param address
+     *                the address to receive datagrams on, e.g. port 514
+     * @return this receiver
+     */
+    public SyslogReceiver udp(InetSocketAddress address) {
+        udpBind = address;
+        return this;
+    }
+    
+    /**
+     * @param address
+     *                the address to accept connections on
+     * @return this receiver
+     */
+    public SyslogReceiver tcp(InetSocketAddress address) {
+        tcpBind = address;
+        return this;
+    }
+    
+    /**
+     * @param bytes
+     *              the socket receive buffer size, {@code SO_RCVBUF}, of every
+     *              socket, or zero to keep the system's default
+     * @return this receiver
+     */
+    public SyslogReceiver receiveBufferSize(int bytes) {
+        if (bytes < 0)
+            throw new IllegalArgumentException("bytes cannot be negative");
+        
+        rcvBufSize = bytes;
+        return this;
+    }
+    
+    /**
+     * @param bytes
+     *              the longest line kept, including its line feed, at most
+     *              {@value #MAX_DATAGRAM_LENGTH}
+     * @return this receiver
+     */
+    public SyslogReceiver maxLineLength(int bytes) {
+        if (bytes < 2 || bytes > MAX_DATAGRAM_LENGTH)
+            throw new IllegalArgumentException(
+                "bytes must be in [2, " + MAX_DATAGRAM_LENGTH + "]");
+        
+        maxLineLength = bytes;
+        return this;
+    }
+    
+    
+    /**
+     * Per-source counters, for the sources of every message received so far.
+     */
+    public static final class Source {
+        private final InetAddress address;
+        private final AtomicLong messages = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private volatile RuntimeException lastFailure;
+        
+        private Source(InetAddress address) { this.address = address; }
+        
+        public InetAddress getAddress() { return address; }
+        
+        /**
+         * @return the number of lines received from this source, i.e. the
+         *         sequence number of its latest line
+         */
+        public long getSequence() { return messages.get(); }
+        
+        public long getBytes() { return bytes.get(); }
+        
+        /**
+         * @return the number of lines from this source that were too long,
+         *         or cut off by the connection closing
+         */
+        public long getDropped() { return dropped.get(); }
+        
+        /**
+         * @return the number of lines and batches from this source the parser
+         *         or sink failed on
+         */
+        public long getFailed() { return failed.get(); }
+        
+        /**
+         * @return the latest parser or sink failure on this source's lines,
+         *         or {@code null} if there was none
+         */
+        public RuntimeException getLastFailure() { return lastFailure; }
+        
+        @Override
+        public String toString() {
+            return String.format(
+                "%s  seq:[ %d ]  bytes:[ %d ]  dropped:[ %d ]  failed:[ %d ]",
+                address.getHostAddress(), getSequence(), getBytes(),
+                getDropped(), getFailed());
+        }
+    }
+    
+    /* a TCP connection's partial line */
+    private static final class Connection {
+        private final Source source;
+        private final ByteBuffer line;
+        private boolean discarding; // dropping the rest of a too long line
+        
+        private Connection(Source source, ByteBuffer line) {
+            this.source = source;
+            this.line = line;
+        }
+    }
+    
+    
+    /**
+     * Binds the configured sockets and starts receiving on a new thread.
+     * 
+     * @return this receiver
+     * @throws IOException
+     *                     if a socket cannot be opened or bound
+     */
+    public synchronized SyslogReceiver start() throws IOException {
+        if (thread != null)
+            throw new IllegalStateException("receiver already started");
+        if (udpBind == null && tcpBind == null)
+            throw new IllegalStateException("no UDP or TCP address to bind");
+        
+        selector = Selector.open();
+        try {
+            if (udpBind != null) {
+                udp = DatagramChannel.open();
+                if (rcvBufSize > 0)
+                    udp.setOption(StandardSocketOptions.SO_RCVBUF, rcvBufSize);
+                udp.bind(udpBind).configureBlocking(false);
+                udp.register(selector, SelectionKey.OP_READ);
+                // room for a line feed after the longest datagram
+                datagram = ByteBuffer.allocate(MAX_DATAGRAM_LENGTH + 1);
+                datagram.limit(MAX_DATAGRAM_LENGTH);
+            }
+            
+            if (tcpBind != null) {
+                tcp = ServerSocketChannel.open();
+                if (rcvBufSize > 0)
+                    tcp.setOption(StandardSocketOptions.SO_RCVBUF, rcvBufSize);
+                tcp.bind(tcpBind).configureBlocking(false);
+                tcp.register(selector, SelectionKey.OP_ACCEPT);
+            }
+        } catch (IOException e) {
+            closeChannels();
+            throw e;
+        }
+        
+        chars = new char[MAX_DATAGRAM_LENGTH + 1];
+        running = true;
+        thread = new Thread(this::receive, "syslog-receiver");
+        thread.start();
+        return this;
+    }
+    
+    /* the receiver thread */
+    private void receive() {
+        try {
+            while (running) {
+                selector.select();
+                
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable())
+                        accept();
+                    else if (key.channel() == udp)
+                        readDatagrams();
+                    else
+                        readStream(key);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // the selector or a listening socket failed, kept for getError
+            error = e;
+        } finally {
+            running = false;
+            closeChannels();
+        }
+    }
+    
+    private void accept() throws IOException {
+        SocketChannel ch;
+        while ((ch = tcp.accept()) != null) {
+            ch.configureBlocking(false);
+            if (rcvBufSize > 0)
+                ch.setOption(StandardSocketOptions.SO_RCVBUF, rcvBufSize);
+            
+            InetAddress from = ((InetSocketAddress) ch.getRemoteAddress())
+                .getAddress();
+            ch.register(selector, SelectionKey.OP_READ,
+                new Connection(source(from), acquire()));
+        }
+    }
+    
+    /* reads every queued datagram, each holds whole lines */
+    private void readDatagrams() throws IOException {
+        SocketAddress from;
+        while ((from = udp.receive(datagram)) != null) {
+            Source src = source(((InetSocketAddress) from).getAddress());
+            int len = datagram.position();
+            byte[] b = datagram.array();
+            src.bytes.addAndGet(len);
+            
+            // a datagram's last line need not end in a line feed
+            if (len > 0 && b[len - 1] != NEWLINE)
+                b[len++] = NEWLINE;
+            
+            feedLines(b, 0, len, src);
+            datagram.clear().limit(MAX_DATAGRAM_LENGTH);
+        }
+    }
+    
+    /* reads a connection's bytes, feeding every line they complete */
+    private void readStream(SelectionKey key) {
+        SocketChannel ch = (SocketChannel) key.channel();
+        Connection conn = (Connection) key.attachment();
+        ByteBuffer line = conn.line;
+        
+        int n;
+        try {
+            n = ch.read(line);
+        } catch (IOException e) {
+            n = -1; // e.g. reset by the sender
+        }
+        
+        if (n < 0) {
+            // a line cut off by the connection closing is dropped
+            if (line.position() > 0 || conn.discarding)
+                conn.source.dropped.incrementAndGet();
+            
+            disconnect(key, conn);
+            return;
+        }
+        
+        conn.source.bytes.addAndGet(n);
+        
+        byte[] b = line.array();
+        int from = 0;
+        int to = line.position();
+        
+        if (conn.discarding) {
+            while (from < to && b[from] != NEWLINE)
+                from++;
+            if (from == to) {
+                line.clear();
+                return;
+            }
+            
+            from += 1;
+            conn.discarding = false;
+        }
+        
+        // lines up to the last line feed are complete
+        int last = to - 1;
+        while (last >= from && b[last] != NEWLINE)
+            last--;
+        
+        if (last >= from)
+            feedLines(b, from, last + 1, conn.source);
+        
+        // keep the partial line, or drop it if it can't get any longer
+        int rest = to - (last >= from ? last + 1 : from);
+        if (rest == b.length) {
+            conn.source.dropped.incrementAndGet();
+            conn.discarding = true;
+            line.clear();
+        } else {
+            System.arraycopy(b, to - rest, b, 0, rest);
+            line.clear().position(rest);
+        }
+    }
+    
+    /* decodes the lines of b[from, to), which ends in a line feed, dropping
+     * syslog priorities, and feeds them to the parser */
+    private void feedLines(byte[] b, int from, int to, Source src) {
+        int n = 0;
+        int i = from;
+        while (i < to) {
+            // skip a leading priority, e.g. <190>
+            if (b[i] == PRI_OPEN) {
+                int j = i + 1;
+                while (j < to && j - i < MAX_PRI_LENGTH && b[j] >= '0'
+                    && b[j] <= '9')
+                    j++;
+                if (j < to && j > i + 1 && b[j] == PRI_CLOSE)
+                    i = j + 1;
+            }
+            
+            int start = i;
+            while (b[i] != NEWLINE)
+                i++;
+            i += 1;
+            
+            if (i - start == 1)
+                continue; // blank line
+            if (i - start > maxLineLength) {
+                src.dropped.incrementAndGet();
+                continue;
+            }
+            
+            // the logs are ASCII
+            for (int k = start; k < i; k++)
+                chars[n++] = (char) (b[k] & 0xFF);
+            
+            src.messages.incrementAndGet();
+        }
+        
+        try {
+            entries.addAndGet(parser.feed(chars, 0, n, sink));
+        } catch (RuntimeException e) {
+            // the parser dropped what failed and parsed every other line
+            src.failed.addAndGet(1 + e.getSuppressed().length);
+            src.lastFailure = e;
+        }
+    }
+    
+    private Source source(InetAddress address) {
+        return sources.computeIfAbsent(address, Source::new);
+    }
+    
+    private ByteBuffer acquire() {
+        ByteBuffer b = pool.poll();
+        return b != null ? b : ByteBuffer.allocate(maxLineLength);
+    }
+    
+    private void disconnect(SelectionKey key, Connection conn) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+        
+        conn.line.clear();
+        if (pool.size() < MAX_POOLED)
+            pool.push(conn.line);
+    }
+    
+    private void closeChannels() {
+        try {
+            if (selector != null) {
+                for (SelectionKey key : selector.keys())
+                    key.channel().close();
+                selector.close();
+            }
+            if (udp != null)
+                udp.close();
+            if (tcp != null)
+                tcp.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    
+    
+    /**
+     * @return the bound UDP address, e.g. to learn an ephemeral port, or
+     *         {@code null} if UDP is not received
+     * @throws IOException
+     *                     if the address cannot be read
+     */
+    public InetSocketAddress getUdpAddress() throws IOException {
+        return udp == null ? null : (InetSocketAddress) udp.getLocalAddress();
+    }
+    
+    /**
+     * @return the bound TCP address, or {@code null} if TCP is not received
+     * @throws IOException
+     *                     if the address cannot be read
+     */
+    public InetSocketAddress getTcpAddress() throws IOException {
+        return tcp == null ? null : (InetSocketAddress) tcp.getLocalAddress();
+    }
+    
+    /**
+     * @return the counters of every source a message was received from
+     */
+    public Collection<Source> getSources() {
+        return new ArrayList<Source>(sources.values());
+    }
+    
+    /**
+     * @return the number of entries handed to the sink
+     */
+    public long getEntryCount() { return entries.get(); }
+    
+    /**
+     * @return whether the receiver thread is running
+     */
+    public boolean isRunning() { return running; }
+    
+    /**
+     * @return the failure the receiver thread stopped on, or {@code null} if
+     *         it is running or was closed
+     */
+    public Exception getError() { return error; }
+    
+    /**
+     * Stops receiving and closes every socket. A partial line left in a
+     * connection buffer is dropped.
+     */
+    @Override
+    public void close() throws IOException {
+        Thread t;
+        synchronized (this) {
+            t = thread;
+            running = false;
+            if (selector != null)
+                selector.wakeup();
+        }
+        
+        if (t != null) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
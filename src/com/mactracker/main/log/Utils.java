@@ -2,8 +2,15 @@ package com.mactracker.main.log;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
 
 /**
  * This class contains a variety of static functions and classes used by the log
@@ -17,8 +24,6 @@ public final class Utils {
     
     // -----------------------------------------------------------------------
     /* AbbreviationTrie Utility Functions and Constants */
-    private static final String TRAILING_COMMENT_REGEX = "\\s*[^/]#";
-    private static final String KEY_VALUE_REGEX = "\\s*[^/]=\\s*";
     private static final String[] SKIP_LINE = new String[0];
     private static final int KEY = 0;
     private static final int VALUE = 1;
@@ -27,7 +32,29 @@ public final class Utils {
     /* function to build abbreviation trie from name mapping file */
     public static AbbreviationTrie buildAbbrTrie(Reader reader)
         throws IOException {
+        return buildAbbrTrie(reader, null);
+    }
+    
+    /**
+     * Builds the abbreviation trie of a name mapping file, e.g. after the file
+     * was edited, such that every building of {@code previous} keeps its value
+     * index. Buildings no longer in the file keep theirs too, so indexes
+     * handed out by {@code previous} still resolve to the same name.
+     * 
+     * @param reader
+     *                 the name mapping source
+     * @param previous
+     *                 the trie being replaced, or {@code null}
+     * @return the abbreviation trie of {@code reader}
+     * @throws IOException
+     *                     if reading fails
+     */
+    public static AbbreviationTrie buildAbbrTrie(Reader reader,
+        AbbreviationTrie previous) throws IOException {
         AbbreviationTrie abbr = new AbbreviationTrie();
+        if (previous != null)
+            abbr.seedValues(previous.getValues());
+        
         BufferedReader br = new BufferedReader(reader);
         
         String line;
@@ -48,38 +75,353 @@ public final class Utils {
         return abbr;
     }
     
+    /**
+     * Loads the abbreviation trie of a name mapping file from its binary
+     * snapshot, unless the snapshot is missing or older than the mapping file.
+     * In that case the trie is built from the mapping file and the snapshot
+     * is rewritten, so later loads are fast again.
+     * 
+     * @param mappings
+     *                 the name mapping file
+     * @param snapshot
+     *                 the snapshot of the trie built from {@code mappings}
+     * @return the abbreviation trie of {@code mappings}
+     * @throws IOException
+     *                     if reading the mapping file or writing the snapshot
+     *                     fails
+     */
+    public static AbbreviationTrie loadAbbrTrie(Path mappings, Path snapshot)
+        throws IOException {
+        if (Files.exists(snapshot) && Files.getLastModifiedTime(snapshot)
+            .compareTo(Files.getLastModifiedTime(mappings)) >= 0) {
+            try (InputStream in = Files.newInputStream(snapshot)) {
+                return AbbreviationTrie.readSnapshot(in);
+            } catch (IOException e) {
+                // fall through and rebuild an unreadable snapshot
+            }
+        }
+        
+        AbbreviationTrie abbr;
+        try (Reader reader = Files.newBufferedReader(mappings,
+            StandardCharsets.UTF_8)) {
+            abbr = buildAbbrTrie(reader);
+        }
+        
+        MappingWatcher.writeSnapshot(abbr, snapshot);
+        
+        return abbr;
+    }
+    
     
     private static final String COMMENT = "#";
     private static final String EQUALS = "=";
+    private static final char COMMENT_CHAR = '#';
+    private static final char EQUALS_CHAR = '=';
+    private static final char ESCAPE_CHAR = '/';
     
     
-    /* build abbreviation trie helper function */
+    /* build abbreviation trie helper function, splits a line in a single pass
+     * without regular expressions */
     private static String[] splitKeyValue(String line) {
         // skip line if it's empty or a comment
         if (line.isEmpty() || line.startsWith(COMMENT))
             return SKIP_LINE;
         
-        // discard possible trailing comment and get key-value pair
-        String[] kv = line.split(TRAILING_COMMENT_REGEX)[0]
-            .split(KEY_VALUE_REGEX);
+        StringBuilder key = new StringBuilder();
+        StringBuilder value = null; // null until the '=' is read
+        
+        for (int i = 0, n = line.length(); i < n; i++) {
+            char c = line.charAt(i);
+            char next = i + 1 < n ? line.charAt(i + 1) : 0;
+            
+            // '/#' and '/=' are a literal '#' and '='
+            if (c == ESCAPE_CHAR
+                && (next == COMMENT_CHAR || next == EQUALS_CHAR)) {
+                c = next;
+                i += 1;
+            } else if (c == COMMENT_CHAR) {
+                break; // discard trailing comment
+            } else if (c == EQUALS_CHAR) {
+                // skip line if it has more than one '='
+                if (value != null)
+                    return SKIP_LINE;
+                
+                value = new StringBuilder();
+                continue;
+            }
+            
+            (value == null ? key : value).append(c);
+        }
         
         // skip line if it's not of the form 'key = value'
-        if (kv.length != 2)
+        if (value == null)
             return SKIP_LINE;
         
-        return new String[] { remEscapes(kv[KEY]), remEscapes(kv[VALUE]) };
+        String[] kv = { key.toString().strip(), value.toString().strip() };
+        if (kv[KEY].isEmpty() || kv[VALUE].isEmpty())
+            return SKIP_LINE;
+        
+        return kv;
     }
+    /* End AbbreviationTrie Utility Functions */
+    
+    // -----------------------------------------------------------------------
+    /* CodeRegistry Utility Functions and Constants */
+    private static final String SKIP_TYPE = "SKIP";
+    private static final String NEWLINE_END = "NEWLINE";
+    private static final String SPACE_END = "SPACE";
     
-    private static final String ESC_COMMENT = "/#";
-    private static final String ESC_EQUALS = "/=";
     
-    /* returns a String w/removed escape characters */
-    private static String remEscapes(String str) {
-        return str.replaceAll(ESC_COMMENT, COMMENT).replaceAll(ESC_EQUALS,
-            EQUALS);
+    /**
+     * Builds a code registry from a NOTI code mapping file, where each line is
+     * one of
+     * 
+     * <pre>
+     * code = SKIP
+     * code = TYPE colons-before-mac NEWLINE|SPACE
+     * code = other-code
+     * </pre>
+     * 
+     * Comments ({@code '#'}) can either start a line or come after a mapping.
+     * 
+     * @param reader
+     *               the code mapping source
+     * @return a registry holding only the codes mapped by {@code reader}
+     * @throws IOException
+     *                                  if reading fails
+     * @throws IllegalArgumentException
+     *                                  if a line is not a valid mapping, the
+     *                                  message includes the line number
+     */
+    public static CodeRegistry buildCodeRegistry(Reader reader)
+        throws IOException {
+        CodeRegistry registry = new CodeRegistry();
+        BufferedReader br = new BufferedReader(reader);
+        
+        String line;
+        int lineNo = 0;
+        while ((line = br.readLine()) != null) {
+            lineNo += 1;
+            
+            // discard possible trailing comment
+            int hash = line.indexOf(COMMENT);
+            if (hash >= 0)
+                line = line.substring(0, hash);
+            
+            line = line.strip();
+            if (line.isEmpty())
+                continue;
+            
+            try {
+                putCodeMapping(registry, line);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(
+                    "code mapping line " + lineNo + ": " + e.getMessage(), e);
+            }
+        }
         
+        return registry;
     }
-    /* End AbbreviationTrie Utility Functions */
+    
+    /* build code registry helper function, line is a stripped 'key = value' */
+    private static void putCodeMapping(CodeRegistry registry, String line) {
+        int eq = line.indexOf(EQUALS);
+        if (eq < 0)
+            throw new IllegalArgumentException("expected 'code = mapping'");
+        
+        int code = parseInt(line.substring(0, eq).strip(), "code");
+        String[] fields = line.substring(eq + 1).strip().split("\\s+");
+        
+        if (fields[0].equals(SKIP_TYPE)) {
+            // code = SKIP
+            if (fields.length != 1)
+                throw new IllegalArgumentException("expected 'SKIP'");
+            
+            registry.putSkip(code);
+            
+        } else if (fields.length == 1) {
+            // code = other-code
+            registry.putAlias(code, parseInt(fields[0], "aliased code"));
+            
+        } else {
+            // code = TYPE colons-before-mac NEWLINE|SPACE
+            if (fields.length != 3)
+                throw new IllegalArgumentException(
+                    "expected 'TYPE colons NEWLINE|SPACE'");
+            
+            LogEntry.Type type;
+            try {
+                type = LogEntry.Type.valueOf(fields[0]);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(
+                    "unknown entry type '" + fields[0] + "'");
+            }
+            
+            char apNameEnd;
+            if (fields[2].equals(NEWLINE_END))
+                apNameEnd = MessageLayout.NEWLINE;
+            else if (fields[2].equals(SPACE_END))
+                apNameEnd = MessageLayout.SPACE;
+            else
+                throw new IllegalArgumentException(
+                    "AP name end must be NEWLINE or SPACE");
+            
+            registry.putLayout(code, type, parseInt(fields[1], "colons"),
+                apNameEnd);
+        }
+    }
+    
+    private static int parseInt(String s, String what) {
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(
+                what + " '" + s + "' is not a number");
+        }
+    }
+    /* End CodeRegistry Utility Functions */
+    
+    // -----------------------------------------------------------------------
+    /* MacSet Utility Functions */
+    
+    /**
+     * Builds a MAC set from a MAC list file, with one station MAC per line as
+     * it appears in the logs. Comments ({@code '#'}) can either start a line
+     * or come after a MAC.
+     * 
+     * @param reader
+     *               the MAC list source
+     * @return a set holding every MAC listed by {@code reader}
+     * @throws IOException
+     *                     if reading fails
+     */
+    public static MacSet buildMacSet(Reader reader) throws IOException {
+        MacSet macs = new MacSet(0);
+        BufferedReader br = new BufferedReader(reader);
+        
+        String line;
+        while ((line = br.readLine()) != null) {
+            // discard possible trailing comment
+            int hash = line.indexOf(COMMENT);
+            if (hash >= 0)
+                line = line.substring(0, hash);
+            
+            line = line.strip();
+            if (!line.isEmpty())
+                macs.add(line);
+        }
+        
+        return macs;
+    }
+    /* End MacSet Utility Functions */
+    
+    // -----------------------------------------------------------------------
+    /* Parser Check Utility Functions */
+    
+    /**
+     * Parses a log file once per buffer length and checks that every parse
+     * gives the same entries and diagnostic counts. Where lines fall relative
+     * to buffer refills must never change what is parsed.
+     * 
+     * @param log
+     *                    an ASCII log file
+     * @param buffLengths
+     *                    the buffer lengths to parse with
+     * @return {@code null} if every parse agrees, otherwise the first
+     *         difference found
+     * @throws IOException
+     *                     if the log file cannot be read
+     */
+    public static String checkBufferLengths(Path log, int... buffLengths)
+        throws IOException {
+        List<LogEntry> expected = null;
+        int[] expectedCounts = null;
+        
+        for (int buffLength : buffLengths) {
+            LogParser parser;
+            List<LogEntry> entries;
+            try (Reader in = new InputStreamReader(Files.newInputStream(log),
+                StandardCharsets.US_ASCII)) {
+                parser = new LogParser(in, buffLength);
+                entries = parser.parse();
+            }
+            
+            int[] counts = parser.counts();
+            if (expected == null) {
+                expected = entries;
+                expectedCounts = counts;
+                continue;
+            }
+            
+            String at = "buffer length " + buffLength + " vs "
+                + buffLengths[0] + ": ";
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != expectedCounts[i])
+                    return at + LogParser.COUNT_NAMES[i] + " " + counts[i]
+                        + " vs " + expectedCounts[i];
+            }
+            
+            if (entries.size() != expected.size())
+                return at + "entries " + entries.size() + " vs "
+                    + expected.size();
+            
+            for (int i = 0; i < entries.size(); i++) {
+                if (!sameEntry(entries.get(i), expected.get(i)))
+                    return at + "entry " + i + " " + entries.get(i) + " vs "
+                        + expected.get(i);
+            }
+        }
+        
+        return null;
+    }
+    
+    /* whether a and b hold the same parsed fields */
+    private static boolean sameEntry(LogEntry a, LogEntry b) {
+        return a.getTimeStamp() == b.getTimeStamp()
+            && a.getType() == b.getType() && a.getApCode() == b.getApCode()
+            && Objects.equals(a.getStation(), b.getStation());
+    }
+    /**
+     * Checks that a {@link DuplicateFilter} passes events that differ only
+     * in their type and AP code, e.g. a station's deauth from one building
+     * and assoc at the next in the same second, and drops them when they are
+     * all handed over again.
+     * 
+     * @param apcodes
+     *                the number of AP codes to try, from
+     *                {@link AbbreviationTrie#VALUE_NOT_FOUND} up
+     * @return {@code null} if the filter passed every event once, otherwise
+     *         what it did instead
+     */
+    public static String checkDuplicateFilter(int apcodes) {
+        char[] mac = "788qY6M3kAse5HdfxH+/MqkQhuwGc8FZL18nld==".toCharArray();
+        LogEntry.Type[] types = LogEntry.Type.values();
+        
+        LogEntry[] batch = new LogEntry[types.length * apcodes];
+        int n = 0;
+        for (int apcode = AbbreviationTrie.VALUE_NOT_FOUND; n < batch.length;
+            apcode++) {
+            for (LogEntry.Type type : types)
+                batch[n++] = LogEntry.parsed(1571687724L, type, mac,
+                    LogEntry.NO_AP, apcode, 0);
+        }
+        
+        long[] passed = new long[1];
+        DuplicateFilter filter = new DuplicateFilter(
+            (entries, count) -> passed[0] += count, 60);
+        
+        filter.accept(batch, n);
+        if (passed[0] != n)
+            return "passed " + passed[0] + " of " + n + " distinct events";
+        
+        filter.accept(batch, n);
+        if (passed[0] != n)
+            return "passed " + (passed[0] - n) + " of " + n
+                + " repeated events";
+        
+        return null;
+    }
+    /* End Parser Check Utility Functions */
     
     // ----------------------------------------------------------------------
     /* ELF Hash Function */
@@ -170,20 +512,20 @@ public final class Utils {
      * 
      * The next element is P3, for which the same holds with respect to P2, and
      * so on.
-     *
+     * 
      * Chunks are chosen such that for any desired capacity >= 1000 the list
      * includes a prime number <= desired capacity * 1.11.
      * 
      * Therefore, primes can be retrieved which are quite close to any desired
      * capacity, which in turn avoids wasting memory.
-     *
+     * 
      * For example, the list includes
      * 1039,1117,1201,1277,1361,1439,1523,1597,1759,1907,2081. So if you need a
      * prime >= 1040, you will find a prime <= 1040*1.11=1154.
      * 
      * Chunks are chosen such that they are optimized for a hashtable
      * growthfactor of 2.0;
-     *
+     * 
      * If your hashtable has such a growthfactor then, after initially "rounding
      * to a prime" upon hashtable construction, it will later expand to prime
      * capacities such that there exist no better primes.
@@ -260,7 +602,7 @@ public final class Utils {
     }
     
     /**
-    
+     
      */
     
     /**